@@ -0,0 +1,348 @@
+package bearmaps.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calls into the server, whose classes live in the default package. JMH refuses benchmarks in
+ * the default package and no other package can name its classes, so the benchmarks reach them
+ * through method handles looked up once here. Handles held in static final fields are constants
+ * to the JIT, which inlines them like direct calls.
+ */
+final class BearMaps {
+    /** The base map's bounds, as in <code>MapServer</code>. */
+    static final double ROOT_ULLON = -122.2998046875, ROOT_ULLAT = 37.892195547244356;
+    static final double ROOT_LRLON = -122.2119140625, ROOT_LRLAT = 37.82280243352756;
+
+    private static final MethodHandle NEW_GRAPH;
+    private static final MethodHandle NEW_KD_TREE;
+    private static final MethodHandle CLOSEST;
+    private static final MethodHandle SNAP;
+    private static final MethodHandle SHORTEST_PATH;
+    private static final MethodHandle LEGACY_SHORTEST_PATH;
+    private static final MethodHandle NEW_DENSE_GRAPH;
+    private static final MethodHandle DENSE_INDEX;
+    private static final MethodHandle SHORTEST_ROUTE;
+    private static final MethodHandle LOCATION_NAMES;
+    private static final MethodHandle FUZZY_INDEX;
+    private static final MethodHandle FUZZY_SEARCH;
+    private static final MethodHandle EDIT_DISTANCE;
+    private static final MethodHandle DEFAULT_MAX_EDITS;
+    private static final MethodHandle CLEAN_STRING;
+    private static final MethodHandle NEW_HISTOGRAM;
+    private static final MethodHandle RECORD;
+    private static final MethodHandle NEW_RASTERER;
+    private static final MethodHandle RASTER_PARAMS;
+    private static final MethodHandle GET_MAP_RASTER;
+    private static final MethodHandle RENDER_IMAGE;
+
+    static {
+        try {
+            Class<?> graphDB = Class.forName("GraphDB");
+            Class<?> kdTree = Class.forName("GraphDB$KDTree");
+            Class<?> router = Class.forName("Router");
+            Class<?> denseGraph = Class.forName("DenseGraph");
+            Class<?> edgeRouter = Class.forName("EdgeRouter");
+            Class<?> locationIndex = Class.forName("LocationIndex");
+            Class<?> fuzzyIndex = Class.forName("FuzzyIndex");
+            Class<?> histogram = Class.forName("LatencyHistogram");
+            Class<?> rasterer = Class.forName("Rasterer");
+            Class<?> rasterRequest = Class.forName("RasterRequestParams");
+            Class<?> rasterResult = Class.forName("RasterResultParams");
+            Class<?> mapServer = Class.forName("MapServer");
+            NEW_GRAPH = constructor(graphDB, String.class);
+            NEW_KD_TREE = constructor(kdTree, graphDB, graphDB);
+            CLOSEST = method(graphDB, "closest", double.class, double.class);
+            SNAP = method(graphDB, "snap", double.class, double.class);
+            SHORTEST_PATH = method(router, "shortestPath", graphDB, double.class, double.class,
+                    double.class, double.class);
+            LEGACY_SHORTEST_PATH = method(router, "legacyShortestPath", graphDB, long.class,
+                    long.class);
+            NEW_DENSE_GRAPH = constructor(denseGraph, graphDB, boolean.class, boolean.class);
+            DENSE_INDEX = method(denseGraph, "index", long.class);
+            SHORTEST_ROUTE = method(edgeRouter, "shortestRoute", denseGraph, int.class, int.class);
+            LOCATION_NAMES = MethodHandles.filterReturnValue(getter(graphDB, "locationIndex"),
+                    method(locationIndex, "names"));
+            FUZZY_INDEX = getter(graphDB, "fuzzyIndex");
+            FUZZY_SEARCH = method(fuzzyIndex, "search", String.class, int.class, int.class);
+            EDIT_DISTANCE = method(fuzzyIndex, "editDistance", String.class, String.class,
+                    int.class);
+            DEFAULT_MAX_EDITS = method(fuzzyIndex, "defaultMaxEdits", int.class);
+            CLEAN_STRING = method(graphDB, "cleanString", String.class);
+            NEW_HISTOGRAM = constructor(histogram);
+            RECORD = method(histogram, "record", long.class);
+            NEW_RASTERER = constructor(rasterer);
+            RASTER_PARAMS = method(rasterRequest, "from", Map.class);
+            GET_MAP_RASTER = method(rasterer, "getMapRaster", rasterRequest);
+            RENDER_IMAGE = method(mapServer, "renderImage", rasterResult);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private BearMaps() {
+    }
+
+    /** Returns a handle to a constructor, taking and returning <code>Object</code>s. */
+    private static MethodHandle constructor(Class<?> c, Class<?>... parameters)
+            throws ReflectiveOperationException {
+        Constructor<?> constructor = c.getDeclaredConstructor(parameters);
+        constructor.setAccessible(true);
+        return erase(MethodHandles.lookup().unreflectConstructor(constructor));
+    }
+
+    /** Returns a handle to a method, taking and returning <code>Object</code>s. */
+    private static MethodHandle method(Class<?> c, String name, Class<?>... parameters)
+            throws ReflectiveOperationException {
+        Method method = c.getDeclaredMethod(name, parameters);
+        method.setAccessible(true);
+        return erase(MethodHandles.lookup().unreflect(method));
+    }
+
+    /** Returns a handle reading a field, taking and returning <code>Object</code>s. */
+    private static MethodHandle getter(Class<?> c, String name)
+            throws ReflectiveOperationException {
+        Field field = c.getDeclaredField(name);
+        field.setAccessible(true);
+        return erase(MethodHandles.lookup().unreflectGetter(field));
+    }
+
+    /** Widens the server's types to <code>Object</code>, keeping primitives as they are. */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i += 1) {
+            if (!type.parameterType(i).isPrimitive()) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (!type.returnType().isPrimitive()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    /** Parses an OSM file into a graph, as <code>new GraphDB(path)</code>. */
+    static Object newGraph(String path) {
+        try {
+            return NEW_GRAPH.invokeExact((Object) path);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Builds a KD-tree over a graph's vertices, as <code>g.new KDTree(g)</code>. */
+    static Object newKdTree(Object graph) {
+        try {
+            return NEW_KD_TREE.invokeExact(graph, graph);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the ID of the vertex nearest a point, as <code>GraphDB.closest</code>. */
+    static long closest(Object graph, double lon, double lat) {
+        try {
+            return (long) CLOSEST.invokeExact(graph, lon, lat);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the nearest point on any road to a point, as <code>GraphDB.snap</code>. */
+    static Object snap(Object graph, double lon, double lat) {
+        try {
+            return SNAP.invokeExact(graph, lon, lat);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Routes between two points, as <code>Router.shortestPath</code>. */
+    @SuppressWarnings("unchecked")
+    static List<Long> shortestPath(Object graph, double stlon, double stlat, double destlon,
+                                   double destlat) {
+        try {
+            return (List<Long>) (Object) SHORTEST_PATH.invokeExact(graph, stlon, stlat,
+                    destlon, destlat);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Routes between two snapped vertices with the original search over
+     * <code>GraphDB.distance</code>, as <code>Router.legacyShortestPath</code>.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Long> legacyShortestPath(Object graph, long startId, long destId) {
+        try {
+            return (List<Long>) (Object) LEGACY_SHORTEST_PATH.invokeExact(graph, startId, destId);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Copies a graph into arrays, as <code>new DenseGraph(g, hilbertOrder, compact)</code>,
+     * numbering vertices by OSM ID or along a Hilbert curve, in the full or compact encoding.
+     */
+    static Object newDenseGraph(Object graph, boolean hilbertOrder, boolean compact) {
+        try {
+            return NEW_DENSE_GRAPH.invokeExact(graph, hilbertOrder, compact);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the dense index of a vertex, as <code>DenseGraph.index</code>. */
+    static int denseIndex(Object dense, long id) {
+        try {
+            return (int) DENSE_INDEX.invokeExact(dense, id);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Routes between two dense vertices by length, as <code>EdgeRouter.shortestRoute</code>. */
+    static int[] shortestRoute(Object dense, int source, int target) {
+        try {
+            return (int[]) (Object) SHORTEST_ROUTE.invokeExact(dense, source, target);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the name of every location, once per location carrying it. */
+    static String[] locationNames(Object graph) {
+        try {
+            return (String[]) (Object) LOCATION_NAMES.invokeExact(graph);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the graph's typo-tolerant index of location names. */
+    static Object fuzzyIndex(Object graph) {
+        try {
+            return FUZZY_INDEX.invokeExact(graph);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Searches location names within some edits of a query, as <code>FuzzyIndex.search</code>. */
+    @SuppressWarnings("unchecked")
+    static List<String> fuzzySearch(Object index, String query, int k, int maxEdits) {
+        try {
+            return (List<String>) (Object) FUZZY_SEARCH.invokeExact(index, (Object) query, k,
+                    maxEdits);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the edit distance between two strings, or more than <code>max</code>. */
+    static int editDistance(String a, String b, int max) {
+        try {
+            return (int) EDIT_DISTANCE.invokeExact((Object) a, (Object) b, max);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the edits a query of a cleaned length may be from the names it matches. */
+    static int defaultMaxEdits(int length) {
+        try {
+            return (int) DEFAULT_MAX_EDITS.invokeExact(length);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Cleans a name for search, as <code>GraphDB.cleanString</code>. */
+    static String cleanString(String s) {
+        try {
+            return (String) (Object) CLEAN_STRING.invokeExact((Object) s);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newLatencyHistogram() {
+        try {
+            return NEW_HISTOGRAM.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Records a value in a histogram, as <code>LatencyHistogram.record</code>. */
+    static void record(Object histogram, long value) {
+        try {
+            RECORD.invokeExact(histogram, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newRasterer() {
+        try {
+            return NEW_RASTERER.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Returns the request for a raster of a region, as the browser sends it. */
+    static Object rasterParams(double ullon, double ullat, double lrlon, double lrlat, double w,
+                               double h) {
+        Map<String, String[]> query = new HashMap<>();
+        query.put("ullon", new String[]{Double.toString(ullon)});
+        query.put("ullat", new String[]{Double.toString(ullat)});
+        query.put("lrlon", new String[]{Double.toString(lrlon)});
+        query.put("lrlat", new String[]{Double.toString(lrlat)});
+        query.put("w", new String[]{Double.toString(w)});
+        query.put("h", new String[]{Double.toString(h)});
+        try {
+            return RASTER_PARAMS.invokeExact((Object) query);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Chooses the tiles for a raster request, as <code>Rasterer.getMapRaster</code>. */
+    static Object getMapRaster(Object rasterer, Object params) {
+        try {
+            return GET_MAP_RASTER.invokeExact(rasterer, params);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /** Draws the chosen tiles into one image, as <code>MapServer.renderImage</code>. */
+    static BufferedImage renderImage(Object result) {
+        try {
+            return (BufferedImage) (Object) RENDER_IMAGE.invokeExact(result);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
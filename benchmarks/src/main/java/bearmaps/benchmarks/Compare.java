@@ -0,0 +1,100 @@
+package bearmaps.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with <code>-rf json</code>: a baseline and a candidate.
+ * Prints each benchmark's score and, if run with <code>-prof gc</code>, bytes allocated per
+ * operation in both, with the change between them, and exits with status 1 if any score got
+ * worse by more than the threshold, so it can gate a change in a script.
+ *
+ * Usage: <code>java -cp benchmarks/target/benchmarks.jar bearmaps.benchmarks.Compare
+ * baseline.json candidate.json [threshold-percent]</code>; the threshold defaults to 10.
+ */
+public final class Compare {
+    private static final double DEFAULT_THRESHOLD = 10;
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private Compare() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: Compare baseline.json candidate.json [threshold-percent]");
+            System.exit(2);
+        }
+        Map<String, JsonObject> baseline = read(args[0]);
+        Map<String, JsonObject> candidate = read(args[1]);
+        double threshold = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        boolean regressed = false;
+        System.out.printf("%-60s %14s %14s %8s %12s %12s%n", "Benchmark", "Baseline",
+                "Candidate", "Change", "Base B/op", "Cand B/op");
+        for (Map.Entry<String, JsonObject> entry : candidate.entrySet()) {
+            JsonObject before = baseline.get(entry.getKey());
+            JsonObject after = entry.getValue();
+            double score = primary(after);
+            String unit = after.getAsJsonObject("primaryMetric").get("scoreUnit").getAsString();
+            if (before == null) {
+                System.out.printf("%-60s %14s %14.3f %8s %12s %12s  %s%n", entry.getKey(), "-",
+                        score, "new", "-", allocation(after), unit);
+                continue;
+            }
+            double was = primary(before);
+            /* Throughput is better higher; every other mode measures time, better lower. */
+            boolean higherIsBetter = "thrpt".equals(after.get("mode").getAsString());
+            double change = 100 * (score - was) / was;
+            double worse = higherIsBetter ? -change : change;
+            String flag = "";
+            if (worse > threshold) {
+                regressed = true;
+                flag = "  REGRESSION";
+            }
+            System.out.printf("%-60s %14.3f %14.3f %+7.1f%% %12s %12s  %s%s%n", entry.getKey(),
+                    was, score, change, allocation(before), allocation(after), unit, flag);
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /** Reads a result file into its runs, keyed by benchmark name and parameters. */
+    private static Map<String, JsonObject> read(String path) throws IOException {
+        Map<String, JsonObject> runs = new LinkedHashMap<>();
+        try (Reader in = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            JsonArray results = new JsonParser().parse(in).getAsJsonArray();
+            for (JsonElement element : results) {
+                JsonObject run = element.getAsJsonObject();
+                String name = run.get("benchmark").getAsString();
+                name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+                if (run.has("params")) {
+                    name += run.getAsJsonObject("params").toString();
+                }
+                runs.put(name, run);
+            }
+        }
+        return runs;
+    }
+
+    private static double primary(JsonObject run) {
+        return run.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+    }
+
+    private static String allocation(JsonObject run) {
+        JsonObject secondary = run.getAsJsonObject("secondaryMetrics");
+        if (secondary == null || !secondary.has(ALLOCATION)) {
+            return "-";
+        }
+        return String.format("%.0f",
+                secondary.getAsJsonObject(ALLOCATION).get("score").getAsDouble());
+    }
+}
@@ -0,0 +1,107 @@
+package bearmaps.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typo-tolerant search for misspelled names of the map's locations: <code>FuzzyIndex.search</code>
+ * against the brute-force scan it replaces, which computes the bounded edit distance to every
+ * distinct name. Both find the same names. Scores are per query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FuzzyBenchmark {
+    private static final int QUERIES = 64;
+
+    @Param("../library-su18/bearmaps/berkeley-2018.osm.xml")
+    public String osm;
+
+    private Object index;
+    private String[] cleaned;
+    private String[] queries;
+    private int[] maxEdits;
+
+    @Setup
+    public void setUp() {
+        Object graph = BearMaps.newGraph(osm);
+        index = BearMaps.fuzzyIndex(graph);
+        String[] names = new TreeSet<>(Arrays.asList(BearMaps.locationNames(graph)))
+                .toArray(new String[0]);
+        cleaned = new String[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            cleaned[i] = BearMaps.cleanString(names[i]);
+        }
+        Random random = new Random(31);
+        queries = new String[QUERIES];
+        maxEdits = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i += 1) {
+            queries[i] = typo(random, names[random.nextInt(names.length)]);
+            maxEdits[i] = BearMaps.defaultMaxEdits(BearMaps.cleanString(queries[i]).length());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void index(Blackhole bh) {
+        for (int i = 0; i < QUERIES; i += 1) {
+            bh.consume(BearMaps.fuzzySearch(index, queries[i], Integer.MAX_VALUE, maxEdits[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void scan(Blackhole bh) {
+        for (int i = 0; i < QUERIES; i += 1) {
+            String q = BearMaps.cleanString(queries[i]);
+            int matches = 0;
+            for (String name : cleaned) {
+                if (BearMaps.editDistance(q, name, maxEdits[i]) <= maxEdits[i]) {
+                    matches += 1;
+                }
+            }
+            bh.consume(matches);
+        }
+    }
+
+    /** Misspells a name with one or two random edits. */
+    private static String typo(Random random, String name) {
+        StringBuilder s = new StringBuilder(name);
+        int edits = 1 + random.nextInt(2);
+        for (int e = 0; e < edits && s.length() > 1; e += 1) {
+            int at = random.nextInt(s.length());
+            char c = (char) ('a' + random.nextInt(26));
+            switch (random.nextInt(3)) {
+                case 0:
+                    s.setCharAt(at, c);
+                    break;
+                case 1:
+                    s.deleteCharAt(at);
+                    break;
+                default:
+                    s.insert(at, c);
+                    break;
+            }
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package bearmaps.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the graph from OSM XML, which bounds server startup, and the KD-tree over its
+ * vertices. Each takes seconds on the full map, so few iterations are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GraphBenchmark {
+    /** The OSM file to parse, relative to the repository root; defaults to the server's. */
+    @Param("../library-su18/bearmaps/berkeley-2018.osm.xml")
+    public String osm;
+
+    private Object graph;
+
+    @Setup
+    public void setUp() {
+        graph = BearMaps.newGraph(osm);
+    }
+
+    @Benchmark
+    public Object parseGraph() {
+        return BearMaps.newGraph(osm);
+    }
+
+    @Benchmark
+    public Object buildKdTree() {
+        return BearMaps.newKdTree(graph);
+    }
+}
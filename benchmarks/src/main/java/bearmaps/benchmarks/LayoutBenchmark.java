@@ -0,0 +1,71 @@
+package bearmaps.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>EdgeRouter.shortestRoute</code> between random pairs of vertices, on the dense graph
+ * numbered by OSM ID and along a Hilbert curve, each in the full and the compact encoding. Every
+ * layout routes between the same vertices, so the difference is how well the search's memory
+ * accesses hit the caches, and for the compact encoding what decoding its fixed-point and float
+ * fields costs; run with <code>-prof perfnorm</code> on Linux to see the cache misses per route
+ * as well. Scores are per route.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LayoutBenchmark {
+    private static final int PAIRS = 64;
+
+    @Param("../library-su18/bearmaps/berkeley-2018.osm.xml")
+    public String osm;
+
+    @Param({"id", "hilbert"})
+    public String order;
+
+    @Param({"full", "compact"})
+    public String encoding;
+
+    private Object dense;
+    private int[][] pairs;
+
+    @Setup
+    public void setUp() {
+        Object graph = BearMaps.newGraph(osm);
+        dense = BearMaps.newDenseGraph(graph, "hilbert".equals(order),
+                "compact".equals(encoding));
+        double[][] points = Workloads.randomPoints(2 * PAIRS, 11);
+        pairs = new int[PAIRS][];
+        for (int i = 0; i < PAIRS; i += 1) {
+            pairs[i] = new int[]{vertex(graph, points[2 * i]), vertex(graph, points[2 * i + 1])};
+        }
+    }
+
+    private int vertex(Object graph, double[] point) {
+        return BearMaps.denseIndex(dense, BearMaps.closest(graph, point[0], point[1]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void shortestRoute(Blackhole bh) {
+        for (int[] pair : pairs) {
+            bh.consume(BearMaps.shortestRoute(dense, pair[0], pair[1]));
+        }
+    }
+}
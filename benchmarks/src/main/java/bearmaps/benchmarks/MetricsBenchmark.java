@@ -0,0 +1,53 @@
+package bearmaps.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a value in a <code>LatencyHistogram</code>, which every request and route search
+ * does a handful of times, alone and with four threads recording into the same histogram as the
+ * endpoint pools do. Compare the scores with a route's in <code>RouterBenchmark</code> for the
+ * overhead the metrics add. Scores are per value recorded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsBenchmark {
+    private Object histogram;
+
+    /** Each thread's next value, spread over the buckets as latencies would be. */
+    @State(Scope.Thread)
+    public static class Values {
+        private long next;
+    }
+
+    @Setup
+    public void setUp() {
+        histogram = BearMaps.newLatencyHistogram();
+    }
+
+    @Benchmark
+    public void record(Values values) {
+        BearMaps.record(histogram, values.next++ & 0xFFFFF);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordShared(Values values) {
+        BearMaps.record(histogram, values.next++ & 0xFFFFF);
+    }
+}
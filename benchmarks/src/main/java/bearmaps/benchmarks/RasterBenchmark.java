@@ -0,0 +1,80 @@
+package bearmaps.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+/**
+ * The raster endpoint's two halves over the recorded requests of <code>raster_params.txt</code>:
+ * choosing tiles with <code>Rasterer.getMapRaster</code>, and drawing them with
+ * <code>MapServer.renderImage</code> and encoding the PNG sent to the browser, which reads tiles
+ * from the server's image directory. Scores are per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RasterBenchmark {
+    /** Number of requests in <code>raster_params.txt</code>. */
+    private static final int RECORDED = 8;
+
+    private Object rasterer;
+    private Object[] requests;
+    private Object[] results;
+
+    @Setup
+    public void setUp() {
+        rasterer = BearMaps.newRasterer();
+        double[][] recorded = Workloads.read(Workloads.RASTER_PARAMS, 6);
+        if (recorded.length != RECORDED) {
+            throw new IllegalStateException(Workloads.RASTER_PARAMS + " has " + recorded.length
+                    + " requests, not " + RECORDED + ".");
+        }
+        requests = new Object[RECORDED];
+        results = new Object[RECORDED];
+        for (int i = 0; i < RECORDED; i += 1) {
+            double[] r = recorded[i];
+            requests[i] = BearMaps.rasterParams(r[0], r[1], r[2], r[3], r[4], r[5]);
+            results[i] = BearMaps.getMapRaster(rasterer, requests[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDED)
+    public void getMapRaster(Blackhole bh) {
+        for (Object request : requests) {
+            bh.consume(BearMaps.getMapRaster(rasterer, request));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDED)
+    public void renderAndEncode(Blackhole bh) {
+        for (Object result : results) {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(BearMaps.renderImage(result), "png", png);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bh.consume(png.size());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bearmaps.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>Router.shortestPath</code> between snapped points: the recorded requests of
+ * <code>path_params.txt</code>, and random pairs across the whole map, which are longer on
+ * average and so stress the search rather than the snapping. With <code>search=legacy</code>,
+ * the same points are snapped and routed with <code>Router.legacyShortestPath</code>, the
+ * search before edge lengths were precomputed, to compare against. Scores are per route.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RouterBenchmark {
+    /** Number of requests in <code>path_params.txt</code>. */
+    private static final int RECORDED = 8;
+    private static final int RANDOM = 64;
+
+    @Param("../library-su18/bearmaps/berkeley-2018.osm.xml")
+    public String osm;
+
+    @Param({"planar", "legacy"})
+    public String search;
+
+    private Object graph;
+    private boolean legacy;
+    private double[][] recorded;
+    private double[][] random;
+
+    @Setup
+    public void setUp() {
+        graph = BearMaps.newGraph(osm);
+        legacy = "legacy".equals(search);
+        recorded = Workloads.read(Workloads.PATH_PARAMS, 4);
+        if (recorded.length != RECORDED) {
+            throw new IllegalStateException(Workloads.PATH_PARAMS + " has " + recorded.length
+                    + " requests, not " + RECORDED + ".");
+        }
+        double[][] points = Workloads.randomPoints(2 * RANDOM, 7);
+        random = new double[RANDOM][];
+        for (int i = 0; i < RANDOM; i += 1) {
+            random[i] = new double[]{points[2 * i][0], points[2 * i][1], points[2 * i + 1][0],
+                points[2 * i + 1][1]};
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDED)
+    public void recordedRequests(Blackhole bh) {
+        route(recorded, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RANDOM)
+    public void randomPairs(Blackhole bh) {
+        route(random, bh);
+    }
+
+    private void route(double[][] requests, Blackhole bh) {
+        for (double[] r : requests) {
+            if (legacy) {
+                bh.consume(BearMaps.legacyShortestPath(graph, BearMaps.closest(graph, r[0], r[1]),
+                        BearMaps.closest(graph, r[2], r[3])));
+            } else {
+                bh.consume(BearMaps.shortestPath(graph, r[0], r[1], r[2], r[3]));
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package bearmaps.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapping random points on the base map to their nearest vertices with the KD-tree, and to the
+ * nearest points on road segments with the <code>EdgeIndex</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapBenchmark {
+    private static final int POINTS = 1024;
+
+    @Param("../library-su18/bearmaps/berkeley-2018.osm.xml")
+    public String osm;
+
+    private Object graph;
+    private double[][] points;
+
+    @Setup
+    public void setUp() {
+        graph = BearMaps.newGraph(osm);
+        points = Workloads.randomPoints(POINTS, 42);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void closest(Blackhole bh) {
+        for (double[] p : points) {
+            bh.consume(BearMaps.closest(graph, p[0], p[1]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void snap(Blackhole bh) {
+        for (double[] p : points) {
+            bh.consume(BearMaps.snap(graph, p[0], p[1]));
+        }
+    }
+}
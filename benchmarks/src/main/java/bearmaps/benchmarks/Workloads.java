@@ -0,0 +1,72 @@
+package bearmaps.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks: the request parameter files the autograder's tests replay,
+ * and seeded random points over the base map, so every run of a benchmark sees the same work.
+ */
+final class Workloads {
+    /** Start and end points of the recorded routing requests. */
+    static final String PATH_PARAMS = "path_params.txt";
+    /** Bounds and viewport sizes of the recorded raster requests. */
+    static final String RASTER_PARAMS = "raster_params.txt";
+
+    private Workloads() {
+    }
+
+    /**
+     * Reads a parameter file: one number per line, grouped into requests, skipping the
+     * <code>#</code> comments at the top.
+     * @param path The file, relative to the directory the benchmarks are run from.
+     * @param perRequest How many numbers make up one request.
+     * @return Each request's numbers.
+     */
+    static double[][] read(String path, int perRequest) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Benchmarks must be run from the repository root.", e);
+        }
+        List<Double> numbers = new ArrayList<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                numbers.add(Double.parseDouble(line));
+            }
+        }
+        double[][] requests = new double[numbers.size() / perRequest][perRequest];
+        for (int i = 0; i < requests.length; i += 1) {
+            for (int j = 0; j < perRequest; j += 1) {
+                requests[i][j] = numbers.get(i * perRequest + j);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Returns uniformly random points over the base map.
+     * @param count How many points.
+     * @param seed The seed, fixed so that runs compare.
+     * @return The points as <code>{lon, lat}</code> pairs.
+     */
+    static double[][] randomPoints(int count, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[count][];
+        for (int i = 0; i < count; i += 1) {
+            points[i] = new double[]{
+                BearMaps.ROOT_ULLON + random.nextDouble() * (BearMaps.ROOT_LRLON
+                        - BearMaps.ROOT_ULLON),
+                BearMaps.ROOT_LRLAT + random.nextDouble() * (BearMaps.ROOT_ULLAT
+                        - BearMaps.ROOT_LRLAT)};
+        }
+        return points;
+    }
+}
@@ -0,0 +1,217 @@
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Alternatives to the best route between two vertices of a <code>DenseGraph</code>, found by the
+ * plateau method. One search grows a shortest-path tree forward from the start, another grows
+ * one backward from the destination over reversed edges, and a plateau is a chain of edges that
+ * lies on both trees. Every plateau yields a route, through the forward tree to the plateau,
+ * along it and through the backward tree to the destination, and long plateaus yield the
+ * natural alternatives that take a genuinely different way for much of the trip.
+ *
+ * The forward search is A* bounded at <code>MAX_STRETCH</code> times the best cost, so it covers
+ * the region any acceptable alternative can pass through. The backward search is confined to
+ * that region and guided by the forward tree's exact costs, so it settles only vertices that
+ * acceptable alternatives do pass through. However many alternatives are asked for, they are
+ * all read off the same two trees, each held in one of the thread's <code>SearchWorkspace</code>
+ * slots. Trees are grown over vertices, so turn penalties are not counted when choosing
+ * alternatives.
+ */
+class AlternativeRoutes {
+    /** Alternatives cost at most this many times the best route. */
+    static final double MAX_STRETCH = 1.25;
+    /** Alternatives share at most this fraction of their length with routes already chosen. */
+    static final double MAX_OVERLAP = 0.7;
+
+    private AlternativeRoutes() {
+    }
+
+    /**
+     * Returns up to <code>k</code> routes between two vertices: the given best route, then
+     * alternatives in order of decreasing plateau length, skipping any that cost too much,
+     * revisit a vertex or overlap the routes before them too much.
+     * @param d The graph.
+     * @param best The dense indices of the vertices along the best route, which may count turn
+     *             penalties that the alternatives do not.
+     * @param profile How to cost routes.
+     * @param k The largest number of routes to return.
+     * @return The routes as dense vertex indices, starting with <code>best</code>.
+     */
+    static List<int[]> find(DenseGraph d, int[] best, RoutingProfile profile, int k) {
+        List<int[]> routes = new ArrayList<>();
+        if (best.length == 0 || k <= 0) {
+            return routes;
+        }
+        routes.add(best);
+        int source = best[0];
+        int target = best[best.length - 1];
+        if (k == 1 || source == target) {
+            return routes;
+        }
+        FloatBuffer weights = profile.timed() ? d.weights(profile) : null;
+        SearchWorkspace forward = SearchWorkspace.forThread(0, d.size());
+        int[] settled = grow(d, forward, null, source, target, weights, profile,
+                Double.POSITIVE_INFINITY);
+        if (!forward.settled(target)) {
+            return routes;
+        }
+        double bound = MAX_STRETCH * forward.cost(target);
+        SearchWorkspace backward = SearchWorkspace.forThread(1, d.size());
+        grow(d, backward, forward, target, source, weights, profile, bound);
+
+        /* A plateau starts wherever the forward tree's previous step is not on the backward
+           tree, and runs for as long as the backward tree's next step is on the forward tree,
+           which may be not at all: the route then merely passes through the start. */
+        List<double[]> plateaus = new ArrayList<>();
+        for (int a : settled) {
+            if (a < 0 || !backward.settled(a)) {
+                continue;
+            }
+            int previous = forward.parent(a);
+            if (previous >= 0 && backward.parent(previous) == a) {
+                continue;
+            }
+            int b = a;
+            while (backward.parent(b) >= 0 && forward.settled(backward.parent(b))
+                    && forward.parent(backward.parent(b)) == b) {
+                b = backward.parent(b);
+            }
+            double cost = forward.cost(b) + backward.cost(b);
+            if (cost <= bound) {
+                plateaus.add(new double[]{forward.cost(b) - forward.cost(a), cost, a});
+            }
+        }
+        /* Longest plateau first, then cheapest route. */
+        plateaus.sort((x, y) -> x[0] != y[0] ? Double.compare(y[0], x[0])
+                : Double.compare(x[1], y[1]));
+
+        Set<Long> chosen = new HashSet<>();
+        addEdges(d, best, chosen);
+        for (double[] plateau : plateaus) {
+            if (routes.size() == k) {
+                break;
+            }
+            int[] route = route(forward, backward, (int) plateau[2]);
+            if (route != null && overlap(d, route, chosen) <= MAX_OVERLAP) {
+                routes.add(route);
+                addEdges(d, route, chosen);
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Grows a shortest-path tree by A* toward <code>toward</code>, past it until the estimated
+     * cost through the vertex settled next exceeds the bound, which is set at the stretch limit
+     * once <code>toward</code> is settled if not given.
+     * @param forward Null to grow a tree forward, estimating costs by straight-line distance.
+     *                Otherwise the forward tree from <code>toward</code>, and the tree is grown
+     *                backward over the vertices settled on it, using their exact costs as
+     *                estimates; its costs are then to <code>root</code> rather than from it, and
+     *                its parents next steps rather than previous ones. Any vertex on a route
+     *                within the bound is settled on the forward tree, as are all the vertices
+     *                after it, so backward costs within the bound are exact.
+     * @return The vertices settled, in order, padded with -1.
+     */
+    private static int[] grow(DenseGraph d, SearchWorkspace ws, SearchWorkspace forward,
+                              int root, int toward, FloatBuffer weights, RoutingProfile profile,
+                              double bound) {
+        int[] settled = new int[64];
+        int count = 0;
+        ws.relax(root, 0, -1, 0);
+        while (!ws.isEmpty()) {
+            int v = ws.poll();
+            double cost = ws.cost(v);
+            double estimate = forward == null ? heuristic(d, v, toward, profile)
+                    : forward.cost(v);
+            if (cost + estimate > bound) {
+                break;
+            }
+            if (v == toward && bound == Double.POSITIVE_INFINITY) {
+                bound = MAX_STRETCH * cost;
+            }
+            if (count == settled.length) {
+                settled = Arrays.copyOf(settled, 2 * count);
+            }
+            settled[count] = v;
+            count += 1;
+            for (int e = d.edgeStart(v); e < d.edgeEnd(v); e += 1) {
+                int w = d.edgeTo(e);
+                int edge = forward == null ? e : d.edgeTwin(e);
+                double c = cost + (weights == null ? d.edgeLength(edge) : weights.get(edge));
+                if (c == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                if (forward == null) {
+                    ws.relax(w, c, v, c + heuristic(d, w, toward, profile));
+                } else if (forward.settled(w)) {
+                    ws.relax(w, c, v, c + forward.cost(w));
+                }
+            }
+        }
+        Arrays.fill(settled, count, settled.length, -1);
+        return settled;
+    }
+
+    private static double heuristic(DenseGraph d, int v, int target, RoutingProfile profile) {
+        double miles = GraphDB.distance(d.lon(v), d.lat(v), d.lon(target), d.lat(target));
+        return profile.timed() ? RoutingProfile.seconds(miles, profile.maxSpeed()) : miles;
+    }
+
+    /**
+     * Returns the route through the forward tree to a vertex and from it through the backward
+     * tree, or null if the two halves cross, which would make the route loop.
+     */
+    private static int[] route(SearchWorkspace forward, SearchWorkspace backward, int via) {
+        List<Integer> before = new ArrayList<>();
+        for (int v = via; v >= 0; v = forward.parent(v)) {
+            before.add(v);
+        }
+        Set<Integer> seen = new HashSet<>(before);
+        List<Integer> after = new ArrayList<>();
+        for (int v = backward.parent(via); v >= 0; v = backward.parent(v)) {
+            if (!seen.add(v)) {
+                return null;
+            }
+            after.add(v);
+        }
+        int[] route = new int[before.size() + after.size()];
+        for (int i = 0; i < before.size(); i += 1) {
+            route[i] = before.get(before.size() - 1 - i);
+        }
+        for (int i = 0; i < after.size(); i += 1) {
+            route[before.size() + i] = after.get(i);
+        }
+        return route;
+    }
+
+    private static void addEdges(DenseGraph d, int[] route, Set<Long> edges) {
+        for (int i = 1; i < route.length; i += 1) {
+            edges.add(edgeKey(d, route[i - 1], route[i]));
+        }
+    }
+
+    /** Returns the fraction of a route's length along edges in a set. */
+    private static double overlap(DenseGraph d, int[] route, Set<Long> edges) {
+        double shared = 0;
+        double total = 0;
+        for (int i = 1; i < route.length; i += 1) {
+            int u = route[i - 1];
+            int v = route[i];
+            double miles = GraphDB.distance(d.lon(u), d.lat(u), d.lon(v), d.lat(v));
+            total += miles;
+            if (edges.contains(edgeKey(d, u, v))) {
+                shared += miles;
+            }
+        }
+        return total == 0 ? 1 : shared / total;
+    }
+
+    private static long edgeKey(DenseGraph d, int u, int v) {
+        return (long) u * d.size() + v;
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Prefix autocomplete over the names of OSM locations. Distinct location names are kept in an
+ * array sorted by their cleaned form, so the names matching a cleaned prefix form one contiguous
+ * range that two binary searches find. A sparse table over the popularity scores then yields the
+ * best-scoring name of any sub-range in constant time, which lets <code>topK</code> peel off the
+ * <code>k</code> best matches without looking at the rest of the range.
+ *
+ * A name's score is the number of OSM nodes carrying it, so chains and features mapped as many
+ * nodes rank above one-off names; ties are broken alphabetically.
+ */
+class Autocomplete {
+    /** Cleaned names, sorted. */
+    private final String[] cleaned;
+    /** Full names, in the same order as <code>cleaned</code>. */
+    private final String[] names;
+    /** Popularity scores, in the same order as <code>cleaned</code>. */
+    private final int[] scores;
+    /** <code>best[j][i]</code> is the best entry in <code>[i, i + 2^j)</code>. */
+    private final int[][] best;
+
+    /**
+     * Builds the index over the names of the given locations.
+     * @param locations Named locations; locations sharing a full name are counted together.
+     */
+    Autocomplete(List<LocationParams> locations) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (LocationParams location : locations) {
+            counts.merge(location.name, 1, Integer::sum);
+        }
+        String[][] entries = new String[counts.size()][];
+        int n = 0;
+        for (String name : counts.keySet()) {
+            entries[n] = new String[]{GraphDB.cleanString(name), name};
+            n += 1;
+        }
+        Arrays.sort(entries, Comparator.<String[], String>comparing(e -> e[0])
+                .thenComparing(e -> e[1]));
+
+        cleaned = new String[n];
+        names = new String[n];
+        scores = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            cleaned[i] = entries[i][0];
+            names[i] = entries[i][1];
+            scores[i] = counts.get(names[i]);
+        }
+
+        int levels = 1;
+        while ((1 << levels) <= n) {
+            levels += 1;
+        }
+        best = new int[levels][];
+        best[0] = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            best[0][i] = i;
+        }
+        for (int j = 1; j < levels; j += 1) {
+            int half = 1 << (j - 1);
+            best[j] = new int[n - (1 << j) + 1];
+            for (int i = 0; i < best[j].length; i += 1) {
+                best[j][i] = better(best[j - 1][i], best[j - 1][i + half]);
+            }
+        }
+    }
+
+    /**
+     * Returns the full names whose cleaned form starts with the cleaned <code>prefix</code>,
+     * best-scoring first.
+     * @param prefix The prefix typed so far, in any case and with or without punctuation.
+     * @param k The maximum number of names to return.
+     * @return Up to <code>k</code> matching full names.
+     */
+    List<String> topK(String prefix, int k) {
+        String p = GraphDB.cleanString(prefix);
+        int lo = lowerBound(p, 0);
+        int hi = lowerBound(p, 1);
+        if (lo >= hi || k <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(Math.min(k, hi - lo));
+        /* Each range is queued as {best entry, lo, hi}; popping one splits it around its best. */
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> compare(a[0], b[0]));
+        ranges.add(new int[]{bestIn(lo, hi), lo, hi});
+        while (!ranges.isEmpty() && result.size() < k) {
+            int[] range = ranges.poll();
+            int top = range[0];
+            result.add(names[top]);
+            if (range[1] < top) {
+                ranges.add(new int[]{bestIn(range[1], top), range[1], top});
+            }
+            if (top + 1 < range[2]) {
+                ranges.add(new int[]{bestIn(top + 1, range[2]), top + 1, range[2]});
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of distinct names indexed. */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the first index whose cleaned name, cut to the length of <code>p</code>, compares
+     * to <code>p</code> at least as large as <code>bias</code>: 0 finds the start of the range
+     * of names starting with <code>p</code>, and 1 finds its end.
+     */
+    private int lowerBound(String p, int bias) {
+        int lo = 0;
+        int hi = cleaned.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(cleaned[mid], p) < bias) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the first <code>p.length()</code> characters of <code>s</code> to p. */
+    static int comparePrefix(String s, String p) {
+        int len = Math.min(s.length(), p.length());
+        for (int i = 0; i < len; i += 1) {
+            int diff = s.charAt(i) - p.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return s.length() >= p.length() ? 0 : -1;
+    }
+
+    /** Returns the best entry in <code>[lo, hi)</code>, which must not be empty. */
+    private int bestIn(int lo, int hi) {
+        int j = 31 - Integer.numberOfLeadingZeros(hi - lo);
+        return better(best[j][lo], best[j][hi - (1 << j)]);
+    }
+
+    private int better(int a, int b) {
+        return compare(a, b) <= 0 ? a : b;
+    }
+
+    /** Orders entries by descending score, then alphabetically. */
+    private int compare(int a, int b) {
+        if (scores[a] != scores[b]) {
+            return Integer.compare(scores[b], scores[a]);
+        }
+        return Integer.compare(a, b);
+    }
+}
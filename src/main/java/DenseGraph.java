@@ -0,0 +1,986 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Array-backed copy of a cleaned <code>GraphDB</code>. Vertices are numbered densely in order of
+ * their OSM IDs, or optionally along a Hilbert curve through their projected coordinates, and
+ * the edges leaving each vertex are stored contiguously (compressed sparse row form), in the
+ * same order as <code>GraphDB.adjacent</code> lists them. OSM IDs follow the order nodes were
+ * added to the map rather than where they are, so in ID order a search's neighbouring vertices
+ * sit far apart in every array it reads; along the curve, vertices near each other on the map
+ * are mostly near each other in memory too, and so are their edges. Either way, results are
+ * given back as OSM IDs through <code>id</code>. Each edge carries the
+ * compact ID of the way it belongs to, and each way the index of its name in a table of
+ * distinct names, so walking a route touches only arrays once its vertex IDs are resolved.
+ * Ways also keep their highway class, one-way restriction and speed limit, and edges their
+ * direction along their way and their initial bearing, for <code>EdgeRouter</code>, which
+ * reads each edge's travel time under each timed <code>RoutingProfile</code> from a flat array
+ * filled in once here.
+ *
+ * Every array is held as an NIO buffer, so the same graph can live in three places. A graph
+ * copied from a <code>GraphDB</code> wraps arrays on the heap. <code>copyOffHeap</code> moves
+ * them into direct buffers, which the garbage collector never scans or copies, and
+ * <code>write</code> and <code>map</code> store them in a file and map that file back into
+ * memory, so a restarted server pages the graph in on demand instead of building it. The
+ * buffers are only ever read at absolute indexes, so any number of threads may share a graph.
+ *
+ * A compact graph stores the arrays that take most of the room per vertex and edge in fewer
+ * bytes: coordinates in <code>GraphDB</code>'s fixed point, which holds OSM coordinates
+ * exactly; projected coordinates and edge lengths as floats; and bearings in hundredths of a
+ * degree. Lengths are rounded up and the planar bound shrunk by the floats' rounding error, so
+ * searches guided by it still find shortest routes.
+ *
+ * The vertices are also kept in the order of an implicit KD-tree over their projected
+ * coordinates, so <code>closest</code> can answer from the same arrays, and a mapped graph
+ * needs no tree built beside it.
+ */
+class DenseGraph {
+    /** Highway classes in the order their codes are assigned. */
+    static final String[] HIGHWAY_CLASSES = {
+        "motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential",
+        "living_street", "motorway_link", "trunk_link", "primary_link", "secondary_link",
+        "tertiary_link"
+    };
+    /** Code of the class assumed for highway tags not in <code>HIGHWAY_CLASSES</code>. */
+    static final int UNCLASSIFIED = 5;
+
+    /** Marks a file as a dense graph. */
+    private static final int MAGIC = 0x424d4447;
+    /**
+     * Bumped whenever the file layout, or the profiles the stored edge weights were computed
+     * for, change; files of other versions are rebuilt.
+     */
+    private static final int VERSION = 3;
+    /** Bytes before the first array of a file. */
+    private static final int HEADER_BYTES = 64;
+    /** Byte order of files and of the buffers mapped from them. */
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final boolean hilbertOrder;
+    private final boolean compact;
+    private final LongBuffer ids;
+    /** Vertex IDs in increasing order, and the dense index of each, for <code>index</code>. */
+    private final LongBuffer sortedIds;
+    private final IntBuffer sortedIndex;
+    /** Coordinates, or in compact graphs the fixed-point ones, with the others null. */
+    private final DoubleBuffer lons, lats;
+    private final IntBuffer fixedLons, fixedLats;
+    /**
+     * Projected coordinates, as <code>GraphDB.projectToX</code> and <code>projectToY</code>, in
+     * doubles or, in compact graphs, floats.
+     */
+    private final DoubleBuffer xs, ys;
+    private final FloatBuffer floatXs, floatYs;
+    /**
+     * The vertices as an implicit KD-tree: the root of the subtree over
+     * <code>[lo, hi)</code> is at <code>(lo + hi) / 2</code>, with the vertices below it before
+     * it and the others after, splitting on projected x at even depths and y at odd ones.
+     */
+    private final IntBuffer kdOrder;
+    /**
+     * Miles per unit of projected distance, shrunk so that the Euclidean distance between two
+     * vertices' projections times it never exceeds their great-circle distance.
+     */
+    private final double planarScale;
+    /**
+     * The most rounding projected coordinates to floats can add to the distance between two
+     * of them; zero unless the graph is compact.
+     */
+    private final double planarSlack;
+    /** The edges leaving vertex <code>v</code> are <code>[edgeStart[v], edgeStart[v+1])</code>. */
+    private final IntBuffer edgeStart;
+    private final IntBuffer edgeTo;
+    private final IntBuffer edgeWay;
+    /** Whether each edge runs in the order of its way's nodes, as 1 or 0. */
+    private final ByteBuffer edgeForward;
+    /** Edge bearings in degrees or, in compact graphs, hundredths of a degree. */
+    private final DoubleBuffer edgeBearing;
+    private final ShortBuffer shortBearing;
+    /**
+     * Great-circle edge lengths in miles, as <code>GraphDB.distance</code>, in doubles or, in
+     * compact graphs, floats rounded up.
+     */
+    private final DoubleBuffer edgeLength;
+    private final FloatBuffer floatLength;
+    /** The edge joining the same vertices along the same way the other way round. */
+    private final IntBuffer edgeTwin;
+    private final LongBuffer wayIds;
+    private final IntBuffer wayName;
+    private final ByteBuffer wayClass;
+    private final ByteBuffer wayOneway;
+    private final DoubleBuffer wayMaxspeed;
+    /**
+     * Distinct way names, each stored once as UTF-8; name <code>i</code> is the bytes
+     * <code>[nameStart[i], nameStart[i+1])</code>. The empty string stands for an unnamed way.
+     */
+    private final IntBuffer nameStart;
+    private final ByteBuffer nameBytes;
+    /**
+     * Edge travel times in seconds, indexed like <code>RoutingProfile.PROFILES</code>; infinite
+     * where the profile may not travel the edge. Null for untimed profiles.
+     */
+    private final FloatBuffer[] weights;
+
+    /** Bits per coordinate of the grid vertices are placed on to order them along the curve. */
+    private static final int HILBERT_BITS = 16;
+
+    /**
+     * Copies the vertices, edges and ways of a cleaned graph, numbering vertices by OSM ID.
+     * @param g The graph to copy.
+     */
+    DenseGraph(GraphDB g) {
+        this(g, false);
+    }
+
+    /**
+     * Copies the vertices, edges and ways of a cleaned graph onto the heap.
+     * @param g The graph to copy.
+     * @param hilbertOrder Whether to number vertices along a Hilbert curve rather than by OSM ID.
+     */
+    DenseGraph(GraphDB g, boolean hilbertOrder) {
+        this(g, hilbertOrder, false);
+    }
+
+    /**
+     * Copies the vertices, edges and ways of a cleaned graph onto the heap.
+     * @param g The graph to copy.
+     * @param hilbertOrder Whether to number vertices along a Hilbert curve rather than by OSM ID.
+     * @param compact Whether to store coordinates, bearings and lengths in fewer bytes.
+     */
+    DenseGraph(GraphDB g, boolean hilbertOrder, boolean compact) {
+        this.hilbertOrder = hilbertOrder;
+        this.compact = compact;
+        int n = g.vertexHashMap.size();
+        long[] ids = new long[n];
+        int i = 0;
+        for (long id : g.vertexHashMap.keySet()) {
+            ids[i] = id;
+            i += 1;
+        }
+        Arrays.sort(ids);
+        long[] sortedIds = ids.clone();
+        if (hilbertOrder) {
+            hilbertSort(g, ids);
+        }
+        HashMap<Long, Integer> index = new HashMap<>(n * 2);
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int[] edgeStart = new int[n + 1];
+        double scale = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < n; v += 1) {
+            GraphDB.Vertex vertex = g.vertexHashMap.get(ids[v]);
+            index.put(ids[v], v);
+            lons[v] = vertex.lon();
+            lats[v] = vertex.lat();
+            xs[v] = vertex.x();
+            ys[v] = vertex.y();
+            scale = Math.min(scale, GraphDB.milesPerProjectedUnit(vertex.lon(), vertex.lat()));
+            edgeStart[v + 1] = edgeStart[v] + vertex.degree;
+        }
+        /* Leave room for rounding, and for great circles bowing slightly away from the vertices
+           between them, so the bound stays below the distance it estimates. */
+        planarScale = n == 0 ? 0 : scale * (1 - 1e-9);
+        int[] sortedIndex = new int[n];
+        for (int k = 0; k < n; k += 1) {
+            sortedIndex[k] = index.get(sortedIds[k]);
+        }
+        int[] edgeTo = new int[edgeStart[n]];
+        int[] edgeWay = new int[edgeStart[n]];
+        byte[] edgeForward = new byte[edgeStart[n]];
+        double[] edgeBearing = new double[edgeStart[n]];
+        double[] edgeLength = new double[edgeStart[n]];
+        for (int v = 0; v < n; v += 1) {
+            GraphDB.Vertex vertex = g.vertexHashMap.get(ids[v]);
+            for (int j = 0; j < vertex.degree; j += 1) {
+                int e = edgeStart[v] + j;
+                int w = index.get(vertex.adjacents[j]);
+                int way = vertex.adjacentWays[j];
+                edgeTo[e] = w;
+                edgeWay[e] = way >= 0 ? way : ~way;
+                edgeForward[e] = (byte) (way >= 0 ? 1 : 0);
+                edgeBearing[e] = GraphDB.bearing(lons[v], lats[v], lons[w], lats[w]);
+                edgeLength[e] = GraphDB.distance(lons[v], lats[v], lons[w], lats[w]);
+            }
+        }
+        int[] edgeTwin = new int[edgeStart[n]];
+        for (int v = 0; v < n; v += 1) {
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e += 1) {
+                int w = edgeTo[e];
+                for (int f = edgeStart[w]; f < edgeStart[w + 1]; f += 1) {
+                    if (edgeTo[f] == v && edgeWay[f] == edgeWay[e]
+                            && edgeForward[f] != edgeForward[e]) {
+                        edgeTwin[e] = f;
+                    }
+                }
+            }
+        }
+
+        HashMap<String, Integer> classes = new HashMap<>();
+        for (int c = 0; c < HIGHWAY_CLASSES.length; c += 1) {
+            classes.put(HIGHWAY_CLASSES[c], c);
+        }
+
+        HashMap<String, Integer> interned = new HashMap<>();
+        long[] wayIds = new long[g.ways.size()];
+        int[] wayName = new int[g.ways.size()];
+        byte[] wayClass = new byte[g.ways.size()];
+        byte[] wayOneway = new byte[g.ways.size()];
+        double[] wayMaxspeed = new double[g.ways.size()];
+        for (int way = 0; way < wayIds.length; way += 1) {
+            GraphDB.Way w = g.ways.get(way);
+            wayIds[way] = w.id;
+            wayName[way] = interned.computeIfAbsent(w.name, s -> interned.size());
+            wayClass[way] = (byte) (int) classes.getOrDefault(w.highway, UNCLASSIFIED);
+            wayOneway[way] = (byte) w.oneway;
+            wayMaxspeed[way] = w.maxspeed;
+        }
+        byte[][] names = new byte[interned.size()][];
+        for (String name : interned.keySet()) {
+            names[interned.get(name)] = name.getBytes(StandardCharsets.UTF_8);
+        }
+        int[] nameStart = new int[names.length + 1];
+        for (int name = 0; name < names.length; name += 1) {
+            nameStart[name + 1] = nameStart[name] + names[name].length;
+        }
+        byte[] nameBytes = new byte[nameStart[names.length]];
+        for (int name = 0; name < names.length; name += 1) {
+            System.arraycopy(names[name], 0, nameBytes, nameStart[name], names[name].length);
+        }
+
+        this.ids = LongBuffer.wrap(ids);
+        this.sortedIds = LongBuffer.wrap(sortedIds);
+        this.sortedIndex = IntBuffer.wrap(sortedIndex);
+        int[] kdOrder = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            kdOrder[v] = v;
+        }
+        kdSort(kdOrder, xs, ys, 0, n, true);
+        this.kdOrder = IntBuffer.wrap(kdOrder);
+        if (compact) {
+            int[] fixedLons = new int[n];
+            int[] fixedLats = new int[n];
+            float[] floatXs = new float[n];
+            float[] floatYs = new float[n];
+            double largest = 0;
+            for (int v = 0; v < n; v += 1) {
+                fixedLons[v] = GraphDB.toFixedLon(lons[v]);
+                fixedLats[v] = GraphDB.toFixedLat(lats[v]);
+                floatXs[v] = (float) xs[v];
+                floatYs[v] = (float) ys[v];
+                largest = Math.max(largest, Math.max(Math.abs(xs[v]), Math.abs(ys[v])));
+            }
+            this.lons = null;
+            this.lats = null;
+            this.fixedLons = IntBuffer.wrap(fixedLons);
+            this.fixedLats = IntBuffer.wrap(fixedLats);
+            this.xs = null;
+            this.ys = null;
+            this.floatXs = FloatBuffer.wrap(floatXs);
+            this.floatYs = FloatBuffer.wrap(floatYs);
+            /* Each coordinate moves by at most half an ulp, so each difference by at most one
+               and a distance by at most sqrt(2). */
+            this.planarSlack = 2 * Math.ulp((float) largest);
+        } else {
+            this.lons = DoubleBuffer.wrap(lons);
+            this.lats = DoubleBuffer.wrap(lats);
+            this.fixedLons = null;
+            this.fixedLats = null;
+            this.xs = DoubleBuffer.wrap(xs);
+            this.ys = DoubleBuffer.wrap(ys);
+            this.floatXs = null;
+            this.floatYs = null;
+            this.planarSlack = 0;
+        }
+        this.edgeStart = IntBuffer.wrap(edgeStart);
+        this.edgeTo = IntBuffer.wrap(edgeTo);
+        this.edgeWay = IntBuffer.wrap(edgeWay);
+        this.edgeForward = ByteBuffer.wrap(edgeForward);
+        if (compact) {
+            short[] shortBearing = new short[edgeBearing.length];
+            float[] floatLength = new float[edgeLength.length];
+            for (int e = 0; e < edgeLength.length; e += 1) {
+                shortBearing[e] = (short) Math.round(edgeBearing[e] * 100);
+                floatLength[e] = (float) edgeLength[e];
+                if (floatLength[e] < edgeLength[e]) {
+                    floatLength[e] = Math.nextUp(floatLength[e]);
+                }
+            }
+            this.edgeBearing = null;
+            this.shortBearing = ShortBuffer.wrap(shortBearing);
+            this.edgeLength = null;
+            this.floatLength = FloatBuffer.wrap(floatLength);
+        } else {
+            this.edgeBearing = DoubleBuffer.wrap(edgeBearing);
+            this.shortBearing = null;
+            this.edgeLength = DoubleBuffer.wrap(edgeLength);
+            this.floatLength = null;
+        }
+        this.edgeTwin = IntBuffer.wrap(edgeTwin);
+        this.wayIds = LongBuffer.wrap(wayIds);
+        this.wayName = IntBuffer.wrap(wayName);
+        this.wayClass = ByteBuffer.wrap(wayClass);
+        this.wayOneway = ByteBuffer.wrap(wayOneway);
+        this.wayMaxspeed = DoubleBuffer.wrap(wayMaxspeed);
+        this.nameStart = IntBuffer.wrap(nameStart);
+        this.nameBytes = ByteBuffer.wrap(nameBytes);
+
+        weights = new FloatBuffer[RoutingProfile.PROFILES.length];
+        for (int p = 0; p < weights.length; p += 1) {
+            if (RoutingProfile.PROFILES[p].timed()) {
+                weights[p] = FloatBuffer.wrap(computeWeights(RoutingProfile.PROFILES[p]));
+            }
+        }
+    }
+
+    /**
+     * Views a graph's arrays in buffers of its bytes, laid out as <code>layout</code> lists them.
+     */
+    private DenseGraph(boolean hilbertOrder, boolean compact, double planarScale,
+                       double planarSlack, ByteBuffer[] sections) {
+        this.hilbertOrder = hilbertOrder;
+        this.compact = compact;
+        this.planarScale = planarScale;
+        this.planarSlack = planarSlack;
+        int i = 0;
+        ids = sections[i++].asLongBuffer();
+        sortedIds = sections[i++].asLongBuffer();
+        sortedIndex = sections[i++].asIntBuffer();
+        lons = compact ? null : sections[i].asDoubleBuffer();
+        fixedLons = compact ? sections[i].asIntBuffer() : null;
+        i += 1;
+        lats = compact ? null : sections[i].asDoubleBuffer();
+        fixedLats = compact ? sections[i].asIntBuffer() : null;
+        i += 1;
+        xs = compact ? null : sections[i].asDoubleBuffer();
+        floatXs = compact ? sections[i].asFloatBuffer() : null;
+        i += 1;
+        ys = compact ? null : sections[i].asDoubleBuffer();
+        floatYs = compact ? sections[i].asFloatBuffer() : null;
+        i += 1;
+        kdOrder = sections[i++].asIntBuffer();
+        edgeStart = sections[i++].asIntBuffer();
+        edgeTo = sections[i++].asIntBuffer();
+        edgeWay = sections[i++].asIntBuffer();
+        edgeForward = sections[i++];
+        edgeBearing = compact ? null : sections[i].asDoubleBuffer();
+        shortBearing = compact ? sections[i].asShortBuffer() : null;
+        i += 1;
+        edgeLength = compact ? null : sections[i].asDoubleBuffer();
+        floatLength = compact ? sections[i].asFloatBuffer() : null;
+        i += 1;
+        edgeTwin = sections[i++].asIntBuffer();
+        wayIds = sections[i++].asLongBuffer();
+        wayName = sections[i++].asIntBuffer();
+        wayClass = sections[i++];
+        wayOneway = sections[i++];
+        wayMaxspeed = sections[i++].asDoubleBuffer();
+        nameStart = sections[i++].asIntBuffer();
+        nameBytes = sections[i++];
+        weights = new FloatBuffer[RoutingProfile.PROFILES.length];
+        for (int p = 0; p < weights.length; p += 1) {
+            if (RoutingProfile.PROFILES[p].timed()) {
+                weights[p] = sections[i++].asFloatBuffer();
+            }
+        }
+    }
+
+    /** Returns the arrays of the graph in the order files store them. */
+    private Buffer[] buffers() {
+        Buffer[] buffers = {ids, sortedIds, sortedIndex, compact ? fixedLons : lons,
+            compact ? fixedLats : lats, compact ? floatXs : xs, compact ? floatYs : ys, kdOrder,
+            edgeStart, edgeTo, edgeWay, edgeForward, compact ? shortBearing : edgeBearing,
+            compact ? floatLength : edgeLength, edgeTwin, wayIds, wayName, wayClass, wayOneway,
+            wayMaxspeed, nameStart, nameBytes};
+        int timed = 0;
+        for (FloatBuffer w : weights) {
+            timed += w == null ? 0 : 1;
+        }
+        Buffer[] all = Arrays.copyOf(buffers, buffers.length + timed);
+        int i = buffers.length;
+        for (FloatBuffer w : weights) {
+            if (w != null) {
+                all[i++] = w;
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Returns the length in bytes of each array of a graph of the given size, in the order
+     * files store them.
+     */
+    private static long[] layout(int vertices, int edges, int ways, int names, int nameBytes,
+                                 boolean compact) {
+        long n = vertices, e = edges, w = ways;
+        long coordinate = compact ? 4 : 8;
+        long[] lengths = {8 * n, 8 * n, 4 * n, coordinate * n, coordinate * n, coordinate * n,
+            coordinate * n, 4 * n, 4 * (n + 1), 4 * e, 4 * e, e, (compact ? 2 : 8) * e,
+            coordinate * e, 4 * e, 8 * w, 4 * w, w, w, 8 * w, 4 * (names + 1L), nameBytes};
+        int timed = 0;
+        for (RoutingProfile profile : RoutingProfile.PROFILES) {
+            timed += profile.timed() ? 1 : 0;
+        }
+        long[] all = Arrays.copyOf(lengths, lengths.length + timed);
+        Arrays.fill(all, lengths.length, all.length, 4 * e);
+        return all;
+    }
+
+    /** Rounds a file offset up so the array starting there is aligned for any element type. */
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /** Returns the bytes of an array in file order. */
+    static ByteBuffer bytes(Buffer b) {
+        if (b instanceof ByteBuffer) {
+            return ((ByteBuffer) b).duplicate();
+        }
+        int width = b instanceof ShortBuffer ? 2
+                : b instanceof IntBuffer || b instanceof FloatBuffer ? 4 : 8;
+        ByteBuffer out = ByteBuffer.allocate(b.capacity() * width).order(ORDER);
+        if (b instanceof ShortBuffer) {
+            out.asShortBuffer().put(((ShortBuffer) b).duplicate());
+        } else if (b instanceof LongBuffer) {
+            out.asLongBuffer().put(((LongBuffer) b).duplicate());
+        } else if (b instanceof IntBuffer) {
+            out.asIntBuffer().put(((IntBuffer) b).duplicate());
+        } else if (b instanceof FloatBuffer) {
+            out.asFloatBuffer().put(((FloatBuffer) b).duplicate());
+        } else {
+            out.asDoubleBuffer().put(((DoubleBuffer) b).duplicate());
+        }
+        return out;
+    }
+
+    /**
+     * Returns a copy of the graph whose arrays live outside the Java heap, in direct buffers.
+     * The copy's vertex and edge numbering is the same as this graph's.
+     */
+    DenseGraph copyOffHeap() {
+        Buffer[] buffers = buffers();
+        ByteBuffer[] sections = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i += 1) {
+            ByteBuffer bytes = bytes(buffers[i]);
+            sections[i] = ByteBuffer.allocateDirect(bytes.remaining()).order(ORDER);
+            sections[i].put(bytes).flip();
+        }
+        return new DenseGraph(hilbertOrder, compact, planarScale, planarSlack, sections);
+    }
+
+    /** Returns whether the graph's arrays live outside the Java heap. */
+    boolean isOffHeap() {
+        return ids.isDirect();
+    }
+
+    /**
+     * Writes the graph to a file for <code>map</code>. An existing file is replaced by renaming
+     * the new one over it, so processes that have the old one mapped go on reading it intact.
+     * @param path Path to the file.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(String path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size()).putInt(edgeCount())
+                .putInt(wayIds.capacity()).putInt(nameStart.capacity() - 1)
+                .putInt(nameBytes.capacity()).putInt(hilbertOrder ? 1 : 0)
+                .putInt(compact ? 1 : 0).putDouble(planarScale).putDouble(planarSlack);
+        header.clear();
+        writeFile(path, header, buffers());
+    }
+
+    /**
+     * Writes a header and arrays to a file, each array aligned as <code>mapSections</code>
+     * expects, replacing an existing file by renaming the new one over it.
+     * @param path Path to the file.
+     * @param header The header, written from its position to its limit.
+     * @param buffers The arrays.
+     * @throws IOException If the file cannot be written.
+     */
+    static void writeFile(String path, ByteBuffer header, Buffer[] buffers) throws IOException {
+        Path temporary = Paths.get(path + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(temporary.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            channel.truncate(0);
+            long offset = 0;
+            while (header.hasRemaining()) {
+                offset += channel.write(header, offset);
+            }
+            for (Buffer b : buffers) {
+                offset = align(offset);
+                ByteBuffer bytes = bytes(b);
+                while (bytes.hasRemaining()) {
+                    offset += channel.write(bytes, offset);
+                }
+            }
+        }
+        Files.move(temporary, Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the header of a file written by <code>writeFile</code>.
+     * @param channel The file.
+     * @param bytes The length of the header.
+     * @return The header, or fewer bytes if the file is shorter.
+     */
+    static ByteBuffer readHeader(FileChannel channel, int bytes) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(bytes).order(ORDER);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            continue;
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Maps the arrays a file written by <code>writeFile</code> holds after its header.
+     * @param channel The file.
+     * @param path Path to the file, for errors.
+     * @param headerBytes The length of the header.
+     * @param lengths The length in bytes of each array.
+     * @return The arrays, read-only.
+     * @throws IOException If the file is too short to hold them.
+     */
+    static ByteBuffer[] mapSections(FileChannel channel, String path, int headerBytes,
+                                    long[] lengths) throws IOException {
+        ByteBuffer[] sections = new ByteBuffer[lengths.length];
+        long offset = headerBytes;
+        for (int i = 0; i < lengths.length; i += 1) {
+            offset = align(offset);
+            if (offset + lengths[i] > channel.size()) {
+                throw new IOException(path + " is truncated");
+            }
+            sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, lengths[i])
+                    .order(ORDER);
+            offset += lengths[i];
+        }
+        return sections;
+    }
+
+    /**
+     * Maps a graph written by <code>write</code> into memory. Nothing is copied: the graph's
+     * arrays are read from the file's pages, which the operating system loads on first use and
+     * may share between processes.
+     * @param path Path to the file.
+     * @param hilbertOrder Whether the graph must number its vertices along a Hilbert curve.
+     * @param compact Whether the graph must be compact.
+     * @return The mapped graph.
+     * @throws IOException If the file cannot be read, was written by another version or numbers
+     *                     or encodes its vertices the other way.
+     */
+    static DenseGraph map(String path, boolean hilbertOrder, boolean compact)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer header = readHeader(channel, HEADER_BYTES);
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a dense graph");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("dense graph version %d, expected %d",
+                        version, VERSION));
+            }
+            int vertices = header.getInt();
+            int edges = header.getInt();
+            int ways = header.getInt();
+            int names = header.getInt();
+            int nameBytes = header.getInt();
+            if ((header.getInt() == 1) != hilbertOrder) {
+                throw new IOException(path + " numbers its vertices in another order");
+            }
+            if ((header.getInt() == 1) != compact) {
+                throw new IOException(path + " encodes its vertices another way");
+            }
+            double planarScale = header.getDouble();
+            double planarSlack = header.getDouble();
+            ByteBuffer[] sections = mapSections(channel, path, HEADER_BYTES,
+                    layout(vertices, edges, ways, names, nameBytes, compact));
+            return new DenseGraph(hilbertOrder, compact, planarScale, planarSlack, sections);
+        }
+    }
+
+    private float[] computeWeights(RoutingProfile profile) {
+        float[] w = new float[edgeCount()];
+        for (int e = 0; e < w.length; e += 1) {
+            int way = edgeWay(e);
+            double speed = profile.speed(wayClass(way), wayMaxspeed(way));
+            if (speed <= 0 || (profile.respectsOneway && !edgeAllowed(e))) {
+                w[e] = Float.POSITIVE_INFINITY;
+            } else {
+                w[e] = (float) RoutingProfile.seconds(edgeLength(e), speed);
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Returns the precomputed edge travel times under a profile.
+     * @param profile A timed profile.
+     * @return Seconds per edge, infinite where the profile may not travel the edge.
+     */
+    FloatBuffer weights(RoutingProfile profile) {
+        for (int p = 0; p < weights.length; p += 1) {
+            if (RoutingProfile.PROFILES[p] == profile) {
+                return weights[p];
+            }
+        }
+        throw new IllegalArgumentException("Unknown profile " + profile.name + ".");
+    }
+
+    /**
+     * Reorders vertex IDs along a Hilbert curve through their projected coordinates, breaking
+     * ties by the order they come in.
+     */
+    private static void hilbertSort(GraphDB g, long[] ids) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (long id : ids) {
+            GraphDB.Vertex vertex = g.vertexHashMap.get(id);
+            double x = vertex.x();
+            double y = vertex.y();
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        int cells = (1 << HILBERT_BITS) - 1;
+        double scale = cells / Math.max(maxX - minX, maxY - minY);
+        if (!(scale < Double.POSITIVE_INFINITY)) {
+            scale = 0;
+        }
+        /* Each key holds a vertex's distance along the curve above its current position. */
+        long[] keys = new long[ids.length];
+        for (int v = 0; v < ids.length; v += 1) {
+            GraphDB.Vertex vertex = g.vertexHashMap.get(ids[v]);
+            int x = (int) ((vertex.x() - minX) * scale);
+            int y = (int) ((vertex.y() - minY) * scale);
+            keys[v] = hilbert(x, y) << 31 | v;
+        }
+        Arrays.sort(keys);
+        long[] sorted = new long[ids.length];
+        for (int v = 0; v < ids.length; v += 1) {
+            sorted[v] = ids[(int) (keys[v] & Integer.MAX_VALUE)];
+        }
+        System.arraycopy(sorted, 0, ids, 0, ids.length);
+    }
+
+    /**
+     * Arranges vertices into an implicit KD-tree, as <code>kdOrder</code> holds them.
+     * @param order The vertices of the subtree, rearranged in place.
+     * @param xs The projected x of each vertex.
+     * @param ys The projected y of each vertex.
+     * @param lo The first slot of the subtree.
+     * @param hi One past its last slot.
+     * @param xSplit Whether the subtree's root splits on x.
+     */
+    private static void kdSort(int[] order, double[] xs, double[] ys, int lo, int hi,
+                               boolean xSplit) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(order, xSplit ? xs : ys, lo, hi - 1, mid);
+        kdSort(order, xs, ys, lo, mid, !xSplit);
+        kdSort(order, xs, ys, mid + 1, hi, !xSplit);
+    }
+
+    /**
+     * Moves into slot <code>k</code> of <code>[lo, hi]</code> the vertex sorting by key would
+     * put there, with no larger key before it and no smaller one after, by Hoare's selection.
+     */
+    private static void select(int[] order, double[] keys, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = keys[order[(lo + hi) >>> 1]];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i += 1;
+                }
+                while (keys[order[j]] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            /* Keys in [lo, j] are at most the pivot, those in [i, hi] at least it, and any
+               between equal it. */
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns how far along a Hilbert curve filling a square of side
+     * <code>2^HILBERT_BITS</code> the cell <code>(x, y)</code> lies.
+     * @source https://en.wikipedia.org/wiki/Hilbert_curve
+     */
+    static long hilbert(int x, int y) {
+        int side = 1 << HILBERT_BITS;
+        long d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            /* Rotate the quadrant so the curve inside it runs the standard way round. */
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /** Returns the number of vertices. */
+    int size() {
+        return ids.capacity();
+    }
+
+    /**
+     * Returns the dense index of a vertex.
+     * @param id The OSM ID of the vertex.
+     * @return Its index, or -1 if it is not in the graph.
+     */
+    int index(long id) {
+        int lo = 0, hi = sortedIds.capacity() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long m = sortedIds.get(mid);
+            if (m < id) {
+                lo = mid + 1;
+            } else if (m > id) {
+                hi = mid - 1;
+            } else {
+                return sortedIndex.get(mid);
+            }
+        }
+        return -1;
+    }
+
+    long id(int v) {
+        return ids.get(v);
+    }
+
+    double lon(int v) {
+        return compact ? GraphDB.fromFixedLon(fixedLons.get(v)) : lons.get(v);
+    }
+
+    double lat(int v) {
+        return compact ? GraphDB.fromFixedLat(fixedLats.get(v)) : lats.get(v);
+    }
+
+    /**
+     * Returns a lower bound on the great-circle distance between two vertices in miles, from
+     * their projected coordinates, with no trigonometry.
+     */
+    double planarDistance(int v, int w) {
+        if (compact) {
+            double dx = (double) floatXs.get(v) - floatXs.get(w);
+            double dy = (double) floatYs.get(v) - floatYs.get(w);
+            return Math.max(0, Math.sqrt(dx * dx + dy * dy) - planarSlack) * planarScale;
+        }
+        double dx = xs.get(v) - xs.get(w);
+        double dy = ys.get(v) - ys.get(w);
+        return Math.sqrt(dx * dx + dy * dy) * planarScale;
+    }
+
+    /**
+     * Returns the vertex nearest a point on the plane of <code>GraphDB.projectToX</code> and
+     * <code>projectToY</code>, as <code>GraphDB.closest</code> does with its KD-tree.
+     * @param x The projected x of the point.
+     * @param y The projected y of the point.
+     * @return The index of the vertex, or -1 if the graph is empty.
+     */
+    int closest(double x, double y) {
+        Nearest best = new Nearest();
+        closest(0, size(), true, x, y, best);
+        return best.vertex;
+    }
+
+    private void closest(int lo, int hi, boolean xSplit, double x, double y, Nearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int v = kdOrder.get(mid);
+        double vx = projectedX(v);
+        double vy = projectedY(v);
+        double distance = GraphDB.euclidean(x, vx, y, vy);
+        if (distance < best.distance) {
+            best.vertex = v;
+            best.distance = distance;
+        }
+        double delta = xSplit ? x - vx : y - vy;
+        if (delta < 0) {
+            closest(lo, mid, !xSplit, x, y, best);
+            if (-delta < best.distance) {
+                closest(mid + 1, hi, !xSplit, x, y, best);
+            }
+        } else {
+            closest(mid + 1, hi, !xSplit, x, y, best);
+            if (delta < best.distance) {
+                closest(lo, mid, !xSplit, x, y, best);
+            }
+        }
+    }
+
+    /**
+     * Returns the projected x of a vertex in full precision; compact graphs project it again
+     * rather than round the search to their floats.
+     */
+    private double projectedX(int v) {
+        return compact ? GraphDB.projectToX(lon(v), lat(v)) : xs.get(v);
+    }
+
+    private double projectedY(int v) {
+        return compact ? GraphDB.projectToY(lon(v), lat(v)) : ys.get(v);
+    }
+
+    /** The nearest vertex a search has found so far. */
+    private static class Nearest {
+        private int vertex = -1;
+        private double distance = Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the number of directed edges. */
+    int edgeCount() {
+        return edgeTo.capacity();
+    }
+
+    int edgeStart(int v) {
+        return edgeStart.get(v);
+    }
+
+    int edgeEnd(int v) {
+        return edgeStart.get(v + 1);
+    }
+
+    int edgeTo(int e) {
+        return edgeTo.get(e);
+    }
+
+    int edgeWay(int e) {
+        return edgeWay.get(e);
+    }
+
+    /** Returns whether an edge runs in the order of its way's nodes rather than against it. */
+    boolean edgeForward(int e) {
+        return edgeForward.get(e) != 0;
+    }
+
+    /** Returns the initial bearing of an edge in degrees, as <code>GraphDB.bearing</code>. */
+    double edgeBearing(int e) {
+        return compact ? shortBearing.get(e) / 100.0 : edgeBearing.get(e);
+    }
+
+    /** Returns the length of an edge in miles. */
+    double edgeLength(int e) {
+        return compact ? floatLength.get(e) : edgeLength.get(e);
+    }
+
+    /**
+     * Returns the reverse of an edge, which <code>GraphDB.addWay</code> always adds alongside
+     * it, so that searches can walk edges backward from their heads.
+     */
+    int edgeTwin(int e) {
+        return edgeTwin.get(e);
+    }
+
+    /** Returns whether an edge may be travelled in its direction under one-way restrictions. */
+    boolean edgeAllowed(int e) {
+        int oneway = wayOneway.get(edgeWay.get(e));
+        return oneway == 0 || (oneway > 0) == edgeForward(e);
+    }
+
+    /** Returns the index in <code>HIGHWAY_CLASSES</code> of a way's highway class. */
+    int wayClass(int way) {
+        return wayClass.get(way);
+    }
+
+    /** Returns a way's tagged speed limit in miles per hour, or NaN if it has none. */
+    double wayMaxspeed(int way) {
+        return wayMaxspeed.get(way);
+    }
+
+    /** Returns the OSM ID of a way. */
+    long wayId(int way) {
+        return wayIds.get(way);
+    }
+
+    /** Returns the index of a way's name in the table of distinct names. */
+    int wayName(int way) {
+        return wayName.get(way);
+    }
+
+    /** Returns the name with the given index, or the empty string for unnamed ways. */
+    String name(int name) {
+        ByteBuffer bytes = nameBytes.duplicate();
+        bytes.position(nameStart.get(name)).limit(nameStart.get(name + 1));
+        byte[] utf8 = new byte[bytes.remaining()];
+        bytes.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the name of the way the edge from <code>u</code> to <code>v</code> belongs to.
+     * Where several ways join the two vertices, the one named <code>preferred</code> wins, so a
+     * route does not appear to leave a street it is following.
+     * @param u The dense index of the edge's tail.
+     * @param v The dense index of the edge's head.
+     * @param preferred The name index to prefer, or -1.
+     * @return The index of the way's name.
+     * @throws IllegalArgumentException If there is no edge from <code>u</code> to <code>v</code>.
+     */
+    int edgeName(int u, int v, int preferred) {
+        int found = -1;
+        for (int e = edgeStart(u); e < edgeEnd(u); e += 1) {
+            if (edgeTo(e) == v) {
+                int name = wayName(edgeWay(e));
+                if (name == preferred) {
+                    return name;
+                }
+                if (found < 0) {
+                    found = name;
+                }
+            }
+        }
+        if (found < 0) {
+            throw new IllegalArgumentException(String.format("No edge from %d to %d.",
+                    id(u), id(v)));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,168 @@
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Many-to-many route costs over a <code>DenseGraph</code>. Each origin's row comes from one
+ * Dijkstra sweep that stops as soon as every destination is settled, instead of one search per
+ * origin-destination pair; rows are computed in parallel on a fork-join pool, each worker
+ * reusing its own <code>SearchWorkspace</code>. Costs are miles under
+ * <code>RoutingProfile.DISTANCE</code> and seconds under timed profiles, whose turn penalties
+ * are applied by sweeping directed edges as <code>EdgeRouter</code> does.
+ */
+class DistanceMatrix {
+    /** Rows computed by one fork-join task before it stops splitting. */
+    private static final int ROWS_PER_TASK = 4;
+    /** Runs searches that fan out across cores, here and for <code>Router</code>'s legs. */
+    static final ForkJoinPool POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Returns the cost of the cheapest route from every origin to every destination.
+     * @param d The graph.
+     * @param origins Dense indices of the origin vertices.
+     * @param destinations Dense indices of the destination vertices.
+     * @param profile How to cost routes.
+     * @return <code>costs[i][j]</code> from <code>origins[i]</code> to
+     * <code>destinations[j]</code>, infinite where there is no route.
+     */
+    static double[][] compute(DenseGraph d, int[] origins, int[] destinations,
+                              RoutingProfile profile) {
+        double[][] costs = new double[origins.length][];
+        int[] slots = new int[d.size()];
+        Arrays.fill(slots, -1);
+        int targets = 0;
+        for (int v : destinations) {
+            if (slots[v] < 0) {
+                slots[v] = targets;
+                targets += 1;
+            }
+        }
+        POOL.invoke(new Rows(d, origins, destinations, slots, targets, profile, costs, 0,
+                origins.length));
+        return costs;
+    }
+
+    /** Computes the rows <code>[from, to)</code>, splitting the range in half while large. */
+    private static class Rows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final DenseGraph d;
+        private final int[] origins, destinations, slots;
+        private final int targets;
+        private final RoutingProfile profile;
+        private final double[][] costs;
+        private final int from, to;
+
+        Rows(DenseGraph d, int[] origins, int[] destinations, int[] slots, int targets,
+             RoutingProfile profile, double[][] costs, int from, int to) {
+            this.d = d;
+            this.origins = origins;
+            this.destinations = destinations;
+            this.slots = slots;
+            this.targets = targets;
+            this.profile = profile;
+            this.costs = costs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Rows(d, origins, destinations, slots, targets, profile, costs,
+                                from, mid),
+                        new Rows(d, origins, destinations, slots, targets, profile, costs,
+                                mid, to));
+                return;
+            }
+            for (int i = from; i < to; i += 1) {
+                double[] byTarget = profile.turnCosts()
+                        ? edgeSweep(d, origins[i], slots, targets, profile)
+                        : vertexSweep(d, origins[i], slots, targets, profile);
+                costs[i] = new double[destinations.length];
+                for (int j = 0; j < destinations.length; j += 1) {
+                    costs[i][j] = byTarget[slots[destinations[j]]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the costs from one origin to each target by a Dijkstra sweep over vertices.
+     * @param slots Each vertex's position among the targets, or -1 if it is not one.
+     * @param targets The number of targets.
+     */
+    static double[] vertexSweep(DenseGraph d, int origin, int[] slots, int targets,
+                                RoutingProfile profile) {
+        FloatBuffer weights = profile.timed() ? d.weights(profile) : null;
+        double[] result = new double[targets];
+        Arrays.fill(result, Double.POSITIVE_INFINITY);
+        int remaining = targets;
+        SearchWorkspace ws = SearchWorkspace.forThread(d.size());
+        ws.relax(origin, 0, -1, 0);
+        while (!ws.isEmpty() && remaining > 0) {
+            int v = ws.poll();
+            int t = slots[v];
+            if (t >= 0) {
+                result[t] = ws.cost(v);
+                remaining -= 1;
+            }
+            double cost = ws.cost(v);
+            for (int e = d.edgeStart(v); e < d.edgeEnd(v); e += 1) {
+                double c = cost + (weights == null ? d.edgeLength(e) : weights.get(e));
+                if (c < Double.POSITIVE_INFINITY) {
+                    ws.relax(d.edgeTo(e), c, v, c);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the costs from one origin to each target by a Dijkstra sweep over directed edges,
+     * paying the profile's turn penalties.
+     * @param slots Each vertex's position among the targets, or -1 if it is not one.
+     * @param targets The number of targets.
+     */
+    static double[] edgeSweep(DenseGraph d, int origin, int[] slots, int targets,
+                              RoutingProfile profile) {
+        FloatBuffer weights = d.weights(profile);
+        double[] result = new double[targets];
+        Arrays.fill(result, Double.POSITIVE_INFINITY);
+        int remaining = targets;
+        int self = slots[origin];
+        if (self >= 0) {
+            result[self] = 0;
+            remaining -= 1;
+        }
+        SearchWorkspace ws = SearchWorkspace.forThread(d.edgeCount());
+        for (int e = d.edgeStart(origin); e < d.edgeEnd(origin); e += 1) {
+            if (weights.get(e) < Float.POSITIVE_INFINITY) {
+                ws.relax(e, weights.get(e), -1, weights.get(e));
+            }
+        }
+        while (!ws.isEmpty() && remaining > 0) {
+            int e = ws.poll();
+            int v = d.edgeTo(e);
+            double cost = ws.cost(e);
+            int t = slots[v];
+            if (t >= 0 && result[t] == Double.POSITIVE_INFINITY) {
+                result[t] = cost;
+                remaining -= 1;
+            }
+            for (int f = d.edgeStart(v); f < d.edgeEnd(v); f += 1) {
+                if (weights.get(f) < Float.POSITIVE_INFINITY) {
+                    double c = cost + profile.turnSeconds(d.edgeBearing(f) - d.edgeBearing(e))
+                            + weights.get(f);
+                    ws.relax(f, c, e, c);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,450 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A packed R-tree over the road segments of a <code>DenseGraph</code>, bulk-loaded by
+ * Sort-Tile-Recursive: segments are sorted into vertical slabs by the longitude of their
+ * centers, each slab is sorted by latitude and cut into leaves of <code>NODE_CAPACITY</code>
+ * segments, and the leaves are packed into parents the same way until one root is left. Every
+ * node is full but the last of each slab, so the tree is as shallow and its boxes as tight as
+ * the segments allow.
+ *
+ * Each pair of twin edges is indexed once, as the edge that runs along its way. Nodes live in
+ * flat arrays, leaves first and the root last, and the tree never changes once built, so any
+ * number of threads may query it at once; a query allocates only its small traversal stack and
+ * its result. Distances are measured on a plane scaled to the query's latitude, which is exact
+ * enough over the few hundred feet a snap spans.
+ *
+ * Like <code>DenseGraph</code>, the arrays are NIO buffers, so <code>write</code> can store the
+ * tree next to a mapped graph and <code>map</code> read it back without building it again.
+ */
+class EdgeIndex {
+    /** Largest number of children of a node. */
+    static final int NODE_CAPACITY = 8;
+
+    /** Marks a file as an edge index. */
+    private static final int MAGIC = 0x424d4549;
+    /** Bumped whenever the file layout changes; files of other versions are rebuilt. */
+    private static final int VERSION = 1;
+    /** Bytes before the first array of a file. */
+    private static final int HEADER_BYTES = 32;
+
+    /** The nearest point on a road segment to a query point. */
+    static class Snap {
+        /** The edge the point lies on; its twin runs along the same segment the other way. */
+        final int edge;
+        /** How far along the edge the point is, from 0 at its tail to 1 at its head. */
+        final double t;
+        /** The snapped position. */
+        final double lon, lat;
+        /** The distance from the query point to the snapped position, in miles. */
+        final double distance;
+
+        Snap(int edge, double t, double lon, double lat, double distance) {
+            this.edge = edge;
+            this.t = t;
+            this.lon = lon;
+            this.lat = lat;
+            this.distance = distance;
+        }
+    }
+
+    /** The indexed edges, in leaf order. */
+    private final IntBuffer edges;
+    /**
+     * The tail and head coordinates of each indexed edge, in leaf order, so that leaves are
+     * scanned without looking anything up in the graph.
+     */
+    private final DoubleBuffer segments;
+    /** The bounding box of node <code>i</code> is at <code>[4i, 4i + 4)</code>. */
+    private final DoubleBuffer boxes;
+    /**
+     * The children of node <code>i</code> are <code>[first[i], first[i] + count[i])</code>,
+     * which index <code>edges</code> for leaves and the nodes otherwise.
+     */
+    private final IntBuffer first, count;
+    /** Nodes <code>[0, leaves)</code> are leaves. */
+    private final int leaves;
+    private final int height;
+
+    /**
+     * Bulk-loads the segments of a graph.
+     * @param d The graph.
+     */
+    EdgeIndex(DenseGraph d) {
+        int n = 0;
+        for (int e = 0; e < d.edgeCount(); e += 1) {
+            if (d.edgeForward(e)) {
+                n += 1;
+            }
+        }
+        int[] edges = new int[n];
+        double[] items = new double[4 * n];
+        int i = 0;
+        for (int e = 0; e < d.edgeCount(); e += 1) {
+            if (d.edgeForward(e)) {
+                edges[i] = e;
+                i += 1;
+            }
+        }
+
+        /* Pack each level from the one below it, reordering the level below by STR. */
+        int[] levelStart = new int[64];
+        int[][] levelFirst = new int[64][];
+        int[][] levelCount = new int[64][];
+        double[][] levelBoxes = new double[64][];
+        int levels = 0;
+        for (int k = 0; k < n; k += 1) {
+            int e = edges[k];
+            int u = d.edgeTo(d.edgeTwin(e));
+            int v = d.edgeTo(e);
+            items[4 * k] = Math.min(d.lon(u), d.lon(v));
+            items[4 * k + 1] = Math.min(d.lat(u), d.lat(v));
+            items[4 * k + 2] = Math.max(d.lon(u), d.lon(v));
+            items[4 * k + 3] = Math.max(d.lat(u), d.lat(v));
+        }
+        int size = n;
+        double[] below = items;
+        do {
+            int[] sorted = pack(below, size);
+            double[] reordered = new double[4 * size];
+            for (int k = 0; k < size; k += 1) {
+                System.arraycopy(below, 4 * sorted[k], reordered, 4 * k, 4);
+            }
+            if (levels == 0) {
+                int[] packed = new int[n];
+                for (int k = 0; k < n; k += 1) {
+                    packed[k] = edges[sorted[k]];
+                }
+                System.arraycopy(packed, 0, edges, 0, n);
+            } else {
+                permute(levelFirst[levels - 1], levelCount[levels - 1],
+                        levelBoxes[levels - 1], sorted);
+            }
+            int nodes = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            int[] nodeFirst = new int[nodes];
+            int[] nodeCount = new int[nodes];
+            double[] nodeBoxes = new double[4 * nodes];
+            for (int p = 0; p < nodes; p += 1) {
+                nodeFirst[p] = p * NODE_CAPACITY;
+                nodeCount[p] = Math.min(NODE_CAPACITY, size - nodeFirst[p]);
+                nodeBoxes[4 * p] = Double.POSITIVE_INFINITY;
+                nodeBoxes[4 * p + 1] = Double.POSITIVE_INFINITY;
+                nodeBoxes[4 * p + 2] = Double.NEGATIVE_INFINITY;
+                nodeBoxes[4 * p + 3] = Double.NEGATIVE_INFINITY;
+                for (int c = nodeFirst[p]; c < nodeFirst[p] + nodeCount[p]; c += 1) {
+                    nodeBoxes[4 * p] = Math.min(nodeBoxes[4 * p], reordered[4 * c]);
+                    nodeBoxes[4 * p + 1] = Math.min(nodeBoxes[4 * p + 1], reordered[4 * c + 1]);
+                    nodeBoxes[4 * p + 2] = Math.max(nodeBoxes[4 * p + 2], reordered[4 * c + 2]);
+                    nodeBoxes[4 * p + 3] = Math.max(nodeBoxes[4 * p + 3], reordered[4 * c + 3]);
+                }
+            }
+            levelFirst[levels] = nodeFirst;
+            levelCount[levels] = nodeCount;
+            levelBoxes[levels] = nodeBoxes;
+            levels += 1;
+            size = nodes;
+            below = nodeBoxes;
+        } while (size > 1);
+
+        /* Lay the levels out leaves first, shifting child indices by their level's offset. */
+        int total = 0;
+        for (int l = 0; l < levels; l += 1) {
+            levelStart[l] = total;
+            total += levelFirst[l].length;
+        }
+        int[] first = new int[total];
+        int[] count = new int[total];
+        double[] boxes = new double[4 * total];
+        for (int l = 0; l < levels; l += 1) {
+            int offset = l == 0 ? 0 : levelStart[l - 1];
+            for (int p = 0; p < levelFirst[l].length; p += 1) {
+                first[levelStart[l] + p] = levelFirst[l][p] + offset;
+                count[levelStart[l] + p] = levelCount[l][p];
+            }
+            System.arraycopy(levelBoxes[l], 0, boxes, 4 * levelStart[l], levelBoxes[l].length);
+        }
+        leaves = n == 0 ? 0 : levelFirst[0].length;
+        height = levels;
+        double[] segments = new double[4 * n];
+        for (int k = 0; k < n; k += 1) {
+            int u = d.edgeTo(d.edgeTwin(edges[k]));
+            int v = d.edgeTo(edges[k]);
+            segments[4 * k] = d.lon(u);
+            segments[4 * k + 1] = d.lat(u);
+            segments[4 * k + 2] = d.lon(v);
+            segments[4 * k + 3] = d.lat(v);
+        }
+        this.edges = IntBuffer.wrap(edges);
+        this.segments = DoubleBuffer.wrap(segments);
+        this.boxes = DoubleBuffer.wrap(boxes);
+        this.first = IntBuffer.wrap(first);
+        this.count = IntBuffer.wrap(count);
+    }
+
+    /**
+     * Views the arrays of a tree in buffers of their bytes, in the order <code>write</code>
+     * stores them.
+     */
+    private EdgeIndex(int leaves, int height, ByteBuffer[] sections) {
+        this.leaves = leaves;
+        this.height = height;
+        edges = sections[0].asIntBuffer();
+        segments = sections[1].asDoubleBuffer();
+        boxes = sections[2].asDoubleBuffer();
+        first = sections[3].asIntBuffer();
+        count = sections[4].asIntBuffer();
+    }
+
+    /** Returns a copy of the tree whose arrays live outside the Java heap, in direct buffers. */
+    EdgeIndex copyOffHeap() {
+        Buffer[] buffers = {edges, segments, boxes, first, count};
+        ByteBuffer[] sections = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i += 1) {
+            ByteBuffer bytes = DenseGraph.bytes(buffers[i]);
+            sections[i] = ByteBuffer.allocateDirect(bytes.remaining()).order(DenseGraph.ORDER);
+            sections[i].put(bytes).flip();
+        }
+        return new EdgeIndex(leaves, height, sections);
+    }
+
+    /** Returns whether the tree's arrays live outside the Java heap. */
+    boolean isOffHeap() {
+        return edges.isDirect();
+    }
+
+    /**
+     * Writes the tree to a file for <code>map</code>, replacing an existing one as
+     * <code>DenseGraph.write</code> does.
+     * @param path Path to the file.
+     * @param d The graph the tree was built over.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(String path, DenseGraph d) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(DenseGraph.ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(d.edgeCount()).putInt(size())
+                .putInt(first.capacity()).putInt(leaves).putInt(height);
+        header.clear();
+        DenseGraph.writeFile(path, header, new Buffer[]{edges, segments, boxes, first, count});
+    }
+
+    /**
+     * Maps a tree written by <code>write</code> into memory without copying it.
+     * @param path Path to the file.
+     * @param d The graph the tree was built over.
+     * @return The mapped tree.
+     * @throws IOException If the file cannot be read, was written by another version or was
+     *                     built over a graph with another number of edges.
+     */
+    static EdgeIndex map(String path, DenseGraph d) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer header = DenseGraph.readHeader(channel, HEADER_BYTES);
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(path + " is not an edge index");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("edge index version %d, expected %d",
+                        version, VERSION));
+            }
+            if (header.getInt() != d.edgeCount()) {
+                throw new IOException(path + " indexes another graph");
+            }
+            long n = header.getInt();
+            long nodes = header.getInt();
+            int leaves = header.getInt();
+            int height = header.getInt();
+            ByteBuffer[] sections = DenseGraph.mapSections(channel, path, HEADER_BYTES,
+                    new long[]{4 * n, 32 * n, 32 * nodes, 4 * nodes, 4 * nodes});
+            return new EdgeIndex(leaves, height, sections);
+        }
+    }
+
+    /**
+     * Returns the Sort-Tile-Recursive order of boxes: by center longitude into slabs of whole
+     * nodes, then by center latitude within each slab.
+     * @param boxes The boxes, four coordinates each.
+     * @param size The number of boxes.
+     * @return The indices of the boxes in packed order.
+     */
+    private static int[] pack(double[] boxes, int size) {
+        Integer[] order = new Integer[size];
+        for (int k = 0; k < size; k += 1) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(boxes[4 * a] + boxes[4 * a + 2],
+                boxes[4 * b] + boxes[4 * b + 2]));
+        int nodes = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slabs = (int) Math.ceil(Math.sqrt(nodes));
+        int perSlab = slabs == 0 ? 0 : ((nodes + slabs - 1) / slabs) * NODE_CAPACITY;
+        for (int from = 0; from < size; from += perSlab) {
+            Arrays.sort(order, from, Math.min(size, from + perSlab),
+                    (a, b) -> Double.compare(boxes[4 * a + 1] + boxes[4 * a + 3],
+                            boxes[4 * b + 1] + boxes[4 * b + 3]));
+        }
+        int[] sorted = new int[size];
+        for (int k = 0; k < size; k += 1) {
+            sorted[k] = order[k];
+        }
+        return sorted;
+    }
+
+    /** Reorders the nodes of a level, as <code>pack</code> ordered their boxes. */
+    private static void permute(int[] first, int[] count, double[] boxes, int[] sorted) {
+        int[] oldFirst = first.clone();
+        int[] oldCount = count.clone();
+        double[] oldBoxes = boxes.clone();
+        for (int k = 0; k < sorted.length; k += 1) {
+            first[k] = oldFirst[sorted[k]];
+            count[k] = oldCount[sorted[k]];
+            System.arraycopy(oldBoxes, 4 * sorted[k], boxes, 4 * k, 4);
+        }
+    }
+
+    /** Returns the number of segments indexed. */
+    int size() {
+        return edges.capacity();
+    }
+
+    /**
+     * Returns the nearest point on any road segment to a point.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The snap, or null if the graph has no edges.
+     */
+    Snap nearest(double lon, double lat) {
+        if (edges.capacity() == 0) {
+            return null;
+        }
+        double scale = Math.cos(Math.toRadians(lat));
+        double best = Double.POSITIVE_INFINITY;
+        int bestItem = -1;
+        double bestT = 0;
+        int[] stack = new int[height * NODE_CAPACITY + 1];
+        double[] bounds = new double[stack.length];
+        int top = 0;
+        stack[top] = first.capacity() - 1;
+        top += 1;
+        while (top > 0) {
+            top -= 1;
+            int node = stack[top];
+            if (bounds[top] >= best) {
+                continue;
+            }
+            if (node < leaves) {
+                for (int k = first.get(node); k < first.get(node) + count.get(node); k += 1) {
+                    double t = fraction(k, lon, lat, scale);
+                    double distance = distance(k, t, lon, lat, scale);
+                    if (distance < best) {
+                        best = distance;
+                        bestItem = k;
+                        bestT = t;
+                    }
+                }
+            } else {
+                /* Push nearer children last, so they are searched first and tighten the bound
+                   that prunes the rest. */
+                int bottom = top;
+                for (int c = first.get(node); c < first.get(node) + count.get(node); c += 1) {
+                    double bound = boxDistance(c, lon, lat, scale);
+                    if (bound < best) {
+                        int k = top;
+                        for (; k > bottom && bounds[k - 1] < bound; k -= 1) {
+                            stack[k] = stack[k - 1];
+                            bounds[k] = bounds[k - 1];
+                        }
+                        stack[k] = c;
+                        bounds[k] = bound;
+                        top += 1;
+                    }
+                }
+            }
+        }
+        int k = 4 * bestItem;
+        double snappedLon = segments.get(k) + bestT * (segments.get(k + 2) - segments.get(k));
+        double snappedLat = segments.get(k + 1)
+                + bestT * (segments.get(k + 3) - segments.get(k + 1));
+        return new Snap(edges.get(bestItem), bestT, snappedLon, snappedLat,
+                GraphDB.distance(lon, lat, snappedLon, snappedLat));
+    }
+
+    /**
+     * Visits every road segment within a distance of a point.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @param miles The distance.
+     * @param visit Called with the indexed edge of each segment, whose twin runs along it the
+     *              other way.
+     */
+    void within(double lon, double lat, double miles, IntConsumer visit) {
+        if (edges.capacity() == 0) {
+            return;
+        }
+        double scale = Math.cos(Math.toRadians(lat));
+        double degrees = miles / GraphDB.distance(0, 0, 0, 1);
+        double limit = degrees * degrees;
+        int[] stack = new int[height * NODE_CAPACITY + 1];
+        int top = 0;
+        stack[top] = first.capacity() - 1;
+        top += 1;
+        while (top > 0) {
+            top -= 1;
+            int node = stack[top];
+            if (boxDistance(node, lon, lat, scale) > limit) {
+                continue;
+            }
+            if (node >= leaves) {
+                for (int c = first.get(node); c < first.get(node) + count.get(node); c += 1) {
+                    stack[top] = c;
+                    top += 1;
+                }
+                continue;
+            }
+            for (int k = first.get(node); k < first.get(node) + count.get(node); k += 1) {
+                if (distance(k, fraction(k, lon, lat, scale), lon, lat, scale) <= limit) {
+                    visit.accept(edges.get(k));
+                }
+            }
+        }
+    }
+
+    /** Returns how far along the segment at leaf slot <code>k</code> is nearest a point. */
+    private double fraction(int k, double lon, double lat, double scale) {
+        double tailLon = segments.get(4 * k);
+        double tailLat = segments.get(4 * k + 1);
+        double ex = (segments.get(4 * k + 2) - tailLon) * scale;
+        double ey = segments.get(4 * k + 3) - tailLat;
+        double length = ex * ex + ey * ey;
+        if (length == 0) {
+            return 0;
+        }
+        double dot = (lon - tailLon) * scale * ex + (lat - tailLat) * ey;
+        return Math.max(0, Math.min(1, dot / length));
+    }
+
+    /** Returns the squared scaled distance from a point to a fraction of the way along. */
+    private double distance(int k, double t, double lon, double lat, double scale) {
+        double tailLon = segments.get(4 * k);
+        double tailLat = segments.get(4 * k + 1);
+        double dx = (lon - tailLon - t * (segments.get(4 * k + 2) - tailLon)) * scale;
+        double dy = lat - tailLat - t * (segments.get(4 * k + 3) - tailLat);
+        return dx * dx + dy * dy;
+    }
+
+    /** Returns the squared scaled distance from a point to a node's box, 0 if inside it. */
+    private double boxDistance(int node, double lon, double lat, double scale) {
+        double dx = Math.max(0, Math.max(boxes.get(4 * node) - lon,
+                lon - boxes.get(4 * node + 2))) * scale;
+        double dy = Math.max(0, Math.max(boxes.get(4 * node + 1) - lat,
+                lat - boxes.get(4 * node + 3)));
+        return dx * dx + dy * dy;
+    }
+}
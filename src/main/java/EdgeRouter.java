@@ -0,0 +1,296 @@
+import java.nio.FloatBuffer;
+
+/**
+ * A* search over a <code>DenseGraph</code> for timed routing profiles, reading edge travel times
+ * from the profile's precomputed weights. Edges a profile may not travel, including those
+ * against a one-way restriction it respects, weigh infinity and are never entered.
+ *
+ * For profiles that cost turns, a turn's cost depends on the edge a vertex was entered by, so
+ * the search settles directed edges rather than vertices: the cost of an edge is the cheapest
+ * time to reach its head having just travelled it, and relaxing it to a following edge adds the
+ * turn penalty between their bearings and the following edge's travel time. Profiles without
+ * turn costs are searched vertex by vertex. The heuristic is the straight-line distance to the
+ * destination at the profile's top speed, which never overestimates.
+ *
+ * Shortest routes by length, for <code>RoutingProfile.DISTANCE</code>, read the edge lengths
+ * <code>DenseGraph</code> computed once at load and estimate the remaining distance from the
+ * vertices' projected coordinates, so their searches run no trigonometry at all.
+ *
+ * Routes may also run between points snapped partway along edges by <code>EdgeIndex</code>,
+ * under any profile. Each point then acts as a virtual vertex splitting its edge in two, which
+ * exists only for the one search: the search starts on both halves leading away from the start
+ * and finishes by travelling part of an edge into the destination, paying for the fraction of
+ * each edge actually travelled.
+ */
+class EdgeRouter {
+    /** Vertices or directed edges settled by each search, by the kind of search. */
+    private static final LatencyHistogram DISTANCE_SETTLED = settled("distance"),
+            VERTEX_SETTLED = settled("vertex"), EDGE_SETTLED = settled("edge"),
+            SNAPPED_SETTLED = settled("snapped");
+
+    private EdgeRouter() {
+    }
+
+    /**
+     * Returns the histogram of how many vertices or edges one kind of route search settles.
+     * @param search The kind of search, as it is labelled in <code>/metrics</code>.
+     */
+    static LatencyHistogram settled(String search) {
+        return Metrics.summary("bearmaps_route_settled",
+                "Vertices or directed edges settled by one route search.", "search", search);
+    }
+
+    /**
+     * Returns the shortest route between two vertices by great-circle length, the route of
+     * <code>Router.shortestPath(g, startID, destID)</code>. Edges cost their lengths, computed
+     * once by <code>DenseGraph</code> exactly as <code>GraphDB.distance</code> computes them, so
+     * a route's cost sums the same numbers in the same order; the heuristic is
+     * <code>DenseGraph.planarDistance</code>, which never overestimates and takes no
+     * trigonometry. Searches in the thread's <code>SearchWorkspace</code>.
+     * @param d The graph.
+     * @param source The dense index of the start vertex.
+     * @param target The dense index of the destination vertex.
+     * @return The dense indices of the vertices along the route, or an empty array if the
+     * destination cannot be reached.
+     */
+    static int[] shortestRoute(DenseGraph d, int source, int target) {
+        SearchWorkspace ws = SearchWorkspace.forThread(d.size());
+        ws.relax(source, 0, -1, d.planarDistance(source, target));
+        int count = 0;
+        while (!ws.isEmpty()) {
+            int v = ws.poll();
+            count += 1;
+            if (v == target) {
+                DISTANCE_SETTLED.record(count);
+                int length = 0;
+                for (int u = v; u != -1; u = ws.parent(u)) {
+                    length += 1;
+                }
+                int[] path = new int[length];
+                for (int u = v; u != -1; u = ws.parent(u)) {
+                    length -= 1;
+                    path[length] = u;
+                }
+                return path;
+            }
+            double cost = ws.cost(v);
+            for (int e = d.edgeStart(v); e < d.edgeEnd(v); e += 1) {
+                int w = d.edgeTo(e);
+                double c = cost + d.edgeLength(e);
+                if (c < ws.cost(w) && !ws.settled(w)) {
+                    ws.relax(w, c, v, c + d.planarDistance(w, target));
+                }
+            }
+        }
+        DISTANCE_SETTLED.record(count);
+        return new int[0];
+    }
+
+    /**
+     * Returns the cheapest route between two vertices under a timed profile, searching in the
+     * thread's <code>SearchWorkspace</code>.
+     * @param d The graph.
+     * @param source The dense index of the start vertex.
+     * @param target The dense index of the destination vertex.
+     * @param profile The routing profile; must be timed.
+     * @return The dense indices of the vertices along the route, or an empty array if the
+     * destination cannot be reached.
+     */
+    static int[] route(DenseGraph d, int source, int target, RoutingProfile profile) {
+        if (source == target) {
+            return new int[]{source};
+        }
+        FloatBuffer weights = d.weights(profile);
+        return profile.turnCosts() ? edgeRoute(d, source, target, profile, weights)
+                : vertexRoute(d, source, target, profile, weights);
+    }
+
+    private static int[] vertexRoute(DenseGraph d, int source, int target,
+                                     RoutingProfile profile, FloatBuffer weights) {
+        SearchWorkspace ws = SearchWorkspace.forThread(d.size());
+        ws.relax(source, 0, -1, heuristic(d, source, target, profile));
+        int count = 0;
+        while (!ws.isEmpty()) {
+            int v = ws.poll();
+            count += 1;
+            if (v == target) {
+                VERTEX_SETTLED.record(count);
+                int length = 0;
+                for (int u = v; u != -1; u = ws.parent(u)) {
+                    length += 1;
+                }
+                int[] path = new int[length];
+                for (int u = v; u != -1; u = ws.parent(u)) {
+                    length -= 1;
+                    path[length] = u;
+                }
+                return path;
+            }
+            double cost = ws.cost(v);
+            for (int e = d.edgeStart(v); e < d.edgeEnd(v); e += 1) {
+                int w = d.edgeTo(e);
+                double c = cost + weights.get(e);
+                if (c < ws.cost(w) && !ws.settled(w)) {
+                    ws.relax(w, c, v, c + heuristic(d, w, target, profile));
+                }
+            }
+        }
+        VERTEX_SETTLED.record(count);
+        return new int[0];
+    }
+
+    private static int[] edgeRoute(DenseGraph d, int source, int target,
+                                   RoutingProfile profile, FloatBuffer weights) {
+        SearchWorkspace ws = SearchWorkspace.forThread(d.edgeCount());
+        for (int e = d.edgeStart(source); e < d.edgeEnd(source); e += 1) {
+            if (weights.get(e) < Float.POSITIVE_INFINITY) {
+                ws.relax(e, weights.get(e), -1,
+                        weights.get(e) + heuristic(d, d.edgeTo(e), target, profile));
+            }
+        }
+        int count = 0;
+        while (!ws.isEmpty()) {
+            int e = ws.poll();
+            count += 1;
+            int v = d.edgeTo(e);
+            if (v == target) {
+                EDGE_SETTLED.record(count);
+                return path(d, source, e, ws);
+            }
+            double cost = ws.cost(e);
+            for (int f = d.edgeStart(v); f < d.edgeEnd(v); f += 1) {
+                if (weights.get(f) == Float.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double c = cost + profile.turnSeconds(d.edgeBearing(f) - d.edgeBearing(e))
+                        + weights.get(f);
+                if (c < ws.cost(f) && !ws.settled(f)) {
+                    ws.relax(f, c, e, c + heuristic(d, d.edgeTo(f), target, profile));
+                }
+            }
+        }
+        EDGE_SETTLED.record(count);
+        return new int[0];
+    }
+
+    /**
+     * Returns the cheapest route between two points on edges, settling directed edges in the
+     * thread's <code>SearchWorkspace</code> so that turn penalties are paid where the profile
+     * has them.
+     * @param d The graph.
+     * @param start Where the route starts.
+     * @param dest Where the route ends.
+     * @param profile How to cost the route; untimed profiles cost edges by length.
+     * @return The dense indices of the vertices passed between the two points, in order, which
+     * is none if the route stays on one edge, or null if the destination cannot be reached.
+     */
+    static int[] route(DenseGraph d, EdgeIndex.Snap start, EdgeIndex.Snap dest,
+                       RoutingProfile profile) {
+        FloatBuffer weights = profile.timed() ? d.weights(profile) : null;
+        int into = dest.edge;
+        int back = d.edgeTwin(into);
+        double best = Double.POSITIVE_INFINITY;
+        /* The last edge travelled whole, or -1 if the route stays on the start's edge. */
+        int last = -1;
+        if (start.edge == into) {
+            best = dest.t >= start.t ? part(weight(d, weights, into), dest.t - start.t)
+                    : part(weight(d, weights, back), start.t - dest.t);
+        }
+        SearchWorkspace ws = SearchWorkspace.forThread(d.edgeCount());
+        int forward = start.edge;
+        int backward = d.edgeTwin(forward);
+        double c = part(weight(d, weights, forward), 1 - start.t);
+        if (c < Double.POSITIVE_INFINITY) {
+            ws.relax(forward, c, -1, c + heuristic(d, d.edgeTo(forward), dest, profile));
+        }
+        c = part(weight(d, weights, backward), start.t);
+        if (c < Double.POSITIVE_INFINITY) {
+            ws.relax(backward, c, -1, c + heuristic(d, d.edgeTo(backward), dest, profile));
+        }
+        int count = 0;
+        while (!ws.isEmpty()) {
+            int e = ws.poll();
+            int v = d.edgeTo(e);
+            double cost = ws.cost(e);
+            if (cost + heuristic(d, v, dest, profile) >= best) {
+                break;
+            }
+            count += 1;
+            if (v == d.edgeTo(back)) {
+                c = cost + turn(d, profile, e, into) + part(weight(d, weights, into), dest.t);
+                if (c < best) {
+                    best = c;
+                    last = e;
+                }
+            }
+            if (v == d.edgeTo(into)) {
+                c = cost + turn(d, profile, e, back) + part(weight(d, weights, back), 1 - dest.t);
+                if (c < best) {
+                    best = c;
+                    last = e;
+                }
+            }
+            for (int f = d.edgeStart(v); f < d.edgeEnd(v); f += 1) {
+                c = cost + turn(d, profile, e, f) + weight(d, weights, f);
+                if (c < Double.POSITIVE_INFINITY) {
+                    ws.relax(f, c, e, c + heuristic(d, d.edgeTo(f), dest, profile));
+                }
+            }
+        }
+        SNAPPED_SETTLED.record(count);
+        if (best == Double.POSITIVE_INFINITY) {
+            return null;
+        }
+        int length = 0;
+        for (int e = last; e != -1; e = ws.parent(e)) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        for (int e = last; e != -1; e = ws.parent(e)) {
+            length -= 1;
+            path[length] = d.edgeTo(e);
+        }
+        return path;
+    }
+
+    private static double weight(DenseGraph d, FloatBuffer weights, int e) {
+        return weights == null ? d.edgeLength(e) : weights.get(e);
+    }
+
+    /** Returns the cost of travelling a fraction of an edge, infinite if it may not be. */
+    private static double part(double weight, double fraction) {
+        return weight == Double.POSITIVE_INFINITY ? weight : weight * fraction;
+    }
+
+    private static double turn(DenseGraph d, RoutingProfile profile, int from, int to) {
+        return profile.turnCosts()
+                ? profile.turnSeconds(d.edgeBearing(to) - d.edgeBearing(from)) : 0;
+    }
+
+    private static double heuristic(DenseGraph d, int v, EdgeIndex.Snap dest,
+                                    RoutingProfile profile) {
+        double miles = GraphDB.distance(d.lon(v), d.lat(v), dest.lon, dest.lat);
+        return profile.timed() ? RoutingProfile.seconds(miles, profile.maxSpeed()) : miles;
+    }
+
+    private static double heuristic(DenseGraph d, int v, int target, RoutingProfile profile) {
+        return RoutingProfile.seconds(GraphDB.distance(d.lon(v), d.lat(v), d.lon(target),
+                d.lat(target)), profile.maxSpeed());
+    }
+
+    /** Follows the parents in a workspace back from the last edge of a route. */
+    private static int[] path(DenseGraph d, int source, int last, SearchWorkspace ws) {
+        int length = 1;
+        for (int e = last; e != -1; e = ws.parent(e)) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        path[0] = source;
+        int i = length - 1;
+        for (int e = last; e != -1; e = ws.parent(e)) {
+            path[i] = d.edgeTo(e);
+            i -= 1;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import spark.Route;
+
+/**
+ * A separately sized pool of worker threads for one group of <code>MapServer</code> endpoints.
+ * Each endpoint group gets its own threads and its own bounded queue, so slow requests such as
+ * <code>/raster</code> renders, which block on tile reads and PNG encoding, can only ever occupy
+ * their own workers. Once a pool and its queue are full, further requests for that pool are
+ * rejected immediately instead of tying up the request threads shared with cheap endpoints like
+ * <code>/route</code> and <code>/search</code>.
+ *
+ * The JVM this project targets has no virtual threads, so isolation is by pool rather than by
+ * giving every request its own cheap thread.
+ */
+class EndpointExecutor {
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    /**
+     * Creates an endpoint pool.
+     * @param name Name of the endpoint group, used to name the worker threads.
+     * @param threads Number of worker threads.
+     * @param queueSize Number of requests allowed to wait for a worker before rejecting.
+     */
+    EndpointExecutor(String name, int threads, int queueSize) {
+        this.name = name;
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory);
+    }
+
+    /**
+     * Wraps a Spark route so that it is handled on this pool. The calling request thread waits
+     * for the result, so exceptions thrown by the route, including Spark's halt, propagate as if
+     * the route had run inline.
+     * @param route The Spark route to run on this pool.
+     * @return A Spark route handing requests to this pool.
+     */
+    Route wrap(Route route) {
+        return (req, res) -> call(() -> route.handle(req, res));
+    }
+
+    /**
+     * Runs a task on this pool and waits for its result.
+     * @param task The task to run.
+     * @param <T> Type of the result.
+     * @return The result of the task.
+     * @throws RejectedExecutionException If all workers are busy and the queue is full.
+     * @throws Exception Any exception thrown by the task.
+     */
+    <T> T call(Callable<T> task) throws Exception {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(
+                    String.format("Server busy: %s requests are at capacity.", name), e);
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /** Returns the name of the endpoint group this pool serves. */
+    String name() {
+        return name;
+    }
+
+    /** Returns the most requests this pool can hold at once, running and queued. */
+    int capacity() {
+        return executor.getMaximumPoolSize() + executor.getQueue().remainingCapacity()
+                + executor.getQueue().size();
+    }
+
+    /** Returns the number of requests waiting for a worker. */
+    int queued() {
+        return executor.getQueue().size();
+    }
+
+    /** Returns the number of requests rejected because this pool was full. */
+    int rejectedCount() {
+        return rejected.get();
+    }
+
+    /** Stops accepting requests and lets queued requests finish. */
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typo-tolerant search over the names of OSM locations. Every distinct name is split into the
+ * trigrams of its cleaned form, padded with start and end markers, and an inverted index maps
+ * each trigram to the names containing it. A single edit destroys at most three trigrams of a
+ * name, so a name within <code>d</code> edits of the query must share all but <code>3d</code> of
+ * the query's distinct trigrams; only names passing that count filter (and the length filter)
+ * are checked with a banded edit distance computation.
+ *
+ * Results are ranked by edit distance, then by popularity (the number of nodes carrying the
+ * name, as in <code>Autocomplete</code>), then alphabetically.
+ */
+class FuzzyIndex {
+    /** Cleaned names use 'a' to 'z' and space; two more symbols mark the start and end. */
+    private static final int ALPHABET = 29;
+    private static final int SPACE = 26, START = 27, END = 28;
+
+    private final String[] cleaned;
+    private final String[] names;
+    private final int[] scores;
+    /** <code>postings[gram]</code> lists the entries containing <code>gram</code>, ascending. */
+    private final int[][] postings;
+    /** Entries ordered by cleaned length, and where each length starts in that order. */
+    private final int[] byLength;
+    private final int[] lengthStart;
+    /** Each thread's shared-trigram counts, reused from query to query. */
+    private final ThreadLocal<GramCounts> sharedCounts;
+
+    /**
+     * Builds the index over the names of the given locations.
+     * @param locations Named locations; locations sharing a full name are counted together.
+     */
+    FuzzyIndex(List<LocationParams> locations) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (LocationParams location : locations) {
+            counts.merge(location.name, 1, Integer::sum);
+        }
+        names = counts.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        int n = names.length;
+        cleaned = new String[n];
+        scores = new int[n];
+        int maxLength = 0;
+        for (int i = 0; i < n; i += 1) {
+            cleaned[i] = GraphDB.cleanString(names[i]);
+            scores[i] = counts.get(names[i]);
+            maxLength = Math.max(maxLength, cleaned[i].length());
+        }
+
+        int[] gramCounts = new int[ALPHABET * ALPHABET * ALPHABET];
+        for (int i = 0; i < n; i += 1) {
+            for (int gram : distinctGrams(cleaned[i])) {
+                gramCounts[gram] += 1;
+            }
+        }
+        postings = new int[gramCounts.length][];
+        for (int gram = 0; gram < gramCounts.length; gram += 1) {
+            postings[gram] = new int[gramCounts[gram]];
+        }
+        int[] fill = new int[gramCounts.length];
+        for (int i = 0; i < n; i += 1) {
+            for (int gram : distinctGrams(cleaned[i])) {
+                postings[gram][fill[gram]] = i;
+                fill[gram] += 1;
+            }
+        }
+
+        lengthStart = new int[maxLength + 2];
+        for (int i = 0; i < n; i += 1) {
+            lengthStart[cleaned[i].length() + 1] += 1;
+        }
+        for (int len = 1; len < lengthStart.length; len += 1) {
+            lengthStart[len] += lengthStart[len - 1];
+        }
+        byLength = new int[n];
+        int[] next = Arrays.copyOf(lengthStart, lengthStart.length);
+        for (int i = 0; i < n; i += 1) {
+            byLength[next[cleaned[i].length()]] = i;
+            next[cleaned[i].length()] += 1;
+        }
+        sharedCounts = ThreadLocal.withInitial(() -> new GramCounts(n));
+    }
+
+    /**
+     * Returns the default number of edits tolerated for a cleaned query of the given length:
+     * none for one or two characters, one up to five characters, and two beyond that.
+     * @param length Length of the cleaned query.
+     * @return The maximum edit distance.
+     */
+    static int defaultMaxEdits(int length) {
+        if (length <= 2) {
+            return 0;
+        }
+        return length <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Returns the full names whose cleaned form is within the default number of edits of the
+     * cleaned query.
+     * @param query The query, in any case and with or without punctuation.
+     * @param k The maximum number of names to return.
+     * @return Up to <code>k</code> names, closest first.
+     */
+    List<String> search(String query, int k) {
+        return search(query, k, defaultMaxEdits(GraphDB.cleanString(query).length()));
+    }
+
+    /**
+     * Returns the full names whose cleaned form is within <code>maxEdits</code> insertions,
+     * deletions or substitutions of the cleaned query.
+     * @param query The query, in any case and with or without punctuation.
+     * @param k The maximum number of names to return.
+     * @param maxEdits The maximum edit distance.
+     * @return Up to <code>k</code> names, closest first.
+     */
+    List<String> search(String query, int k, int maxEdits) {
+        String q = GraphDB.cleanString(query);
+        int minLength = Math.max(0, q.length() - maxEdits);
+        int maxLength = Math.min(lengthStart.length - 2, q.length() + maxEdits);
+        if (k <= 0 || minLength > maxLength) {
+            return Collections.emptyList();
+        }
+
+        int[] queryGrams = distinctGrams(q);
+        int threshold = queryGrams.length - 3 * maxEdits;
+        List<long[]> matches = new ArrayList<>();
+        if (threshold <= 0) {
+            /* Too short for the count filter to exclude anything; use the length filter. */
+            for (int j = lengthStart[minLength]; j < lengthStart[maxLength + 1]; j += 1) {
+                addIfClose(byLength[j], q, maxEdits, matches);
+            }
+        } else {
+            GramCounts shared = sharedCounts.get();
+            shared.reset();
+            for (int gram : queryGrams) {
+                for (int i : postings[gram]) {
+                    if (shared.increment(i) == threshold) {
+                        int length = cleaned[i].length();
+                        if (length >= minLength && length <= maxLength) {
+                            addIfClose(i, q, maxEdits, matches);
+                        }
+                    }
+                }
+            }
+        }
+
+        matches.sort((a, b) -> {
+            if (a[0] != b[0]) {
+                return Long.compare(a[0], b[0]);
+            }
+            int i = (int) a[1];
+            int j = (int) b[1];
+            if (scores[i] != scores[j]) {
+                return Integer.compare(scores[j], scores[i]);
+            }
+            return Integer.compare(i, j);
+        });
+        List<String> result = new ArrayList<>(Math.min(k, matches.size()));
+        for (int m = 0; m < matches.size() && m < k; m += 1) {
+            result.add(names[(int) matches.get(m)[1]]);
+        }
+        return result;
+    }
+
+    /** Returns the number of distinct names indexed. */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * The number of query trigrams each entry shares, for one thread. Counts are stamped with the
+     * query they belong to, as in <code>SearchWorkspace</code>, so starting a query is constant
+     * time however many names are indexed.
+     */
+    private static class GramCounts {
+        private final int[] count;
+        /** The query each entry's count belongs to; older stamps mean a count of zero. */
+        private final int[] stamp;
+        private int query;
+
+        GramCounts(int capacity) {
+            count = new int[capacity];
+            stamp = new int[capacity];
+        }
+
+        /** Starts a new query, leaving every count at zero. */
+        void reset() {
+            query += 1;
+            if (query == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                query = 1;
+            }
+        }
+
+        /** Adds one to an entry's count and returns the new count. */
+        int increment(int i) {
+            if (stamp[i] != query) {
+                stamp[i] = query;
+                count[i] = 0;
+            }
+            count[i] += 1;
+            return count[i];
+        }
+    }
+
+    private void addIfClose(int i, String q, int maxEdits, List<long[]> matches) {
+        int distance = editDistance(q, cleaned[i], maxEdits);
+        if (distance <= maxEdits) {
+            matches.add(new long[]{distance, i});
+        }
+    }
+
+    /**
+     * Returns the Levenshtein distance between <code>a</code> and <code>b</code> if it is at most
+     * <code>max</code>, and <code>max + 1</code> otherwise. Only the diagonal band of width
+     * <code>2 * max + 1</code> of the dynamic programming table is computed, and the computation
+     * stops as soon as a whole row exceeds <code>max</code>.
+     */
+    static int editDistance(String a, String b, int max) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > max) {
+            return max + 1;
+        }
+        int over = max + 1;
+        int[] prev = new int[m + 1];
+        int[] curr = new int[m + 1];
+        for (int j = 0; j <= m; j += 1) {
+            prev[j] = j <= max ? j : over;
+        }
+        for (int i = 1; i <= n; i += 1) {
+            int lo = Math.max(1, i - max);
+            int hi = Math.min(m, i + max);
+            curr[0] = i <= max ? i : over;
+            if (lo > 1) {
+                curr[lo - 1] = over;
+            }
+            int rowMin = curr[0];
+            char c = a.charAt(i - 1);
+            for (int j = lo; j <= hi; j += 1) {
+                int cost = prev[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                cost = Math.min(cost, prev[j] + 1);
+                cost = Math.min(cost, curr[j - 1] + 1);
+                curr[j] = Math.min(cost, over);
+                rowMin = Math.min(rowMin, curr[j]);
+            }
+            if (hi < m) {
+                curr[hi + 1] = over;
+            }
+            if (rowMin > max) {
+                return over;
+            }
+            int[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return prev[m];
+    }
+
+    /** Returns the distinct trigrams of <code>s</code> padded with start and end markers. */
+    private static int[] distinctGrams(String s) {
+        int[] symbols = new int[s.length() + 4];
+        symbols[0] = START;
+        symbols[1] = START;
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            symbols[i + 2] = c == ' ' ? SPACE : c - 'a';
+        }
+        symbols[s.length() + 2] = END;
+        symbols[s.length() + 3] = END;
+        int[] grams = new int[s.length() + 2];
+        for (int i = 0; i < grams.length; i += 1) {
+            grams[i] = (symbols[i] * ALPHABET + symbols[i + 1]) * ALPHABET + symbols[i + 2];
+        }
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i += 1) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[distinct] = grams[i];
+                distinct += 1;
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+}
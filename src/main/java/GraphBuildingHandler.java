@@ -2,7 +2,9 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -41,6 +43,11 @@ public class GraphBuildingHandler extends DefaultHandler {
     private final GraphDB g;
     private long currWayID;
     private long currNodeID;
+    /** Tags of the way being parsed, which may come in any order after its nodes. */
+    private String currWayHighway;
+    private String currWayName;
+    private String currWayOneway;
+    private String currWayMaxspeed;
 
 
     /**
@@ -89,54 +96,38 @@ public class GraphBuildingHandler extends DefaultHandler {
             activeState = "way";
             g.wayHashMap.put(Long.parseLong(attributes.getValue("id")), new LinkedList<>());
             currWayID = Long.parseLong(attributes.getValue("id"));
+            currWayHighway = null;
+            currWayName = null;
+            currWayOneway = null;
+            currWayMaxspeed = null;
         } else if (activeState.equals("way") && qName.equals("nd")) {
             g.wayHashMap.get(currWayID).add(g.makeVertex(Long.parseLong(attributes.getValue("ref")),
-                    null, g.vertexHashMap.get(Long.parseLong(attributes.getValue("ref"))).lon,
-                    g.vertexHashMap.get(Long.parseLong(attributes.getValue("ref"))).lat));
+                    null, g.vertexHashMap.get(Long.parseLong(attributes.getValue("ref"))).lon(),
+                    g.vertexHashMap.get(Long.parseLong(attributes.getValue("ref"))).lat()));
 
 
         } else if (activeState.equals("way") && qName.equals("tag")) {
             String k = attributes.getValue("k");
             String v = attributes.getValue("v");
             if (k.equals("maxspeed")) {
-                return;
+                currWayMaxspeed = v;
+            } else if (k.equals("oneway")) {
+                currWayOneway = v;
             } else if (k.equals("highway")) {
                 if (!ALLOWED_HIGHWAY_TYPES.contains(v)) {
                     g.wayHashMap.remove(currWayID);
                 } else {
-                    LinkedList<GraphDB.Vertex> wayList = g.wayHashMap.get(currWayID);
-                    Long currentNodeID = (long) 0;
-                    if (wayList == null) {
-                        return;
-                    }
-                    for (int i = 0; i < wayList.size(); i++) {
-                        currentNodeID = wayList.get(i).id;
-                        if (i == 0) {
-                            if (wayList.size() == 1) {
-                                return;
-                            }
-                            wayList.get(i).adjacents.add(wayList.get(i + 1).id);
-                            g.vertexHashMap.get(currentNodeID).adjacents.add(wayList.get(i + 1).id);
-                        } else if (i == wayList.size() - 1) {
-                            (wayList.get(i)).adjacents.add(wayList.get(i - 1).id);
-                            g.vertexHashMap.get(currentNodeID).adjacents.add(wayList.get(i - 1).id);
-                        } else {
-                            (wayList.get(i)).adjacents.add(wayList.get(i - 1).id);
-                            g.vertexHashMap.get(currentNodeID).adjacents.add(wayList.get(i - 1).id);
-                            (wayList.get(i)).adjacents.add(wayList.get(i + 1).id);
-                            g.vertexHashMap.get(currentNodeID).adjacents.add(wayList.get(i + 1).id);
-                        }
-                    }
+                    currWayHighway = v;
                 }
-
             } else if (k.equals("name")) {
-                return;
+                currWayName = v;
             }
         } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
                 .equals("name")) {
             if (g.vertexHashMap.containsKey(currNodeID)) {
-                g.vertexHashMap.get(currNodeID).name
-                        = attributes.getValue("v");
+                GraphDB.Vertex node = g.vertexHashMap.get(currNodeID);
+                node.name = attributes.getValue("v");
+                g.addLocation(currNodeID, node.lon(), node.lat(), node.name);
             }
         }
     }
@@ -159,7 +150,18 @@ public class GraphBuildingHandler extends DefaultHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
-            return;
+            /* Connect the way's nodes only now that all of its tags have been seen. */
+            /* The way's nodes are only needed until then. */
+            LinkedList<GraphDB.Vertex> wayList = g.wayHashMap.remove(currWayID);
+            if (wayList != null && currWayHighway != null) {
+                List<Long> nodes = new ArrayList<>(wayList.size());
+                for (GraphDB.Vertex v : wayList) {
+                    nodes.add(v.id);
+                }
+                g.addWay(new GraphDB.Way(currWayID, currWayName, currWayHighway,
+                        GraphDB.Way.parseOneway(currWayOneway, currWayHighway),
+                        GraphDB.Way.parseMaxspeed(currWayMaxspeed)), nodes);
+            }
         }
     }
 }
@@ -7,10 +7,18 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
@@ -26,6 +34,30 @@ public class GraphDB {
     HashMap<Long, Vertex> vertexHashMap = new HashMap<>();
     HashMap<Long, LinkedList<Vertex>> wayHashMap = new HashMap<>();
     KDTree kd;
+    /**
+     * Every named OSM node, including the ones <code>clean</code> removes from the graph, as
+     * collected while parsing. Packed into <code>locationIndex</code> once parsing is done.
+     */
+    ArrayList<LocationParams> locations = new ArrayList<>();
+    LocationIndex locationIndex;
+    /** Every way that contributed edges, indexed by the compact way ID stored on its edges. */
+    ArrayList<Way> ways = new ArrayList<>();
+    /**
+     * Array-backed copy of the cleaned graph, used by <code>Router</code>. Kept on the heap,
+     * off it or mapped from a file as <code>STORAGE</code> says.
+     */
+    DenseGraph dense;
+    /**
+     * Whether the vertices live only in <code>dense</code>, as when <code>GraphSnapshot</code>
+     * maps the graph from a file or <code>releaseHeapGraph</code> has dropped the heap copy:
+     * <code>vertexHashMap</code> and <code>ways</code> are then empty, <code>kd</code> is null,
+     * and vertices are looked up in <code>dense</code>.
+     */
+    boolean denseOnly;
+    /** R-tree over the road segments of <code>dense</code>, used by <code>snap</code>. */
+    EdgeIndex edgeIndex;
+    Autocomplete autocomplete;
+    FuzzyIndex fuzzyIndex;
 
     /**
      * This constructor creates and starts an XML parser, cleans the nodes, and prepares the
@@ -44,8 +76,69 @@ public class GraphDB {
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
+        locationIndex = new LocationIndex(locations);
+        locations.clear();
+        locations.trimToSize();
         clean();
-        kd = new KDTree(this);
+        buildIndexes();
+    }
+
+    /** Creates an empty graph for <code>GraphSnapshot</code> to fill in. */
+    GraphDB() {
+    }
+
+    /**
+     * Builds the search structures derived from the cleaned graph and the location index. A
+     * <code>dense</code> graph or <code>edgeIndex</code> already set, as by
+     * <code>GraphSnapshot</code> mapping them from files, is kept. Unless <code>STORAGE</code>
+     * is <code>heap</code>, both are kept off the heap; then, or if the graph is
+     * <code>COMPACT</code>, no <code>kd</code> is built, since <code>dense</code> answers
+     * <code>closest</code> itself. The indexes only read the graph
+     * and the location index, so the search indexes and KD-tree are built in the background
+     * while this thread builds the dense graph.
+     */
+    void buildIndexes() {
+        List<LocationParams> named = locationIndex.all();
+        CompletableFuture<?>[] builds = {
+            CompletableFuture.runAsync(() -> autocomplete = new Autocomplete(named)),
+            CompletableFuture.runAsync(() -> fuzzyIndex = new FuzzyIndex(named)),
+            CompletableFuture.runAsync(() -> kd = denseOnly || !STORAGE.equals("heap") || COMPACT
+                    ? null : new KDTree(this))
+        };
+        if (dense == null) {
+            dense = new DenseGraph(this, HILBERT_ORDER, COMPACT);
+            if (!STORAGE.equals("heap")) {
+                dense = dense.copyOffHeap();
+            }
+        }
+        if (edgeIndex == null) {
+            edgeIndex = new EdgeIndex(dense);
+            if (!STORAGE.equals("heap")) {
+                edgeIndex = edgeIndex.copyOffHeap();
+            }
+        }
+        try {
+            CompletableFuture.allOf(builds).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the vertices, ways and KD-tree kept on the heap, leaving the graph
+     * <code>denseOnly</code>, so that with <code>offheap</code> or <code>mapped</code> storage
+     * the heap no longer grows with the graph. The graph can no longer be written to a
+     * snapshot afterwards.
+     */
+    void releaseHeapGraph() {
+        denseOnly = true;
+        vertexHashMap = new HashMap<>();
+        wayHashMap = new HashMap<>();
+        ways = new ArrayList<>();
+        kd = null;
     }
 
     /**
@@ -54,7 +147,7 @@ public class GraphDB {
      * @param s Input string.
      * @return Cleaned string.
      */
-    private static String cleanString(String s) {
+    static String cleanString(String s) {
         return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
     }
 
@@ -66,9 +159,11 @@ public class GraphDB {
     private void clean() {
         ArrayList<Long> toRemove = new ArrayList<>();
         for (Long iD : vertexHashMap.keySet()) {
-            if (vertexHashMap.get(iD).adjacents.isEmpty()) {
+            Vertex v = vertexHashMap.get(iD);
+            if (v.degree == 0) {
                 toRemove.add(iD);
             }
+            v.trim();
         }
         vertexHashMap.keySet().removeAll(toRemove);
     }
@@ -80,7 +175,10 @@ public class GraphDB {
      * @return The longitude of that vertex, or 0.0 if the vertex is not in the graph.
      */
     double lon(long v) {
-        return vertexHashMap.get(v).lon;
+        if (denseOnly) {
+            return dense.lon(dense.index(v));
+        }
+        return vertexHashMap.get(v).lon();
 
     }
 
@@ -91,7 +189,10 @@ public class GraphDB {
      * @return The latitude of that vertex, or 0.0 if the vertex is not in the graph.
      */
     double lat(long v) {
-        return vertexHashMap.get(v).lat;
+        if (denseOnly) {
+            return dense.lat(dense.index(v));
+        }
+        return vertexHashMap.get(v).lat();
     }
 
     double x(long v) {
@@ -108,6 +209,19 @@ public class GraphDB {
      * @return An iterable of all vertex IDs in the graph.
      */
     Iterable<Long> vertices() {
+        if (denseOnly) {
+            return new AbstractList<Long>() {
+                @Override
+                public Long get(int i) {
+                    return dense.id(Objects.checkIndex(i, dense.size()));
+                }
+
+                @Override
+                public int size() {
+                    return dense.size();
+                }
+            };
+        }
         return vertexHashMap.keySet();
     }
 
@@ -119,7 +233,23 @@ public class GraphDB {
      * iterable if the vertex is not in the graph.
      */
     Iterable<Long> adjacent(long v) {
-        return vertexHashMap.get(v).adjacents;
+        if (denseOnly) {
+            int u = dense.index(v);
+            int start = dense.edgeStart(u);
+            int degree = dense.edgeEnd(u) - start;
+            return new AbstractList<Long>() {
+                @Override
+                public Long get(int i) {
+                    return dense.id(dense.edgeTo(start + Objects.checkIndex(i, degree)));
+                }
+
+                @Override
+                public int size() {
+                    return degree;
+                }
+            };
+        }
+        return vertexHashMap.get(v).adjacentIds();
     }
 
     /**
@@ -132,10 +262,24 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     public double distance(long v, long w) {
-        double phi1 = Math.toRadians(lat(v));
-        double phi2 = Math.toRadians(lat(w));
-        double dphi = Math.toRadians(lat(w) - lat(v));
-        double dlambda = Math.toRadians(lon(w) - lon(v));
+        return distance(lon(v), lat(v), lon(w), lat(w));
+    }
+
+    /**
+     * Returns the great-circle distance between two points in miles, as in
+     * <code>distance(long, long)</code>.
+     *
+     * @param lonV The longitude of the first point.
+     * @param latV The latitude of the first point.
+     * @param lonW The longitude of the second point.
+     * @param latW The latitude of the second point.
+     * @return The great-circle distance between the points.
+     */
+    static double distance(double lonV, double latV, double lonW, double latW) {
+        double phi1 = Math.toRadians(latV);
+        double phi2 = Math.toRadians(latW);
+        double dphi = Math.toRadians(latW - latV);
+        double dlambda = Math.toRadians(lonW - lonV);
 
         double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
         a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
@@ -155,10 +299,25 @@ public class GraphDB {
      * @return The ID for the vertex closest to the <code>lon</code> and <code>lat</code>.
      */
     public long closest(double lon, double lat) {
+        if (kd == null) {
+            return dense.id(dense.closest(projectToX(lon, lat), projectToY(lon, lat)));
+        }
         return kd.nearestNeighborSearch(kd.root, projectToX(lon, lat),
                 projectToY(lon, lat));
     }
 
+    /**
+     * Returns the nearest point on any road to the given longitude and latitude, which may lie
+     * partway along an edge rather than at a vertex as <code>closest</code> does.
+     *
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @return The snapped point, or null if the graph has no roads.
+     */
+    EdgeIndex.Snap snap(double lon, double lat) {
+        return edgeIndex.nearest(lon, lat);
+    }
+
     /**
      * Return the Euclidean x-value for some point, p, in Berkeley. Found by computing the
      * Transverse Mercator projection centered at Berkeley.
@@ -192,7 +351,47 @@ public class GraphDB {
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Returns the miles on the ground that one unit of projected distance spans at a point,
+     * the Earth's radius over the projection's point scale factor there. The scale factor is
+     * <code>K0</code> on the central meridian and grows away from it, so the smallest value over
+     * a region bounds every great-circle distance in it from below by the Euclidean distance
+     * between the projected points.
+     *
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return Miles per unit of projected distance at the point.
+     */
+    static double milesPerProjectedUnit(double lon, double lat) {
+        double b = Math.sin(Math.toRadians(lon - ROOT_LON)) * Math.cos(Math.toRadians(lat));
+        return R * Math.sqrt(1 - b * b) / K0;
+    }
+
+    /**
+     * Returns a longitude in fixed point: whole <code>1e-7</code> degrees, the precision OSM
+     * stores coordinates to, east of the map's west edge <code>MapServer.ROOT_ULLON</code>.
+     * <code>fromFixedLon</code> gives back exactly the longitude parsed from any OSM coordinate.
+     */
+    static int toFixedLon(double lon) {
+        return (int) (Math.round(lon * FIXED_POINT) - FIXED_LON_ORIGIN);
+    }
+
+    static double fromFixedLon(int lon) {
+        /* Dividing rounds once, to the double nearest the decimal OSM wrote. */
+        return (FIXED_LON_ORIGIN + lon) / FIXED_POINT;
+    }
+
+    /** Returns a latitude in fixed point, north of <code>MapServer.ROOT_LRLAT</code>. */
+    static int toFixedLat(double lat) {
+        return (int) (Math.round(lat * FIXED_POINT) - FIXED_LAT_ORIGIN);
+    }
+
+    static double fromFixedLat(int lat) {
+        return (FIXED_LAT_ORIGIN + lat) / FIXED_POINT;
+    }
+
+    /**
+     * Collect all the names of OSM locations that prefix-match the query string, most popular
+     * first.
      *
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
@@ -200,7 +399,132 @@ public class GraphDB {
      * cleaned <code>prefix</code>.
      */
     public List<String> getLocationsByPrefix(String prefix) {
-        return Collections.emptyList();
+        return getLocationsByPrefix(prefix, autocomplete.size());
+    }
+
+    /**
+     * Collect the <code>k</code> most popular names of OSM locations that prefix-match the query
+     * string, in time proportional to the prefix length and <code>k</code> (up to logarithmic
+     * factors) rather than to the number of locations.
+     *
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param k      The maximum number of names to return.
+     * @return A <code>List</code> of up to <code>k</code> full names of locations whose cleaned
+     * name matches the cleaned <code>prefix</code>, most popular first.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int k) {
+        return autocomplete.topK(prefix, k);
+    }
+
+    /**
+     * Collect the names of the <code>k</code> OSM locations nearest to a point that prefix-match
+     * the query string. Only the matches are measured, and the nearest <code>k</code> names are
+     * kept in a heap of that size rather than sorting them all, in time proportional to the
+     * number of matches <code>m</code> times <code>log k</code>, however far away they lie.
+     *
+     * @param prefix Prefix string to be searched for. Could be any case, with our without
+     *               punctuation.
+     * @param k      The maximum number of names to return.
+     * @param lon    The longitude to rank matches around.
+     * @param lat    The latitude to rank matches around.
+     * @return A <code>List</code> of up to <code>k</code> distinct full names of locations whose
+     * cleaned name matches the cleaned <code>prefix</code>, nearest first.
+     */
+    public List<String> getLocationsByPrefix(String prefix, int k, double lon, double lat) {
+        int[] range = locationIndex.prefixRange(prefix);
+        int from = range[0];
+        int to = range[1];
+        List<String> result = new ArrayList<>();
+        if (k <= 0 || from >= to) {
+            return result;
+        }
+        double x = projectToX(lon, lat);
+        double y = projectToY(lon, lat);
+        String[] names = locationIndex.names();
+        /* A name is as near as the nearest location bearing it. */
+        HashMap<String, Double> nearest = new HashMap<>();
+        for (int slot = from; slot < to; slot += 1) {
+            nearest.merge(names[slot], locationDistance(slot, x, y), Math::min);
+        }
+        /* The nearest names so far, the farthest of them on top to be displaced first. */
+        Comparator<Map.Entry<String, Double>> byDistance = Map.Entry.comparingByValue();
+        PriorityQueue<Map.Entry<String, Double>> kept =
+                new PriorityQueue<>(byDistance.reversed());
+        for (Map.Entry<String, Double> name : nearest.entrySet()) {
+            if (kept.size() < k) {
+                kept.add(name);
+            } else if (name.getValue() < kept.peek().getValue()) {
+                kept.poll();
+                kept.add(name);
+            }
+        }
+        List<Map.Entry<String, Double>> ranked = new ArrayList<>(kept);
+        ranked.sort(byDistance);
+        for (Map.Entry<String, Double> name : ranked) {
+            result.add(name.getKey());
+        }
+        return result;
+    }
+
+    /** Returns the projected distance from (x, y) to the location in the given slot. */
+    private double locationDistance(int slot, double x, double y) {
+        double lon = locationIndex.lons()[slot];
+        double lat = locationIndex.lats()[slot];
+        return euclidean(x, projectToX(lon, lat), y, projectToY(lon, lat));
+    }
+
+    /**
+     * Collect the <code>k</code> names of OSM locations closest to the query string, tolerating
+     * typos: a name matches if its cleaned form is within a few insertions, deletions or
+     * substitutions of the cleaned query, the number depending on the query's length.
+     *
+     * @param query Name string to be searched for, possibly misspelled. Could be any case, with
+     *              or without punctuation.
+     * @param k     The maximum number of names to return.
+     * @return A <code>List</code> of up to <code>k</code> full names of locations, fewest edits
+     * first and then most popular first.
+     */
+    public List<String> getLocationsFuzzy(String query, int k) {
+        return fuzzyIndex.search(query, k);
+    }
+
+    /**
+     * Records a named OSM node for location search. Called while parsing, before
+     * <code>clean</code> drops nodes that are not on any road.
+     *
+     * @param id   The ID of the node.
+     * @param lon  The longitude of the node.
+     * @param lat  The latitude of the node.
+     * @param name The value of the node's name tag.
+     */
+    void addLocation(long id, double lon, double lat, String name) {
+        locations.add(new LocationParams(lat, lon, name, id));
+    }
+
+    /**
+     * Connects consecutive nodes of a way in both directions, tagging every edge with the way's
+     * compact ID; edges running against the order of the way's nodes are tagged with its
+     * complement. Called while parsing, once all of the way's tags have been seen.
+     *
+     * @param w     The way.
+     * @param nodes The IDs of the way's nodes, in order.
+     */
+    void addWay(Way w, List<Long> nodes) {
+        if (nodes.size() < 2) {
+            return;
+        }
+        int way = ways.size();
+        ways.add(w);
+        for (int i = 0; i < nodes.size(); i++) {
+            Vertex v = vertexHashMap.get(nodes.get(i));
+            if (i > 0) {
+                v.addAdjacent(nodes.get(i - 1), ~way);
+            }
+            if (i < nodes.size() - 1) {
+                v.addAdjacent(nodes.get(i + 1), way);
+            }
+        }
     }
 
     /**
@@ -212,7 +536,26 @@ public class GraphDB {
      * cleaned <code>locationName</code>
      */
     public List<LocationParams> getLocations(String locationName) {
-        return Collections.emptyList();
+        return locationIndex.get(locationName);
+    }
+
+    /**
+     * Collect all locations that match a cleaned <code>locationName</code>, nearest to the given
+     * point first.
+     *
+     * @param locationName A full name of a location searched for.
+     * @param lon          The longitude to rank matches around.
+     * @param lat          The latitude to rank matches around.
+     * @return A <code>List</code> of <code>LocationParams</code> whose cleaned name matches the
+     * cleaned <code>locationName</code>, nearest first.
+     */
+    public List<LocationParams> getLocations(String locationName, double lon, double lat) {
+        double x = projectToX(lon, lat);
+        double y = projectToY(lon, lat);
+        List<LocationParams> result = locationIndex.get(locationName);
+        result.sort(Comparator.comparingDouble(l -> euclidean(x, projectToX(l.lon, l.lat),
+                y, projectToY(l.lon, l.lat))));
+        return result;
     }
 
     /**
@@ -227,10 +570,24 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     double bearing(long v, long w) {
-        double phi1 = Math.toRadians(lat(v));
-        double phi2 = Math.toRadians(lat(w));
-        double lambda1 = Math.toRadians(lon(v));
-        double lambda2 = Math.toRadians(lon(w));
+        return bearing(lon(v), lat(v), lon(w), lat(w));
+    }
+
+    /**
+     * Returns the initial bearing in degrees from one point to another, as in
+     * <code>bearing(long, long)</code>.
+     *
+     * @param lonV The longitude of the first point.
+     * @param latV The latitude of the first point.
+     * @param lonW The longitude of the second point.
+     * @param latW The latitude of the second point.
+     * @return The bearing between the points in degrees.
+     */
+    static double bearing(double lonV, double latV, double lonW, double latW) {
+        double phi1 = Math.toRadians(latV);
+        double phi2 = Math.toRadians(latW);
+        double lambda1 = Math.toRadians(lonV);
+        double lambda2 = Math.toRadians(lonW);
 
         double y = Math.sin(lambda2 - lambda1) * Math.cos(phi2);
         double x = Math.cos(phi1) * Math.sin(phi2);
@@ -238,11 +595,43 @@ public class GraphDB {
         return Math.toDegrees(Math.atan2(y, x));
     }
 
+    /**
+     * Creates a vertex. Under <code>COMPACT</code>, coordinates that fixed point holds exactly,
+     * as it does every coordinate OSM writes, are stored in it and projected on demand.
+     */
     public Vertex makeVertex(long id, String name, double lon, double lat) {
-        return new Vertex(id, name, lon, lat);
+        if (COMPACT) {
+            int fixedLon = toFixedLon(lon);
+            int fixedLat = toFixedLat(lat);
+            if (fromFixedLon(fixedLon) == lon && fromFixedLat(fixedLat) == lat) {
+                return new CompactVertex(id, name, fixedLon, fixedLat);
+            }
+        }
+        return new FullVertex(id, name, lon, lat);
     }
 
 
+    /**
+     * Whether <code>dense</code> numbers vertices along a Hilbert curve for locality of memory
+     * access during searches. Set with <code>-Dbearmaps.graph.order=hilbert</code>.
+     */
+    static final boolean HILBERT_ORDER =
+            "hilbert".equals(System.getProperty("bearmaps.graph.order"));
+    /**
+     * Where <code>dense</code> keeps its arrays, set with <code>-Dbearmaps.graph.storage</code>:
+     * <code>heap</code>, the default; <code>offheap</code>, in direct buffers; or
+     * <code>mapped</code>, in direct buffers the first time and mapped from a file written next
+     * to the graph snapshot on every start after that. Off the heap, the server releases the
+     * heap copy of the graph once it is loaded.
+     */
+    static final String STORAGE = System.getProperty("bearmaps.graph.storage", "heap");
+    /**
+     * Whether <code>dense</code> stores coordinates, bearings and edge lengths in fewer bytes,
+     * and vertices their coordinates in fixed point without projections, leaving
+     * <code>closest</code> to <code>dense</code> rather than a KD-tree of its own. Set with
+     * <code>-Dbearmaps.graph.encoding=compact</code>.
+     */
+    static final boolean COMPACT = "compact".equals(System.getProperty("bearmaps.graph.encoding"));
     /**
      * Radius of the Earth in miles.
      */
@@ -261,38 +650,232 @@ public class GraphDB {
      * @source https://gis.stackexchange.com/a/7298
      */
     private static final double K0 = 1.0;
-
-    public class Vertex {
+    /** Fixed-point units per degree. */
+    private static final double FIXED_POINT = 1e7;
+    private static final long FIXED_LON_ORIGIN = Math.round(MapServer.ROOT_ULLON * FIXED_POINT);
+    private static final long FIXED_LAT_ORIGIN = Math.round(MapServer.ROOT_LRLAT * FIXED_POINT);
+    private static final long[] NO_ADJACENTS = {};
+    private static final int[] NO_WAYS = {};
+
+    /** A vertex, whose coordinates each subclass stores in its own way. */
+    public abstract class Vertex {
         long id;
-        double lon;
-        double lat;
-        double x;
-        double y;
         String name;
-        List<Long> adjacents = new ArrayList<>();
-
-        public Vertex(long id, String name, double lon, double lat) {
+        /** The IDs of the adjacent vertices; only the first <code>degree</code> are used. */
+        long[] adjacents = NO_ADJACENTS;
+        /**
+         * The compact ID of the way each edge in <code>adjacents</code> belongs to, or its
+         * complement if the edge runs against the way's node order.
+         */
+        int[] adjacentWays = NO_WAYS;
+        int degree;
+
+        Vertex(long id, String name) {
             this.id = id;
+            this.name = name;
+        }
+
+        abstract double lon();
+
+        abstract double lat();
+
+        /** Returns the projected x, as <code>projectToX</code>. */
+        abstract double x();
+
+        /** Returns the projected y, as <code>projectToY</code>. */
+        abstract double y();
+
+        void addAdjacent(long w, int way) {
+            if (degree == adjacents.length) {
+                adjacents = Arrays.copyOf(adjacents, Math.max(2, 2 * degree));
+                adjacentWays = Arrays.copyOf(adjacentWays, adjacents.length);
+            }
+            adjacents[degree] = w;
+            adjacentWays[degree] = way;
+            degree += 1;
+        }
+
+        /** Releases the room <code>addAdjacent</code> left for more edges. */
+        void trim() {
+            if (degree < adjacents.length) {
+                adjacents = Arrays.copyOf(adjacents, degree);
+                adjacentWays = Arrays.copyOf(adjacentWays, degree);
+            }
+        }
+
+        /** Returns the IDs of the adjacent vertices, as a view of <code>adjacents</code>. */
+        List<Long> adjacentIds() {
+            return new AbstractList<Long>() {
+                @Override
+                public Long get(int i) {
+                    return adjacents[Objects.checkIndex(i, degree)];
+                }
+
+                @Override
+                public int size() {
+                    return degree;
+                }
+            };
+        }
+    }
+
+    /** A vertex holding its coordinates and their projections in full. */
+    class FullVertex extends Vertex {
+        private final double lon;
+        private final double lat;
+        private final double x;
+        private final double y;
+
+        FullVertex(long id, String name, double lon, double lat) {
+            super(id, name);
             this.lon = lon;
             this.lat = lat;
-            this.x = projectToX(this.lon, this.lat);
-            this.y = projectToY(this.lon, this.lat);
-            this.name = name;
+            this.x = projectToX(lon, lat);
+            this.y = projectToY(lon, lat);
+        }
 
+        @Override
+        double lon() {
+            return lon;
+        }
+
+        @Override
+        double lat() {
+            return lat;
+        }
+
+        @Override
+        double x() {
+            return x;
+        }
+
+        @Override
+        double y() {
+            return y;
+        }
+    }
+
+    /**
+     * A vertex holding its coordinates in fixed point, a quarter of the room of
+     * <code>FullVertex</code>'s, and projecting them whenever asked.
+     */
+    class CompactVertex extends Vertex {
+        private final int fixedLon;
+        private final int fixedLat;
+
+        CompactVertex(long id, String name, int fixedLon, int fixedLat) {
+            super(id, name);
+            this.fixedLon = fixedLon;
+            this.fixedLat = fixedLat;
+        }
+
+        @Override
+        double lon() {
+            return fromFixedLon(fixedLon);
+        }
+
+        @Override
+        double lat() {
+            return fromFixedLat(fixedLat);
+        }
+
+        @Override
+        double x() {
+            return projectToX(lon(), lat());
+        }
+
+        @Override
+        double y() {
+            return projectToY(lon(), lat());
+        }
+    }
+
+    /** A way that contributed edges to the graph. */
+    static class Way {
+        /** Kilometres per hour in miles per hour. */
+        private static final double MPH_PER_KMH = 0.621371;
+
+        final long id;
+        /** The way's name, or the empty string if it has none. */
+        final String name;
+        /** The value of the way's highway tag. */
+        final String highway;
+        /** 1 if only travel in node order is allowed, -1 if only against it, 0 if both. */
+        final int oneway;
+        /** The way's speed limit in miles per hour, or NaN if it is not tagged. */
+        final double maxspeed;
+
+        Way(long id, String name, String highway, int oneway, double maxspeed) {
+            this.id = id;
+            this.name = name == null ? "" : name;
+            this.highway = highway;
+            this.oneway = oneway;
+            this.maxspeed = maxspeed;
+        }
+
+        /**
+         * Parses a oneway tag; motorways are one-way unless tagged otherwise.
+         * @param oneway The value of the oneway tag, or null if there is none.
+         * @param highway The value of the highway tag.
+         * @return 1, -1 or 0, as stored in <code>oneway</code>.
+         */
+        static int parseOneway(String oneway, String highway) {
+            if (oneway == null) {
+                return "motorway".equals(highway) ? 1 : 0;
+            }
+            switch (oneway) {
+                case "yes":
+                case "true":
+                case "1":
+                    return 1;
+                case "-1":
+                case "reverse":
+                    return -1;
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Parses a maxspeed tag such as "25 mph" or "40", which OSM reads as kilometres per hour.
+         * @param maxspeed The value of the maxspeed tag, or null if there is none.
+         * @return The speed limit in miles per hour, or NaN if it is missing or not a number.
+         */
+        static double parseMaxspeed(String maxspeed) {
+            if (maxspeed == null) {
+                return Double.NaN;
+            }
+            String value = maxspeed.trim();
+            boolean mph = value.endsWith("mph");
+            if (mph) {
+                value = value.substring(0, value.length() - 3).trim();
+            }
+            try {
+                double speed = Double.parseDouble(value);
+                return mph ? speed : speed * MPH_PER_KMH;
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
         }
     }
 
     public class KDTree {
         Node root;
-        Long currentBest;
-        Double currentBestDistance;
         ArrayList<Vertex> allX;
         //HashSet<Long> pruned = new HashSet<>();
 
         KDTree(GraphDB g) {
+            this(new ArrayList<>(vertexHashMap.values()));
+        }
+
+        /**
+         * Builds a tree over arbitrary points; each node reports its point's <code>id</code>.
+         * @param points The points to index.
+         */
+        KDTree(ArrayList<Vertex> points) {
             allX = new ArrayList<>();
-            allX.addAll(vertexHashMap.values());
-            Collections.sort(allX, (v1, v2) -> Double.compare(v1.x, v2.x));
+            allX.addAll(points);
+            Collections.sort(allX, (v1, v2) -> Double.compare(v1.x(), v2.x()));
 
             root = buildTree(allX, true);
         }
@@ -306,24 +889,24 @@ public class GraphDB {
                 return null;
             }
             if (xBool) {
-                Collections.sort(lst, (v1, v2) -> Double.compare(v1.x, v2.x));
+                Collections.sort(lst, (v1, v2) -> Double.compare(v1.x(), v2.x()));
                 Vertex xMidVert = lst.get(size / 2);
                 Integer xMidIdx = lst.indexOf(xMidVert);
                 if (xMidIdx >= size) {
-                    return new Node(xMidVert.id, null, null);
+                    return new Node(xMidVert, null, null);
                 } else {
-                    return new Node(xMidVert.id,
+                    return new Node(xMidVert,
                             buildTree(new ArrayList<>(lst.subList(0, xMidIdx)), !xBool),
                             buildTree(new ArrayList<>(lst.subList(xMidIdx + 1, size)), !xBool));
                 }
             } else {
-                Collections.sort(lst, (v1, v2) -> Double.compare(v1.y, v2.y));
+                Collections.sort(lst, (v1, v2) -> Double.compare(v1.y(), v2.y()));
                 Vertex yMidVert = lst.get(size / 2);
                 Integer yMidIdx = lst.indexOf(yMidVert);
                 if (yMidIdx >= size) {
-                    return new Node(yMidVert.id, null, null);
+                    return new Node(yMidVert, null, null);
                 } else {
-                    return new Node(yMidVert.id,
+                    return new Node(yMidVert,
                             buildTree(new ArrayList<>(lst.subList(0, yMidIdx)), !xBool),
                             buildTree(new ArrayList<>(lst.subList(yMidIdx + 1, size)), !xBool));
                 }
@@ -334,28 +917,32 @@ public class GraphDB {
 
             Node left;
             Node right;
-            Long iD;
+            long iD;
             double x;
             double y;
 
 
-            Node(Long iD, Node left, Node right) {
+            Node(Vertex v, Node left, Node right) {
                 this.left = left;
                 this.right = right;
-                this.iD = iD;
-                this.x = x(iD);
-                this.y = y(iD);
+                this.iD = v.id;
+                this.x = v.x();
+                this.y = v.y();
             }
         }
 
+        /**
+         * Returns the ID of the point nearest (x, y), or null if the tree is empty. The best
+         * point so far is kept per call, so concurrent searches do not see each other's.
+         */
         Long nearestNeighborSearch(Node root2, double x, double y) {
-            currentBest = null;
-            currentBestDistance = Double.POSITIVE_INFINITY;
-            nearestNeighborSearchHelper(root2, x, y, true);
-            return currentBest;
+            Best best = new Best();
+            nearestNeighborSearchHelper(root2, x, y, true, best);
+            return best.node == null ? null : best.node.iD;
         }
 
-        void nearestNeighborSearchHelper(Node root3, double x, double y, boolean lonBoolean) {
+        void nearestNeighborSearchHelper(Node root3, double x, double y, boolean lonBoolean,
+                                         Best best) {
             if (root3 != null) {
 
                 double currentX = root3.x;
@@ -363,48 +950,54 @@ public class GraphDB {
                 double euclid = euclidean(x, currentX, y, currentY);
 
                 if (euclid == 0) {
-                    currentBestDistance = 0.0;
-                    currentBest = root3.iD;
+                    best.distance = 0.0;
+                    best.node = root3;
                     return;
                 }
 
-                if (euclid < currentBestDistance) {
-                    currentBest = root3.iD;
-                    currentBestDistance = euclid;
+                if (euclid < best.distance) {
+                    best.node = root3;
+                    best.distance = euclid;
                 }
 
                 if (lonBoolean) {
                     double deltaX = Math.abs(currentX - x);
                     if (x < currentX) {
-                        nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean);
+                        nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean, best);
 
-                        if (deltaX < currentBestDistance) {
-                            nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean);
+                        if (deltaX < best.distance) {
+                            nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean, best);
                         }
                     } else {
-                        nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean);
+                        nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean, best);
 
-                        if (deltaX < currentBestDistance) {
-                            nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean);
+                        if (deltaX < best.distance) {
+                            nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean, best);
                         }
                     }
                 } else {
                     double deltaY = Math.abs(currentY - y);
                     if (y < currentY) {
-                        nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean);
+                        nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean, best);
 
-                        if (deltaY < currentBestDistance) {
-                            nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean);
+                        if (deltaY < best.distance) {
+                            nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean, best);
                         }
                     } else {
-                        nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean);
+                        nearestNeighborSearchHelper(root3.right, x, y, !lonBoolean, best);
 
-                        if (deltaY < currentBestDistance) {
-                            nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean);
+                        if (deltaY < best.distance) {
+                            nearestNeighborSearchHelper(root3.left, x, y, !lonBoolean, best);
                         }
                     }
                 }
             }
         }
+
+        /** The nearest point a search has found so far. */
+        private class Best {
+            private Node node;
+            private double distance = Double.POSITIVE_INFINITY;
+        }
     }
 }
@@ -0,0 +1,325 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads and writes a binary snapshot of a cleaned <code>GraphDB</code>, so a restarted server
+ * can skip parsing the OSM XML. The snapshot holds the packed location index, the ways and the
+ * vertices and their adjacency; the KD-tree, dense graph and search indexes are rebuilt from
+ * those on load. Vertices are written in order of ID, each ID as its difference from the one
+ * before, with coordinates in <code>GraphDB</code>'s fixed point and each neighbour as the
+ * difference of its ID from the vertex's, all as variable-length numbers, since small ones
+ * dominate; the few coordinates fixed point cannot hold exactly are written in full.
+ *
+ * With <code>-Dbearmaps.graph.storage=mapped</code>, the dense graph, with the KD-tree it
+ * keeps its vertices in, and the edge index are also written to files of their own. Loading
+ * then maps those and reads only the location index from the snapshot: the ways and vertices
+ * are never decoded onto the heap, and only the indexes over named locations are rebuilt, so
+ * startup time and heap no longer grow with the size of the road network.
+ */
+class GraphSnapshot {
+    /** Marks a file as a graph snapshot. */
+    private static final int MAGIC = 0x424d4150;
+    /** Bumped whenever the layout changes; snapshots of other versions are rebuilt. */
+    private static final int VERSION = 6;
+    /**
+     * Suffix of the file that, with <code>mapped</code> storage, holds the dense graph next to
+     * the snapshot, in the layout <code>DenseGraph.map</code> reads.
+     */
+    private static final String DENSE_SUFFIX = ".dense";
+    /**
+     * Suffix of the file that, with <code>mapped</code> storage, holds the edge index next to
+     * the snapshot, in the layout <code>EdgeIndex.map</code> reads.
+     */
+    private static final String EDGES_SUFFIX = ".edges";
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * Loads the graph from the snapshot if it is newer than the OSM XML file, and otherwise
+     * parses the XML file and writes a fresh snapshot for the next start. Unless
+     * <code>STORAGE</code> is <code>heap</code>, the heap copy of the graph is then released.
+     * @param dbPath Path to the OSM XML file.
+     * @param snapshotPath Path to the snapshot file.
+     * @return The loaded graph.
+     */
+    static GraphDB loadOrBuild(String dbPath, String snapshotPath) {
+        GraphDB g = null;
+        File snapshot = new File(snapshotPath);
+        if (snapshot.isFile() && snapshot.lastModified() >= new File(dbPath).lastModified()) {
+            try {
+                g = read(snapshotPath);
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable graph snapshot: " + e.getMessage());
+            }
+        }
+        if (g == null) {
+            g = new GraphDB(dbPath);
+            try {
+                write(g, snapshotPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (GraphDB.STORAGE.equals("mapped")) {
+                writeDense(g, snapshotPath);
+            }
+        }
+        if (!GraphDB.STORAGE.equals("heap")) {
+            g.releaseHeapGraph();
+        }
+        return g;
+    }
+
+    /**
+     * Maps the dense graph and edge index written next to a snapshot into a graph, if both are
+     * at least as new as the snapshot and the dense graph numbers and encodes its vertices the
+     * way this server does.
+     * @param g The graph to set them in.
+     * @param snapshotPath Path to the snapshot file.
+     * @return Whether both were mapped; if not, neither is set.
+     */
+    private static boolean mapDense(GraphDB g, String snapshotPath) {
+        File dense = new File(snapshotPath + DENSE_SUFFIX);
+        File edges = new File(snapshotPath + EDGES_SUFFIX);
+        long written = new File(snapshotPath).lastModified();
+        if (dense.isFile() && dense.lastModified() >= written && edges.isFile()
+                && edges.lastModified() >= written) {
+            try {
+                DenseGraph d = DenseGraph.map(dense.getPath(), GraphDB.HILBERT_ORDER,
+                        GraphDB.COMPACT);
+                g.edgeIndex = EdgeIndex.map(edges.getPath(), d);
+                g.dense = d;
+                return true;
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable dense graph: " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /** Writes a graph's dense arrays and edge index next to its snapshot. */
+    private static void writeDense(GraphDB g, String snapshotPath) {
+        try {
+            g.dense.write(snapshotPath + DENSE_SUFFIX);
+            g.edgeIndex.write(snapshotPath + EDGES_SUFFIX, g.dense);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the graph.
+     * @param g The graph to write.
+     * @param snapshotPath Path to the snapshot file.
+     * @throws IOException If the snapshot cannot be written.
+     * @throws IllegalArgumentException If the graph is <code>denseOnly</code>, so its vertices
+     *                                  are not at hand.
+     */
+    static void write(GraphDB g, String snapshotPath) throws IOException {
+        if (g.denseOnly) {
+            throw new IllegalArgumentException(
+                    "A graph served off the heap cannot be written to a snapshot.");
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(snapshotPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            LocationIndex locations = g.locationIndex;
+            String[] cleanedNames = locations.cleanedNames();
+            int[] start = locations.groupStarts();
+            out.writeInt(cleanedNames.length);
+            for (int group = 0; group < cleanedNames.length; group += 1) {
+                out.writeUTF(cleanedNames[group]);
+                out.writeInt(start[group]);
+            }
+            out.writeInt(locations.size());
+            for (int i = 0; i < locations.size(); i += 1) {
+                out.writeLong(locations.ids()[i]);
+                out.writeDouble(locations.lats()[i]);
+                out.writeDouble(locations.lons()[i]);
+                out.writeUTF(locations.names()[i]);
+            }
+
+            out.writeInt(g.ways.size());
+            for (GraphDB.Way way : g.ways) {
+                out.writeLong(way.id);
+                out.writeUTF(way.name);
+                out.writeUTF(way.highway);
+                out.writeByte(way.oneway);
+                out.writeDouble(way.maxspeed);
+            }
+
+            long[] vertexIds = new long[g.vertexHashMap.size()];
+            int count = 0;
+            for (long id : g.vertexHashMap.keySet()) {
+                vertexIds[count] = id;
+                count += 1;
+            }
+            Arrays.sort(vertexIds);
+            out.writeInt(vertexIds.length);
+            long previous = 0;
+            for (long id : vertexIds) {
+                GraphDB.Vertex v = g.vertexHashMap.get(id);
+                writeVarLong(out, id - previous);
+                previous = id;
+                int lon = GraphDB.toFixedLon(v.lon());
+                int lat = GraphDB.toFixedLat(v.lat());
+                boolean fixed = GraphDB.fromFixedLon(lon) == v.lon()
+                        && GraphDB.fromFixedLat(lat) == v.lat();
+                /* The degree, whether the vertex is named and whether it is in fixed point. */
+                writeVarLong(out, (long) v.degree << 2 | (v.name != null ? 2 : 0)
+                        | (fixed ? 1 : 0));
+                if (fixed) {
+                    writeVarLong(out, zigzag(lon));
+                    writeVarLong(out, zigzag(lat));
+                } else {
+                    out.writeDouble(v.lon());
+                    out.writeDouble(v.lat());
+                }
+                if (v.name != null) {
+                    out.writeUTF(v.name);
+                }
+                for (int j = 0; j < v.degree; j += 1) {
+                    writeVarLong(out, zigzag(v.adjacents[j] - id));
+                    writeVarLong(out, zigzag(v.adjacentWays[j]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a graph from a snapshot, mapping its dense graph with <code>mapped</code> storage.
+     * @param snapshotPath Path to the snapshot file.
+     * @return The graph, with its search indexes rebuilt.
+     * @throws IOException If the snapshot cannot be read or was written by another version.
+     */
+    static GraphDB read(String snapshotPath) throws IOException {
+        return read(snapshotPath, GraphDB.STORAGE.equals("mapped"));
+    }
+
+    /**
+     * Reads a graph from a snapshot.
+     * @param snapshotPath Path to the snapshot file.
+     * @param mapped Whether to map the dense graph and edge index written next to the snapshot,
+     *               leaving the graph <code>denseOnly</code>, and to write them there if they
+     *               are missing or stale.
+     * @return The graph, with its search indexes rebuilt.
+     * @throws IOException If the snapshot cannot be read or was written by another version.
+     */
+    static GraphDB read(String snapshotPath, boolean mapped) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotPath)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(snapshotPath + " is not a graph snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("snapshot version %d, expected %d",
+                        version, VERSION));
+            }
+
+            GraphDB g = new GraphDB();
+            int numGroups = in.readInt();
+            String[] cleanedNames = new String[numGroups];
+            int[] start = new int[numGroups + 1];
+            for (int group = 0; group < numGroups; group += 1) {
+                cleanedNames[group] = in.readUTF();
+                start[group] = in.readInt();
+            }
+            int numLocations = in.readInt();
+            start[numGroups] = numLocations;
+            long[] ids = new long[numLocations];
+            double[] lats = new double[numLocations];
+            double[] lons = new double[numLocations];
+            String[] names = new String[numLocations];
+            for (int i = 0; i < numLocations; i += 1) {
+                ids[i] = in.readLong();
+                lats[i] = in.readDouble();
+                lons[i] = in.readDouble();
+                names[i] = in.readUTF();
+            }
+            g.locationIndex = new LocationIndex(cleanedNames, start, ids, lats, lons, names);
+            if (mapped && mapDense(g, snapshotPath)) {
+                g.denseOnly = true;
+                g.buildIndexes();
+                return g;
+            }
+
+            int numWays = in.readInt();
+            for (int i = 0; i < numWays; i += 1) {
+                g.ways.add(new GraphDB.Way(in.readLong(), in.readUTF(), in.readUTF(),
+                        in.readByte(), in.readDouble()));
+            }
+
+            int numVertices = in.readInt();
+            long id = 0;
+            for (int i = 0; i < numVertices; i += 1) {
+                id += readVarLong(in);
+                long header = readVarLong(in);
+                double lon, lat;
+                if ((header & 1) != 0) {
+                    lon = GraphDB.fromFixedLon((int) unzigzag(readVarLong(in)));
+                    lat = GraphDB.fromFixedLat((int) unzigzag(readVarLong(in)));
+                } else {
+                    lon = in.readDouble();
+                    lat = in.readDouble();
+                }
+                String name = (header & 2) != 0 ? in.readUTF() : null;
+                GraphDB.Vertex v = g.makeVertex(id, name, lon, lat);
+                int degree = (int) (header >>> 2);
+                v.adjacents = new long[degree];
+                v.adjacentWays = new int[degree];
+                for (int j = 0; j < degree; j += 1) {
+                    v.addAdjacent(id + unzigzag(readVarLong(in)), (int) unzigzag(readVarLong(in)));
+                }
+                g.vertexHashMap.put(id, v);
+            }
+            g.buildIndexes();
+            if (mapped) {
+                writeDense(g, snapshotPath);
+            }
+            return g;
+        }
+    }
+
+    /**
+     * Writes a non-negative number seven bits to a byte, least significant first, with the top
+     * bit of each byte set when more follow, so small numbers take one or two bytes.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed variable-length number");
+    }
+
+    /** Maps signed numbers to unsigned ones small in proportion to their magnitude. */
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+}
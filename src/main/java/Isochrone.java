@@ -0,0 +1,343 @@
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything reachable from one vertex of a <code>DenseGraph</code> within a cost limit, found
+ * by a Dijkstra sweep that stops at the limit. Costs are miles under
+ * <code>RoutingProfile.DISTANCE</code> and seconds under timed profiles, whose turn penalties
+ * are paid by sweeping directed edges as <code>DistanceMatrix</code> does.
+ *
+ * The area is outlined by <code>polygon</code> on a grid: every cell crossed by a reachable
+ * stretch of road is filled, as is every cell enclosed by filled cells, and the outline of the
+ * filled cells is traced into rings. The grid is at most <code>GRID_CELLS</code> cells across,
+ * so the outline stays small however many vertices are reachable.
+ */
+class Isochrone {
+    /** Largest number of grid cells across the longer side of the area. */
+    static final int GRID_CELLS = 128;
+    /** Smallest grid cell, in degrees of latitude: about 55 meters. */
+    static final double MIN_CELL_DEGREES = 0.0005;
+
+    private final DenseGraph d;
+    private final RoutingProfile profile;
+    private final double limit;
+    /** Dense indices of the reachable vertices, cheapest first, and their costs. */
+    private final int[] vertices;
+    private final double[] costs;
+
+    private Isochrone(DenseGraph d, RoutingProfile profile, double limit, int[] vertices,
+                      double[] costs) {
+        this.d = d;
+        this.profile = profile;
+        this.limit = limit;
+        this.vertices = vertices;
+        this.costs = costs;
+    }
+
+    /**
+     * Finds everything reachable from a vertex within a cost limit.
+     * @param d The graph.
+     * @param origin The dense index of the start vertex.
+     * @param limit The largest cost, in miles for the distance profile and seconds otherwise.
+     * @param profile How to cost routes.
+     * @return The reachable area.
+     */
+    static Isochrone compute(DenseGraph d, int origin, double limit, RoutingProfile profile) {
+        Builder reached = new Builder();
+        if (profile.turnCosts()) {
+            edgeSweep(d, origin, limit, profile, reached);
+        } else {
+            vertexSweep(d, origin, limit, profile, reached);
+        }
+        return new Isochrone(d, profile, limit, Arrays.copyOf(reached.vertices, reached.size),
+                Arrays.copyOf(reached.costs, reached.size));
+    }
+
+    private static void vertexSweep(DenseGraph d, int origin, double limit,
+                                    RoutingProfile profile, Builder reached) {
+        FloatBuffer weights = profile.timed() ? d.weights(profile) : null;
+        SearchWorkspace ws = SearchWorkspace.forThread(d.size());
+        ws.relax(origin, 0, -1, 0);
+        while (!ws.isEmpty()) {
+            int v = ws.poll();
+            double cost = ws.cost(v);
+            reached.add(v, cost);
+            for (int e = d.edgeStart(v); e < d.edgeEnd(v); e += 1) {
+                double c = cost + (weights == null ? d.edgeLength(e) : weights.get(e));
+                if (c <= limit) {
+                    ws.relax(d.edgeTo(e), c, v, c);
+                }
+            }
+        }
+    }
+
+    private static void edgeSweep(DenseGraph d, int origin, double limit,
+                                  RoutingProfile profile, Builder reached) {
+        FloatBuffer weights = d.weights(profile);
+        SearchWorkspace ws = SearchWorkspace.forThread(0, d.edgeCount());
+        /* Edges settle cheapest first, so the first edge settled into a vertex is its cost. */
+        SearchWorkspace seen = SearchWorkspace.forThread(1, d.size());
+        seen.settle(origin, 0);
+        reached.add(origin, 0);
+        for (int e = d.edgeStart(origin); e < d.edgeEnd(origin); e += 1) {
+            if (weights.get(e) <= limit) {
+                ws.relax(e, weights.get(e), -1, weights.get(e));
+            }
+        }
+        while (!ws.isEmpty()) {
+            int e = ws.poll();
+            int v = d.edgeTo(e);
+            double cost = ws.cost(e);
+            if (seen.settle(v, cost)) {
+                reached.add(v, cost);
+            }
+            for (int f = d.edgeStart(v); f < d.edgeEnd(v); f += 1) {
+                double c = cost + profile.turnSeconds(d.edgeBearing(f) - d.edgeBearing(e))
+                        + weights.get(f);
+                if (c <= limit) {
+                    ws.relax(f, c, e, c);
+                }
+            }
+        }
+    }
+
+    /** Returns the number of reachable vertices. */
+    int size() {
+        return vertices.length;
+    }
+
+    /** Returns the IDs of the reachable vertices, cheapest first. */
+    List<Long> vertexIds() {
+        List<Long> ids = new ArrayList<>(vertices.length);
+        for (int v : vertices) {
+            ids.add(d.id(v));
+        }
+        return ids;
+    }
+
+    /** Returns the costs of reaching the vertices of <code>vertexIds</code>, in order. */
+    double[] costs() {
+        return costs.clone();
+    }
+
+    /**
+     * Returns the outline of the reachable area.
+     * @return Rings of <code>{lon, lat}</code> points, one per separate part of the area, each
+     * running counter-clockwise and ending where it starts.
+     */
+    List<double[][]> polygon() {
+        /* Each reachable vertex, and as much of each road leaving it as the budget left covers. */
+        int length = 0;
+        for (int u : vertices) {
+            length += 4 * (1 + d.edgeEnd(u) - d.edgeStart(u));
+        }
+        double[] segments = new double[length];
+        int count = 0;
+        FloatBuffer weights = profile.timed() ? d.weights(profile) : null;
+        for (int i = 0; i < vertices.length; i += 1) {
+            int u = vertices[i];
+            segments[count] = d.lon(u);
+            segments[count + 1] = d.lat(u);
+            segments[count + 2] = d.lon(u);
+            segments[count + 3] = d.lat(u);
+            count += 4;
+            for (int e = d.edgeStart(u); e < d.edgeEnd(u); e += 1) {
+                double w = weights == null ? d.edgeLength(e) : weights.get(e);
+                if (w == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double t = w == 0 ? 1 : Math.min(1, (limit - costs[i]) / w);
+                int v = d.edgeTo(e);
+                segments[count] = d.lon(u);
+                segments[count + 1] = d.lat(u);
+                segments[count + 2] = d.lon(u) + t * (d.lon(v) - d.lon(u));
+                segments[count + 3] = d.lat(u) + t * (d.lat(v) - d.lat(u));
+                count += 4;
+            }
+        }
+        return new Grid(segments, count).outline();
+    }
+
+    /** Collects reachable vertices and their costs into growing arrays. */
+    private static class Builder {
+        private int[] vertices = new int[16];
+        private double[] costs = new double[16];
+        private int size;
+
+        private void add(int v, double cost) {
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, 2 * size);
+                costs = Arrays.copyOf(costs, 2 * size);
+            }
+            vertices[size] = v;
+            costs[size] = cost;
+            size += 1;
+        }
+    }
+
+    /**
+     * A grid over the reachable segments, padded by an empty cell on every side. Cell
+     * <code>(i, j)</code> spans corners <code>(i, j)</code> to <code>(i + 1, j + 1)</code>, with
+     * <code>j</code> growing northward.
+     */
+    private static class Grid {
+        /** Directions of outline steps: east, north, west, south. */
+        private static final int[] DX = {1, 0, -1, 0};
+        private static final int[] DY = {0, 1, 0, -1};
+        /** Turns to try at a corner, in order: left, straight, right. */
+        private static final int[] TURNS = {1, 0, 3};
+
+        private final double minLon, minLat, cellLon, cellLat;
+        private final int width, height;
+        private final boolean[] filled;
+
+        private Grid(double[] segments, int count) {
+            double loLon = Double.POSITIVE_INFINITY, hiLon = Double.NEGATIVE_INFINITY;
+            double loLat = Double.POSITIVE_INFINITY, hiLat = Double.NEGATIVE_INFINITY;
+            for (int k = 0; k < count; k += 2) {
+                loLon = Math.min(loLon, segments[k]);
+                hiLon = Math.max(hiLon, segments[k]);
+                loLat = Math.min(loLat, segments[k + 1]);
+                hiLat = Math.max(hiLat, segments[k + 1]);
+            }
+            /* Cells are square on the ground: a degree of longitude shrinks with latitude. */
+            double scale = Math.cos(Math.toRadians((loLat + hiLat) / 2));
+            cellLat = Math.max(MIN_CELL_DEGREES,
+                    Math.max((hiLon - loLon) * scale, hiLat - loLat) / GRID_CELLS);
+            cellLon = cellLat / scale;
+            /* Start half a cell into the padding, so the westmost and southmost vertices are
+               not on cell boundaries. */
+            minLon = loLon - 1.5 * cellLon;
+            minLat = loLat - 1.5 * cellLat;
+            width = (int) ((hiLon - minLon) / cellLon) + 2;
+            height = (int) ((hiLat - minLat) / cellLat) + 2;
+            filled = new boolean[width * height];
+            for (int k = 0; k < count; k += 4) {
+                fill(segments[k], segments[k + 1], segments[k + 2], segments[k + 3]);
+            }
+            fillEnclosed();
+        }
+
+        /** Fills every cell a segment passes through, sampling it every half cell. */
+        private void fill(double lon0, double lat0, double lon1, double lat1) {
+            double cells = Math.max(Math.abs(lon1 - lon0) / cellLon,
+                    Math.abs(lat1 - lat0) / cellLat);
+            int steps = (int) Math.ceil(2 * cells);
+            for (int s = 0; s <= steps; s += 1) {
+                double t = steps == 0 ? 0 : (double) s / steps;
+                int i = (int) ((lon0 + t * (lon1 - lon0) - minLon) / cellLon);
+                int j = (int) ((lat0 + t * (lat1 - lat0) - minLat) / cellLat);
+                filled[j * width + i] = true;
+            }
+        }
+
+        /** Fills every empty cell that cannot be reached from the padding around the grid. */
+        private void fillEnclosed() {
+            boolean[] outside = new boolean[filled.length];
+            int[] stack = new int[filled.length];
+            int top = 0;
+            stack[top++] = 0;
+            outside[0] = true;
+            while (top > 0) {
+                int c = stack[--top];
+                int i = c % width;
+                int j = c / width;
+                for (int dir = 0; dir < 4; dir += 1) {
+                    int ni = i + DX[dir];
+                    int nj = j + DY[dir];
+                    if (ni < 0 || nj < 0 || ni >= width || nj >= height) {
+                        continue;
+                    }
+                    int n = nj * width + ni;
+                    if (!filled[n] && !outside[n]) {
+                        outside[n] = true;
+                        stack[top++] = n;
+                    }
+                }
+            }
+            for (int c = 0; c < filled.length; c += 1) {
+                filled[c] = !outside[c];
+            }
+        }
+
+        private boolean isFilled(int i, int j) {
+            return i >= 0 && j >= 0 && i < width && j < height && filled[j * width + i];
+        }
+
+        /**
+         * Traces the boundary between filled and empty cells. Every filled cell contributes the
+         * sides it shares with empty cells as steps keeping it on the left, so that steps chain
+         * into counter-clockwise rings; where two rings touch at a corner, the trace turns left
+         * to keep them apart. Only the corners where a ring changes direction are kept.
+         */
+        private List<double[][]> outline() {
+            int corners = (width + 1) * (height + 1);
+            /* Bit dir of steps[corner] is set while the step from corner in direction dir is
+               untraced. */
+            byte[] steps = new byte[corners];
+            for (int j = 0; j < height; j += 1) {
+                for (int i = 0; i < width; i += 1) {
+                    if (!isFilled(i, j)) {
+                        continue;
+                    }
+                    if (!isFilled(i, j - 1)) {
+                        steps[corner(i, j)] |= 1;
+                    }
+                    if (!isFilled(i + 1, j)) {
+                        steps[corner(i + 1, j)] |= 2;
+                    }
+                    if (!isFilled(i, j + 1)) {
+                        steps[corner(i + 1, j + 1)] |= 4;
+                    }
+                    if (!isFilled(i - 1, j)) {
+                        steps[corner(i, j + 1)] |= 8;
+                    }
+                }
+            }
+            List<double[][]> rings = new ArrayList<>();
+            for (int start = 0; start < corners; start += 1) {
+                while (steps[start] != 0) {
+                    rings.add(trace(steps, start));
+                }
+            }
+            return rings;
+        }
+
+        private double[][] trace(byte[] steps, int start) {
+            List<double[]> ring = new ArrayList<>();
+            int dir = Integer.numberOfTrailingZeros(steps[start]);
+            int c = start;
+            int previous = -1;
+            while (true) {
+                steps[c] &= ~(1 << dir);
+                if (dir != previous) {
+                    ring.add(lonLat(c));
+                }
+                previous = dir;
+                c = corner(c % (width + 1) + DX[dir], c / (width + 1) + DY[dir]);
+                if (c == start) {
+                    break;
+                }
+                for (int turn : TURNS) {
+                    if ((steps[c] & (1 << ((previous + turn) % 4))) != 0) {
+                        dir = (previous + turn) % 4;
+                        break;
+                    }
+                }
+            }
+            ring.add(ring.get(0));
+            return ring.toArray(new double[0][]);
+        }
+
+        private int corner(int i, int j) {
+            return j * (width + 1) + i;
+        }
+
+        private double[] lonLat(int corner) {
+            return new double[]{minLon + (corner % (width + 1)) * cellLon,
+                    minLat + (corner / (width + 1)) * cellLat};
+        }
+    }
+}
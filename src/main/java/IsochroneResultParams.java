@@ -0,0 +1,39 @@
+import java.util.List;
+
+/**
+ * The IsochroneResultParams describes the area computed by Router.isochrone for serialization by
+ * Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class IsochroneResultParams {
+    /** The routing profile the area was computed under. */
+    private final String profile;
+    /** The unit of the limit, "miles" or "seconds". */
+    private final String unit;
+    private final double limit;
+    /** Number of vertices reachable within the limit. */
+    private final int reachable;
+    /** Outline of the area as rings of [lon, lat] points. */
+    private final List<double[][]> polygon;
+    /** ID under which the area's overlay tiles are served by <code>/route_overlay</code>. */
+    private final long routeId;
+
+    /**
+     * Constructs an IsochroneResultParams instance.
+     * @param profile The routing profile.
+     * @param limit The cost limit.
+     * @param isochrone The reachable area.
+     * @param polygon The outline of the area.
+     * @param routeId The overlay ID of the area.
+     */
+    IsochroneResultParams(RoutingProfile profile, double limit, Isochrone isochrone,
+                          List<double[][]> polygon, long routeId) {
+        this.profile = profile.name;
+        this.unit = profile.timed() ? "seconds" : "miles";
+        this.limit = limit;
+        this.reachable = isochrone.size();
+        this.polygon = polygon;
+        this.routeId = routeId;
+    }
+}
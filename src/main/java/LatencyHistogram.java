@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, in the manner of
+ * HdrHistogram: buckets are exact below <code>2^SUB_BITS</code> and above that split every power
+ * of two into <code>2^SUB_BITS</code> equal parts, so any value is known to within about 3% with
+ * a fixed array of under two thousand counts covering the whole range of a long. Recording is
+ * one atomic increment of its bucket plus striped adders for the count and sum, with no locks
+ * and no allocation, so it is cheap enough for every request and every search. Quantiles are read
+ * from a snapshot of the counts that may be slightly inconsistent while values are recorded.
+ */
+class LatencyHistogram {
+    /** Each power of two is split into <code>2^SUB_BITS</code> buckets. */
+    static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value.
+     * @param value The value; negative values are recorded as 0.
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Records the nanoseconds elapsed since a start read from <code>System.nanoTime</code>. */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /** Returns the number of values recorded. */
+    long count() {
+        return count.sum();
+    }
+
+    /** Returns the sum of the values recorded. */
+    long sum() {
+        return sum.sum();
+    }
+
+    /** Returns the largest value recorded, exactly, or 0 if there are none. */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns a value at or near a quantile of the values recorded: the middle of the bucket
+     * holding it, and never more than the largest value, which quantile 1 returns exactly.
+     * @param quantile The quantile, from 0 to 1.
+     * @return The value, or 0 if none were recorded.
+     */
+    long valueAt(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i += 1) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        if (quantile >= 1) {
+            return max();
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i += 1) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(lowest(i) + (width(i) - 1) / 2, max());
+            }
+        }
+        return max();
+    }
+
+    /** Returns the bucket a value falls in. */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /** Returns the smallest value in a bucket. */
+    static long lowest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    }
+
+    /** Returns the number of values a bucket covers. */
+    static long width(int bucket) {
+        return bucket < SUB_BUCKETS ? 1 : 1L << ((bucket - SUB_BUCKETS) / SUB_BUCKETS);
+    }
+}
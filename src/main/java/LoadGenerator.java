@@ -0,0 +1,444 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives traffic at the <code>/raster</code>, <code>/route</code> and <code>/search</code>
+ * endpoints for capacity planning, either synthetic, as users panning and zooming around the
+ * map and asking for routes and places, or replayed from a log of request paths.
+ *
+ * The load is open-loop: request <code>i</code> is due at <code>i / rate</code> seconds whether
+ * or not earlier requests have been answered, as with real users, so a slow server builds a
+ * backlog instead of quietly slowing the generator down. Latency is measured from when each
+ * request was due rather than when a connection got round to sending it, which corrects for
+ * coordinated omission: a stall delays every request due during it, and all of them count.
+ * Service time, from the actual send, is reported alongside for comparison.
+ *
+ * Usage: <code>java LoadGenerator [--url http://host:port] [--rate requests-per-second]
+ * [--duration seconds] [--warmup seconds] [--connections n] [--mix raster:route:search]
+ * [--replay file] [--seed n]</code>. Without <code>--url</code>, a <code>MapServer</code> is
+ * started in this JVM and driven on its own port. A replay file has one request path per
+ * line, like <code>/route?start_lon=...</code>, and is cycled through at the target rate.
+ */
+public class LoadGenerator {
+    /** The browser's default viewport, in pixels. */
+    private static final int VIEWPORT_WIDTH = 1024, VIEWPORT_HEIGHT = 640;
+    /** Degrees of latitude per degree of longitude spanning the same distance in Berkeley. */
+    private static final double LAT_PER_LON = Math.cos(Math.toRadians(37.87));
+    /** The deepest zoom level with its own tiles. */
+    private static final int MAX_DEPTH = 7;
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private final String baseUrl;
+    private final int connections;
+
+    /**
+     * Creates a load generator.
+     * @param baseUrl The server's address, like <code>http://localhost:4567</code>.
+     * @param connections How many requests may be outstanding at once; requests due while
+     *                    all are busy wait, and their wait counts towards their latency.
+     */
+    LoadGenerator(String baseUrl, int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Incorrect parameters: connections must be "
+                    + "at least 1.");
+        }
+        this.baseUrl = baseUrl;
+        this.connections = connections;
+    }
+
+    /**
+     * Sends requests at a fixed rate and waits for every one to be answered.
+     * @param requests The request paths, sent in order until the time is up or they run out.
+     * @param rate Requests due per second.
+     * @param duration How long to measure for, in nanoseconds.
+     * @param warmup How long to send requests for before measuring, in nanoseconds.
+     * @return The latencies and errors of the requests due after the warmup.
+     */
+    Report run(Iterator<String> requests, double rate, long duration, long warmup)
+            throws InterruptedException {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("Incorrect parameters: rate must be positive.");
+        }
+        double interval = 1e9 / rate;
+        Report report = new Report();
+        ExecutorService workers = Executors.newFixedThreadPool(connections, r -> {
+            Thread t = new Thread(r, "load");
+            t.setDaemon(true);
+            return t;
+        });
+        Phaser outstanding = new Phaser(1);
+        long start = System.nanoTime();
+        long measureFrom = start + warmup;
+        long end = measureFrom + duration;
+        for (long i = 0; requests.hasNext(); i += 1) {
+            long due = start + (long) (i * interval);
+            if (due >= end) {
+                break;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            String path = requests.next();
+            Report into = due >= measureFrom ? report : null;
+            outstanding.register();
+            workers.execute(() -> {
+                try {
+                    send(path, due, into);
+                } finally {
+                    outstanding.arriveAndDeregister();
+                }
+            });
+        }
+        outstanding.arriveAndAwaitAdvance();
+        report.elapsed = System.nanoTime() - measureFrom;
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.SECONDS);
+        return report;
+    }
+
+    /** Sends one request, recording it in <code>report</code> unless that is null. */
+    private void send(String path, long due, Report report) {
+        long sent = System.nanoTime();
+        boolean ok;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path)
+                    .openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            int status = connection.getResponseCode();
+            ok = status / 100 == 2;
+            /* Read the whole body so the connection is kept alive for the next request. */
+            try (InputStream body = ok ? connection.getInputStream()
+                    : connection.getErrorStream()) {
+                if (body != null) {
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) != -1) {
+                        continue;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            ok = false;
+        }
+        long done = System.nanoTime();
+        if (report != null) {
+            report.record(endpoint(path), done - due, done - sent, ok);
+        }
+    }
+
+    /** Returns the endpoint a request path is for, like <code>/raster</code>. */
+    static String endpoint(String path) {
+        int query = path.indexOf('?');
+        return query < 0 ? path : path.substring(0, query);
+    }
+
+    /** The outcome of a run, by endpoint. */
+    static class Report {
+        private final Map<String, Result> results = new TreeMap<>();
+        /** How long the measured part of the run took, until its last answer, in nanoseconds. */
+        private long elapsed;
+
+        private void record(String endpoint, long responseNanos, long serviceNanos,
+                            boolean ok) {
+            Result result;
+            synchronized (results) {
+                result = results.computeIfAbsent(endpoint, e -> new Result());
+            }
+            result.responseTime.record(responseNanos);
+            result.serviceTime.record(serviceNanos);
+            if (!ok) {
+                result.errors.increment();
+            }
+        }
+
+        /**
+         * Returns the outcome of the requests to one endpoint.
+         * @param endpoint The endpoint, like <code>/raster</code>.
+         * @return The outcome, or null if no request to it was measured.
+         */
+        Result result(String endpoint) {
+            synchronized (results) {
+                return results.get(endpoint);
+            }
+        }
+
+        /** Prints a table of throughput and latency percentiles, in milliseconds, by endpoint. */
+        void print(PrintStream out) {
+            out.printf("%-14s %9s %7s %9s %9s %9s %9s %9s %9s %11s %11s%n", "endpoint",
+                    "requests", "errors", "req/s", "p50", "p90", "p99", "p99.9", "max",
+                    "svc p50", "svc p99");
+            synchronized (results) {
+                for (Map.Entry<String, Result> entry : results.entrySet()) {
+                    Result r = entry.getValue();
+                    LatencyHistogram h = r.responseTime;
+                    out.printf("%-14s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %11.2f"
+                            + " %11.2f%n", entry.getKey(), h.count(), r.errors.sum(),
+                            h.count() * 1e9 / elapsed, millis(h.valueAt(0.5)),
+                            millis(h.valueAt(0.9)), millis(h.valueAt(0.99)),
+                            millis(h.valueAt(0.999)), millis(h.max()),
+                            millis(r.serviceTime.valueAt(0.5)),
+                            millis(r.serviceTime.valueAt(0.99)));
+                }
+            }
+            out.println("Latency is measured from when each request was due (corrected for "
+                    + "coordinated omission); svc is from when it was sent.");
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+
+    /** The latencies and errors of the requests to one endpoint. */
+    static class Result {
+        /** Nanoseconds from when each request was due until it was answered. */
+        final LatencyHistogram responseTime = new LatencyHistogram();
+        /** Nanoseconds from when each request was sent until it was answered. */
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        /** Requests answered with a status other than 2xx, or not at all. */
+        final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * Endless synthetic traffic. Raster requests follow one user's session at a time, each
+     * panning by up to half a viewport or zooming a level in or out from the last viewport,
+     * and occasionally starting over somewhere new; routes run between random points on the
+     * map, and searches are for short random prefixes.
+     */
+    static class SyntheticTraffic implements Iterator<String> {
+        /** How often a raster request starts a new session instead of moving the viewport. */
+        private static final double NEW_SESSION = 0.05;
+        private final Random random;
+        private final double[] cumulative;
+        private int depth;
+        private double centerLon, centerLat;
+
+        /**
+         * Creates synthetic traffic.
+         * @param random The source of randomness, seeded so that runs compare.
+         * @param raster The weight of raster requests in the mix.
+         * @param route The weight of route requests.
+         * @param search The weight of search requests.
+         */
+        SyntheticTraffic(Random random, double raster, double route, double search) {
+            double total = raster + route + search;
+            if (raster < 0 || route < 0 || search < 0 || !(total > 0)) {
+                throw new IllegalArgumentException(
+                        "Incorrect parameters: mix weights must be non-negative, not all 0.");
+            }
+            this.random = random;
+            this.cumulative = new double[]{raster / total, (raster + route) / total};
+            newSession();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public String next() {
+            double pick = random.nextDouble();
+            if (pick < cumulative[0]) {
+                return raster();
+            } else if (pick < cumulative[1]) {
+                return String.format("/route?start_lon=%.6f&start_lat=%.6f&end_lon=%.6f"
+                        + "&end_lat=%.6f", randomLon(), randomLat(), randomLon(), randomLat());
+            }
+            int length = 1 + random.nextInt(3);
+            StringBuilder term = new StringBuilder();
+            for (int i = 0; i < length; i += 1) {
+                term.append((char) ('a' + random.nextInt(26)));
+            }
+            return "/search?term=" + term;
+        }
+
+        private String raster() {
+            double move = random.nextDouble();
+            if (move < NEW_SESSION) {
+                newSession();
+            } else if (move < 0.7) {
+                centerLon += (random.nextDouble() - 0.5) * lonSpan();
+                centerLat += (random.nextDouble() - 0.5) * latSpan();
+            } else if (move < 0.85) {
+                depth = Math.min(MAX_DEPTH, depth + 1);
+            } else {
+                depth = Math.max(0, depth - 1);
+            }
+            centerLon = clamp(centerLon, MapServer.ROOT_ULLON, MapServer.ROOT_LRLON, lonSpan());
+            centerLat = clamp(centerLat, MapServer.ROOT_LRLAT, MapServer.ROOT_ULLAT, latSpan());
+            return String.format("/raster?ullon=%.8f&ullat=%.8f&lrlon=%.8f&lrlat=%.8f"
+                    + "&w=%d&h=%d", centerLon - lonSpan() / 2, centerLat + latSpan() / 2,
+                    centerLon + lonSpan() / 2, centerLat - latSpan() / 2, VIEWPORT_WIDTH,
+                    VIEWPORT_HEIGHT);
+        }
+
+        private void newSession() {
+            depth = 1 + random.nextInt(MAX_DEPTH - 1);
+            centerLon = randomLon();
+            centerLat = randomLat();
+        }
+
+        /** The width of the viewport at the current depth, in degrees of longitude. */
+        private double lonSpan() {
+            return Math.min(MapServer.ROOT_LON_DELTA, VIEWPORT_WIDTH * MapServer.ROOT_LONDPP
+                    / (1 << depth));
+        }
+
+        private double latSpan() {
+            return Math.min(MapServer.ROOT_LAT_DELTA,
+                    lonSpan() * VIEWPORT_HEIGHT / VIEWPORT_WIDTH * LAT_PER_LON);
+        }
+
+        /** Keeps a viewport of the given span, centered at <code>c</code>, within bounds. */
+        private static double clamp(double c, double min, double max, double span) {
+            return Math.max(min + span / 2, Math.min(max - span / 2, c));
+        }
+
+        private double randomLon() {
+            return MapServer.ROOT_ULLON + random.nextDouble() * MapServer.ROOT_LON_DELTA;
+        }
+
+        private double randomLat() {
+            return MapServer.ROOT_LRLAT + random.nextDouble() * MapServer.ROOT_LAT_DELTA;
+        }
+    }
+
+    /**
+     * Returns the request paths of a recorded log, cycled through endlessly.
+     * @param lines The log's lines: request paths, or whole URLs whose host is dropped.
+     *              Blank lines and lines starting with <code>#</code> are skipped.
+     * @return The requests.
+     * @throws IllegalArgumentException If the log has no requests.
+     */
+    static Iterator<String> replay(List<String> lines) {
+        List<String> paths = new ArrayList<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int scheme = line.indexOf("://");
+            if (scheme >= 0) {
+                int path = line.indexOf('/', scheme + 3);
+                line = path < 0 ? "/" : line.substring(path);
+            }
+            paths.add(line);
+        }
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("Incorrect parameters: no requests to replay.");
+        }
+        return new Iterator<String>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                String path = paths.get(next);
+                next = (next + 1) % paths.size();
+                return path;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        double rate = 50, duration = 30, warmup = 5;
+        int connections = 64;
+        double[] mix = {60, 30, 10};
+        String replay = null;
+        long seed = 61;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i] + ".");
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--url":
+                        url = value.endsWith("/") ? value.substring(0, value.length() - 1)
+                                : value;
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--duration":
+                        duration = Double.parseDouble(value);
+                        break;
+                    case "--warmup":
+                        warmup = Double.parseDouble(value);
+                        break;
+                    case "--connections":
+                        connections = Integer.parseInt(value);
+                        break;
+                    case "--mix":
+                        String[] weights = value.split(":");
+                        if (weights.length != 3) {
+                            throw new IllegalArgumentException(
+                                    "--mix takes raster:route:search weights.");
+                        }
+                        for (int w = 0; w < 3; w += 1) {
+                            mix[w] = Double.parseDouble(weights[w]);
+                        }
+                        break;
+                    case "--replay":
+                        replay = value;
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadGenerator [--url http://host:port] [--rate n] "
+                    + "[--duration seconds] [--warmup seconds] [--connections n] "
+                    + "[--mix raster:route:search] [--replay file] [--seed n]");
+            System.exit(2);
+        }
+
+        Iterator<String> requests = replay != null
+                ? replay(Files.readAllLines(Paths.get(replay)))
+                : new SyntheticTraffic(new Random(seed), mix[0], mix[1], mix[2]);
+        boolean inProcess = url == null;
+        if (inProcess) {
+            MapServer.main(new String[0]);
+            spark.Spark.awaitInitialization();
+            /* Time the server once it is ready, not while the graph is still loading. */
+            MapServer.awaitReady();
+            url = "http://localhost:" + spark.Spark.port();
+        }
+        System.out.printf("Sending %.1f requests/s to %s for %.0f s after %.0f s of warmup%n",
+                rate, url, duration, warmup);
+        Report report = new LoadGenerator(url, connections).run(requests, rate,
+                (long) (duration * 1e9), (long) (warmup * 1e9));
+        report.print(System.out);
+        if (inProcess) {
+            spark.Spark.stop();
+            System.exit(0);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index from a cleaned location name to every OSM node carrying that name, including named
+ * points of interest that are not part of the road graph. Nodes are packed into parallel arrays
+ * grouped by cleaned name, so a lookup is one hash probe followed by a copy of a contiguous
+ * slice of the arrays. Groups are ordered by cleaned name, so the nodes whose names start with a
+ * given prefix also form one contiguous slice.
+ */
+class LocationIndex {
+    /** Maps a cleaned name to its group, the slice <code>[start[g], start[g + 1])</code>. */
+    private final HashMap<String, Integer> groups;
+    /** The cleaned name of each group, sorted. */
+    private final String[] cleanedNames;
+    private final int[] start;
+    private final long[] ids;
+    private final double[] lats, lons;
+    private final String[] names;
+
+    /**
+     * Packs the given locations.
+     * @param locations Named locations in the order they were parsed.
+     */
+    LocationIndex(List<LocationParams> locations) {
+        HashMap<String, List<LocationParams>> members = new HashMap<>();
+        for (LocationParams location : locations) {
+            members.computeIfAbsent(GraphDB.cleanString(location.name), c -> new ArrayList<>(1))
+                    .add(location);
+        }
+        cleanedNames = members.keySet().toArray(new String[0]);
+        Arrays.sort(cleanedNames);
+        groups = new HashMap<>();
+        int n = locations.size();
+        start = new int[cleanedNames.length + 1];
+        ids = new long[n];
+        lats = new double[n];
+        lons = new double[n];
+        names = new String[n];
+        int i = 0;
+        for (int g = 0; g < cleanedNames.length; g += 1) {
+            groups.put(cleanedNames[g], g);
+            start[g] = i;
+            for (LocationParams location : members.get(cleanedNames[g])) {
+                ids[i] = location.id;
+                lats[i] = location.lat;
+                lons[i] = location.lon;
+                names[i] = location.name;
+                i += 1;
+            }
+        }
+        start[cleanedNames.length] = n;
+    }
+
+    /**
+     * Restores an index from its packed form, as written by <code>GraphSnapshot</code>.
+     * @param cleanedNames The cleaned name of each group, sorted.
+     * @param start Where each group starts in the packed arrays, plus the total length.
+     * @param ids Node IDs.
+     * @param lats Node latitudes.
+     * @param lons Node longitudes.
+     * @param names Full node names.
+     */
+    LocationIndex(String[] cleanedNames, int[] start, long[] ids, double[] lats, double[] lons,
+                  String[] names) {
+        this.groups = new HashMap<>();
+        for (int g = 0; g < cleanedNames.length; g += 1) {
+            groups.put(cleanedNames[g], g);
+        }
+        this.cleanedNames = cleanedNames;
+        this.start = start;
+        this.ids = ids;
+        this.lats = lats;
+        this.lons = lons;
+        this.names = names;
+    }
+
+    /**
+     * Returns every location whose cleaned name equals the cleaned <code>locationName</code>.
+     * @param locationName A full location name, in any case and with or without punctuation.
+     * @return The matching locations, in the order they were parsed.
+     */
+    List<LocationParams> get(String locationName) {
+        Integer group = groups.get(GraphDB.cleanString(locationName));
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        List<LocationParams> result = new ArrayList<>(start[group + 1] - start[group]);
+        for (int i = start[group]; i < start[group + 1]; i += 1) {
+            result.add(new LocationParams(lats[i], lons[i], names[i], ids[i]));
+        }
+        return result;
+    }
+
+    /** Returns every location in the index. */
+    List<LocationParams> all() {
+        List<LocationParams> result = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i += 1) {
+            result.add(new LocationParams(lats[i], lons[i], names[i], ids[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the slice of the packed arrays holding the locations whose cleaned name starts with
+     * the cleaned <code>prefix</code>, found by binary search over the sorted group names.
+     * @param prefix A prefix, in any case and with or without punctuation.
+     * @return The slice as <code>{from, to}</code>, with <code>to</code> exclusive.
+     */
+    int[] prefixRange(String prefix) {
+        String p = GraphDB.cleanString(prefix);
+        return new int[]{start[lowerBound(p, 0)], start[lowerBound(p, 1)]};
+    }
+
+    /** Binary search over the group names, as in <code>Autocomplete</code>. */
+    private int lowerBound(String p, int bias) {
+        int lo = 0;
+        int hi = cleanedNames.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Autocomplete.comparePrefix(cleanedNames[mid], p) < bias) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the number of distinct cleaned names. */
+    int groupCount() {
+        return start.length - 1;
+    }
+
+    /** Returns the number of locations. */
+    int size() {
+        return ids.length;
+    }
+
+    /* Packed-form accessors for GraphSnapshot. */
+
+    String[] cleanedNames() {
+        return cleanedNames;
+    }
+
+    int[] groupStarts() {
+        return start;
+    }
+
+    long[] ids() {
+        return ids;
+    }
+
+    double[] lats() {
+        return lats;
+    }
+
+    double[] lons() {
+        return lons;
+    }
+
+    String[] names() {
+        return names;
+    }
+}
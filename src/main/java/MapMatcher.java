@@ -0,0 +1,384 @@
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Snaps a GPS trace onto the roads of a <code>GraphDB</code> one point at a time, with a hidden
+ * Markov model in the manner of Newson and Krumm. The hidden states of each point are its
+ * candidates: the nearest spots on the directed edges within <code>SEARCH_RADIUS</code>, found
+ * with <code>GraphDB.edgeIndex</code>. A candidate is likelier the nearer it is, as GPS error is
+ * taken to be normal with deviation <code>SIGMA</code>, and a step between the candidates of
+ * consecutive points is likelier the closer its length along the roads is to the straight-line
+ * distance between the points. Those lengths come from one Dijkstra sweep per candidate of the
+ * earlier point, bounded at <code>MAX_DETOUR</code> times that distance, in the thread's
+ * <code>SearchWorkspace</code>.
+ *
+ * Viterbi decoding keeps, for each candidate of the latest point, only the likeliest sequence of
+ * candidates ending there. Points are matched for good as soon as those sequences agree on them,
+ * or once they fall <code>MAX_LAG</code> points behind, when the likeliest sequence decides them
+ * and sequences that disagree are dropped, so memory stays bounded however long the trace is.
+ * Points with no road within the radius are skipped, and where no route joins consecutive points
+ * the match starts afresh.
+ *
+ * Edges are only travelled in directions the profile allows, but route lengths are in miles
+ * under every profile.
+ */
+class MapMatcher {
+    /** Deviation of GPS error, in miles: about 5 meters. */
+    static final double SIGMA = 0.003;
+    /** Scale of the difference between route and straight-line distances, in miles. */
+    static final double BETA = 0.003;
+    /** Largest distance from a point to its candidates, in miles: about 50 meters. */
+    static final double SEARCH_RADIUS = 0.03;
+    /** Largest number of candidates considered for each point. */
+    static final int MAX_CANDIDATES = 8;
+    /** Routes between candidates are at most this many times the distance between points. */
+    static final double MAX_DETOUR = 4;
+    /** Largest number of points left unmatched while candidate sequences disagree. */
+    static final int MAX_LAG = 32;
+
+    /** A point of the trace snapped to a road. */
+    static class Match {
+        /** The position of the point in the trace, counting from 0. */
+        final int index;
+        /** The IDs of the vertices at the ends of the directed edge the point was snapped to. */
+        final long from, to;
+        /** The snapped position. */
+        final double lon, lat;
+        /** The distance from the point to its snapped position, in miles. */
+        final double error;
+        /**
+         * The IDs of the vertices passed since the previous match, or null if the match was
+         * started afresh here.
+         */
+        final List<Long> route;
+
+        private Match(int index, long from, long to, double lon, double lat, double error,
+                      List<Long> route) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.lon = lon;
+            this.lat = lat;
+            this.error = error;
+            this.route = route;
+        }
+    }
+
+    /** A candidate of a point and the likeliest sequence of candidates ending there. */
+    private static class State {
+        private final int index;
+        private final int edge;
+        /** How far along the edge the candidate is, from 0 at its tail to 1 at its head. */
+        private final double t;
+        private final double lon, lat, error;
+        private double score;
+        private State previous;
+        /** Dense indices of the vertices passed since <code>previous</code>. */
+        private int[] route;
+
+        private State(int index, int edge, double t, double lon, double lat, double error) {
+            this.index = index;
+            this.edge = edge;
+            this.t = t;
+            this.lon = lon;
+            this.lat = lat;
+            this.error = error;
+        }
+    }
+
+    private final GraphDB g;
+    private final DenseGraph d;
+    /** Travel times under the profile, read only to tell which edges may be travelled. */
+    private final FloatBuffer weights;
+    private List<State> states = new ArrayList<>();
+    private double lastLon, lastLat;
+    private int points;
+    /** Index of the latest point matched for good, or -1. */
+    private int emitted = -1;
+    private long nanos;
+
+    /**
+     * Creates a matcher for one trace.
+     * @param g The graph to match onto.
+     * @param profile The profile deciding which edges may be travelled in which direction.
+     */
+    MapMatcher(GraphDB g, RoutingProfile profile) {
+        this.g = g;
+        this.d = g.dense;
+        this.weights = profile.timed() ? d.weights(profile) : null;
+    }
+
+    /**
+     * Matches a whole trace.
+     * @param g The graph to match onto.
+     * @param trace The points of the trace as <code>{lon, lat}</code> pairs, in order.
+     * @param profile The profile deciding which edges may be travelled in which direction.
+     * @return The matches of the points that could be matched, in order.
+     */
+    static List<Match> match(GraphDB g, List<double[]> trace, RoutingProfile profile) {
+        MapMatcher matcher = new MapMatcher(g, profile);
+        List<Match> matches = new ArrayList<>();
+        for (double[] point : trace) {
+            matches.addAll(matcher.add(point[0], point[1]));
+        }
+        matches.addAll(matcher.finish());
+        return matches;
+    }
+
+    /**
+     * Adds the next point of the trace.
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The matches of earlier points, and possibly this one, decided by adding it.
+     */
+    List<Match> add(double lon, double lat) {
+        long start = System.nanoTime();
+        int index = points;
+        points += 1;
+        List<Match> matches = new ArrayList<>();
+        List<State> candidates = candidates(index, lon, lat);
+        if (!candidates.isEmpty()) {
+            if (!states.isEmpty()) {
+                transition(candidates, GraphDB.distance(lastLon, lastLat, lon, lat));
+                if (Double.isInfinite(best(candidates).score)) {
+                    /* Nothing joins the points: finish the trace so far and start afresh. */
+                    matches.addAll(emit(best(states)));
+                    for (State s : candidates) {
+                        s.score = 0;
+                        s.previous = null;
+                    }
+                } else {
+                    candidates.removeIf(s -> Double.isInfinite(s.score));
+                }
+            }
+            for (State s : candidates) {
+                s.score += emission(s.error);
+            }
+            states = candidates;
+            lastLon = lon;
+            lastLat = lat;
+            matches.addAll(decide());
+        }
+        nanos += System.nanoTime() - start;
+        return matches;
+    }
+
+    /**
+     * Ends the trace.
+     * @return The matches of every point not yet matched for good.
+     */
+    List<Match> finish() {
+        long start = System.nanoTime();
+        List<Match> matches = states.isEmpty() ? Collections.emptyList() : emit(best(states));
+        states = new ArrayList<>();
+        nanos += System.nanoTime() - start;
+        return matches;
+    }
+
+    /** Returns the number of points added so far. */
+    int points() {
+        return points;
+    }
+
+    /** Returns the time spent matching the points added so far, in nanoseconds. */
+    long nanos() {
+        return nanos;
+    }
+
+    /** Returns the number of points added per second spent matching them. */
+    double pointsPerSecond() {
+        return nanos == 0 ? 0 : points * 1e9 / nanos;
+    }
+
+    /** Returns the nearest spots on the allowed edges near a point, nearest first. */
+    private List<State> candidates(int index, double lon, double lat) {
+        /* Each segment within the radius may be travelled either way. */
+        List<Integer> edges = new ArrayList<>();
+        g.edgeIndex.within(lon, lat, SEARCH_RADIUS, e -> {
+            edges.add(e);
+            edges.add(d.edgeTwin(e));
+        });
+        /* Distances along an edge are measured on a plane scaled to the point's latitude. */
+        double scale = Math.cos(Math.toRadians(lat));
+        List<State> candidates = new ArrayList<>();
+        for (int e : edges) {
+            if (allowed(e)) {
+                int u = tail(e);
+                int v = d.edgeTo(e);
+                double ex = (d.lon(v) - d.lon(u)) * scale;
+                double ey = d.lat(v) - d.lat(u);
+                double px = (lon - d.lon(u)) * scale;
+                double py = lat - d.lat(u);
+                double length = ex * ex + ey * ey;
+                double t = length == 0 ? 0 : Math.max(0, Math.min(1, (px * ex + py * ey) / length));
+                double snappedLon = d.lon(u) + t * (d.lon(v) - d.lon(u));
+                double snappedLat = d.lat(u) + t * (d.lat(v) - d.lat(u));
+                double error = GraphDB.distance(lon, lat, snappedLon, snappedLat);
+                if (error <= SEARCH_RADIUS) {
+                    candidates.add(new State(index, e, t, snappedLon, snappedLat, error));
+                }
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(a.error, b.error));
+        return candidates.size() > MAX_CANDIDATES
+                ? new ArrayList<>(candidates.subList(0, MAX_CANDIDATES)) : candidates;
+    }
+
+    private boolean allowed(int e) {
+        return weights == null || weights.get(e) < Float.POSITIVE_INFINITY;
+    }
+
+    /** Returns the log-likelihood of a candidate as far from its point as given. */
+    private static double emission(double error) {
+        return -0.5 * (error / SIGMA) * (error / SIGMA);
+    }
+
+    /**
+     * Scores each candidate by the likeliest step to it from the current states, by routing from
+     * every current state to all of the candidates at once.
+     */
+    private void transition(List<State> candidates, double straight) {
+        for (State c : candidates) {
+            c.score = Double.NEGATIVE_INFINITY;
+        }
+        double bound = MAX_DETOUR * straight + 2 * SEARCH_RADIUS;
+        for (State s : states) {
+            double length = d.edgeLength(s.edge);
+            int head = d.edgeTo(s.edge);
+            SearchWorkspace ws = SearchWorkspace.forThread(d.size());
+            ws.relax(head, (1 - s.t) * length, -1, (1 - s.t) * length);
+            sweep(ws, bound);
+            for (State c : candidates) {
+                double miles;
+                int[] route;
+                if (c.edge == s.edge && c.t >= s.t) {
+                    miles = (c.t - s.t) * length;
+                    route = new int[0];
+                } else {
+                    int tail = tail(c.edge);
+                    if (!ws.settled(tail)) {
+                        continue;
+                    }
+                    miles = ws.cost(tail) + c.t * d.edgeLength(c.edge);
+                    route = path(ws, tail);
+                }
+                double score = s.score - Math.abs(miles - straight) / BETA;
+                if (score > c.score) {
+                    c.score = score;
+                    c.previous = s;
+                    c.route = route;
+                }
+            }
+        }
+    }
+
+    /** Settles every vertex within the bound of the workspace's start. */
+    private void sweep(SearchWorkspace ws, double bound) {
+        while (!ws.isEmpty()) {
+            int v = ws.poll();
+            double cost = ws.cost(v);
+            for (int e = d.edgeStart(v); e < d.edgeEnd(v); e += 1) {
+                double c = cost + d.edgeLength(e);
+                if (c <= bound && allowed(e)) {
+                    ws.relax(d.edgeTo(e), c, v, c);
+                }
+            }
+        }
+    }
+
+    /** Returns the vertex an edge leaves, the head of its twin. */
+    private int tail(int e) {
+        return d.edgeTo(d.edgeTwin(e));
+    }
+
+    private static int[] path(SearchWorkspace ws, int v) {
+        int length = 0;
+        for (int u = v; u != -1; u = ws.parent(u)) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        for (int u = v; u != -1; u = ws.parent(u)) {
+            length -= 1;
+            path[length] = u;
+        }
+        return path;
+    }
+
+    private static State best(List<State> states) {
+        State best = states.get(0);
+        for (State s : states) {
+            if (s.score > best.score) {
+                best = s;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Matches for good the points every current sequence agrees on, or if the oldest undecided
+     * point is too far behind, the points the likeliest sequence holds up to the lag limit.
+     */
+    private List<Match> decide() {
+        Set<State> ancestors = new HashSet<>(states);
+        while (ancestors.size() > 1 && !ancestors.contains(null)) {
+            Set<State> previous = new HashSet<>();
+            for (State s : ancestors) {
+                previous.add(s.previous);
+            }
+            ancestors = previous;
+        }
+        State agreed = ancestors.size() == 1 ? ancestors.iterator().next() : null;
+        if (agreed != null && agreed.index > emitted) {
+            return emit(agreed);
+        }
+        int current = states.get(0).index;
+        if (current - emitted <= MAX_LAG) {
+            return Collections.emptyList();
+        }
+        State anchor = best(states);
+        while (anchor.index > current - MAX_LAG) {
+            anchor = anchor.previous;
+        }
+        List<State> kept = new ArrayList<>();
+        for (State s : states) {
+            State a = s;
+            while (a != null && a.index > anchor.index) {
+                a = a.previous;
+            }
+            if (a == anchor) {
+                kept.add(s);
+            }
+        }
+        states = kept;
+        return emit(anchor);
+    }
+
+    /** Matches for good a state and the undecided states of its sequence before it. */
+    private List<Match> emit(State last) {
+        List<State> chain = new ArrayList<>();
+        for (State s = last; s != null && s.index > emitted; s = s.previous) {
+            chain.add(s);
+        }
+        List<Match> matches = new ArrayList<>(chain.size());
+        for (int i = chain.size() - 1; i >= 0; i -= 1) {
+            State s = chain.get(i);
+            List<Long> route = null;
+            if (s.previous != null) {
+                route = new ArrayList<>(s.route.length);
+                for (int v : s.route) {
+                    route.add(d.id(v));
+                }
+            }
+            matches.add(new Match(s.index, d.id(tail(s.edge)), d.id(d.edgeTo(s.edge)), s.lon,
+                    s.lat, s.error, route));
+        }
+        emitted = last.index;
+        /* Nothing before a decided state is needed again. */
+        last.previous = null;
+        return matches;
+    }
+}
@@ -1,20 +1,29 @@
 import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.BasicStroke;
-import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import spark.Request;
+import spark.Route;
+
 import static spark.Spark.*;
 
 /**
@@ -44,37 +53,121 @@ public class MapServer {
     /** The difference between the upper-most and lower-most latitudes of the map. */
     public static final double ROOT_LAT_DELTA = Math.abs(ROOT_ULLAT - ROOT_LRLAT);
 
-    /** The <code>GraphDB</code>responsible for managing map data. */
-    private static GraphDB graph;
+    /**
+     * The <code>GraphDB</code>responsible for managing map data, set once the
+     * <code>graph</code> stage of <code>startup</code> has loaded it.
+     */
+    private static volatile GraphDB graph;
     /** The <code>Rasterer</code> responsible for computing the shortest path and directions. */
     private static Rasterer rasterer;
     /**
-     * The most recently-requested shortest-paths route. The <code>renderImage</code> method redraws
-     * this route every time a new rastering result is requested from the browser.
+     * The requested shortest-paths routes, keyed by route ID. Routes are drawn as transparent
+     * overlay tiles on top of the base map so that <code>renderImage</code> never redraws them.
      */
-    private static List<Long> route;
+    private static volatile RouteOverlay routeOverlay;
     /** The configured Gson Java serializer. */
     private static Gson gson;
+    /**
+     * The worker pools for each group of endpoints, or <code>null</code> when running in the
+     * shared execution mode, where every request is handled on Jetty's request threads. The
+     * batch endpoints, <code>/matrix</code>, <code>/isochrone</code> and <code>/match</code>,
+     * can each take a worker for most of a second, so they have a pool of their own and never
+     * hold up <code>/route</code>.
+     */
+    private static EndpointExecutor rasterPool, routePool, batchPool, searchPool;
+    /** Deduplicates concurrent renders of the same tile grid, keyed by <code>gridKey</code>. */
+    private static final SingleFlight<String, String> rasterFlight = new SingleFlight<>();
+    /** Points matched by <code>/match</code>, and the time spent matching them. */
+    private static final AtomicLong matchedPoints = new AtomicLong(), matchNanos = new AtomicLong();
+    /**
+     * Deduplicates concurrent searches between the same snapped start and end vertices. Only
+     * the search and directions are shared; each request registers its own overlays.
+     */
+    private static final SingleFlight<String, RouteSearch> routeFlight = new SingleFlight<>();
+    /**
+     * Routes between pairs of snapped vertices, for the graph currently loaded, or
+     * <code>null</code> until one is. <code>loadGraph</code> makes a new cache with each graph.
+     */
+    private static volatile RouteCache routeCache;
+    /** Time spent in each stage of a <code>/raster</code> request, in the order they run. */
+    private static final LatencyHistogram RASTER_PLAN = rasterStage("plan"),
+            RASTER_TILE_READ = rasterStage("tile_read"),
+            RASTER_COMPOSITE = rasterStage("composite"),
+            RASTER_ENCODE = rasterStage("png_encode"),
+            RASTER_BASE64 = rasterStage("base64"),
+            RASTER_JSON = rasterStage("json");
+    /**
+     * The stages <code>main</code> runs in the background: loading the graph and building its
+     * indexes, and warming <code>TILE_CACHE</code>.
+     */
+    private static Startup startup;
+    /**
+     * Decoded base map tiles no deeper than <code>TILE_CACHE_DEPTH</code>, which cover so much
+     * of the map that nearly every zoomed-out view reads them.
+     */
+    private static final Map<String, BufferedImage> TILE_CACHE = new ConcurrentHashMap<>();
+    /** Base map tiles read from disk by <code>renderImage</code>. */
+    private static final LongAdder TILES_READ = Metrics.counter(
+            "bearmaps_raster_tiles_read_total", "Base map tiles read from disk.");
 
     /**
      * Code responsible for initializing variables. These objects must be instantiated
      * independently of the main method for the tests to function properly.
      */
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        initializeRaster();
+        loadGraph();
+    }
+
+    /** Initializes everything <code>/raster</code> needs, which is quick to build. */
+    private static void initializeRaster() {
         rasterer = new Rasterer();
-        route = Collections.emptyList();
         gson = new GsonBuilder()
                 .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
                 .create();
     }
 
+    /**
+     * Loads the graph, building its indexes, and makes the overlay routes on it are drawn from
+     * and a new cache for the routes searched on it.
+     */
+    private static void loadGraph() {
+        GraphDB loaded = GraphSnapshot.loadOrBuild(OSM_DB_PATH, SNAPSHOT_PATH);
+        routeOverlay = new RouteOverlay(loaded);
+        routeCache = new RouteCache(Integer.getInteger("bearmaps.route.cache", 4096));
+        graph = loaded;
+    }
+
     /**
      * Launch the <code>mapServer</code>, register server routes, and listen on the default port.
+     * The graph is loaded and the tile cache warmed in the background meanwhile; until the graph
+     * is loaded, the endpoints that need it answer 503, and <code>/ready</code> reports when
+     * every stage has finished.
      * @param args Ignored
      */
     public static void main(String[] args) {
-        initialize();
+        initializeRaster();
+        startup = new Startup("graph", "tiles");
+        if (!"shared".equals(System.getProperty("bearmaps.executor"))) {
+            rasterPool = new EndpointExecutor("raster",
+                    Integer.getInteger("bearmaps.raster.threads", PROCESSORS),
+                    Integer.getInteger("bearmaps.raster.queue", 4 * PROCESSORS));
+            routePool = new EndpointExecutor("route",
+                    Integer.getInteger("bearmaps.route.threads", PROCESSORS),
+                    Integer.getInteger("bearmaps.route.queue", 16 * PROCESSORS));
+            batchPool = new EndpointExecutor("batch",
+                    Integer.getInteger("bearmaps.batch.threads", Math.max(1, PROCESSORS / 2)),
+                    Integer.getInteger("bearmaps.batch.queue", 2 * PROCESSORS));
+            searchPool = new EndpointExecutor("search",
+                    Integer.getInteger("bearmaps.search.threads", 2),
+                    Integer.getInteger("bearmaps.search.queue", 16 * PROCESSORS));
+            /* Every pool can be full at once without running Jetty out of request threads. */
+            threadPool(rasterPool.capacity() + routePool.capacity() + batchPool.capacity()
+                    + searchPool.capacity() + JETTY_RESERVED_THREADS);
+        }
+        registerMetrics();
+        startup.run("graph", MapServer::loadGraph);
+        startup.run("tiles", MapServer::warmTileCache);
         staticFileLocation("/page");
         /* Allow for all origin requests since this is not an authenticated server. */
         before((request, response) -> {
@@ -83,64 +176,271 @@ public class MapServer {
             response.header("Access-Control-Allow-Headers", "*");
         });
 
+        /* Tell clients of a full endpoint pool to back off rather than making them wait. */
+        exception(RejectedExecutionException.class, (e, request, response) -> {
+            response.status(BUSY_RESPONSE);
+            response.header("Retry-After", "1");
+            response.body(e.getMessage());
+        });
+
         /* Define the raster endpoint for HTTP GET requests. */
-        get("/raster", (req, res) -> {
+        get("/raster", timed("raster", onPool(rasterPool, (req, res) -> {
             RasterResultParams resultParams = null;
+            long start = System.nanoTime();
             try {
                 RasterRequestParams params = RasterRequestParams.from(req.queryMap().toMap());
                 resultParams = rasterer.getMapRaster(params);
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
+            RASTER_PLAN.recordSince(start);
+            if (!resultParams.querySuccess) {
+                return gson.toJson(resultParams);
+            }
+            /* Viewports that snap to the same tiles share one render. */
+            final RasterResultParams snapped = resultParams;
+            return rasterFlight.run(gridKey(snapped), () -> renderRaster(snapped));
+        })));
+
+        /* Define the routing endpoint for HTTP GET requests. Either a start and an end, with
+           optional alternative routes, or a list of waypoints, which may be reordered to
+           shorten the route through them. A start and an end may instead be snapped to the
+           nearest points on roads rather than the nearest intersections with snap=edge. */
+        get("/route", timed("route", needsGraph(onPool(routePool, (req, res) -> {
+            List<double[]> points = null;
+            RoutingProfile profile = null;
+            int alternatives = 1;
+            boolean snapToEdges = false;
+            try {
+                if (req.queryParams("waypoints") != null) {
+                    points = parsePoints("waypoints", req.queryParams("waypoints"),
+                            MAX_WAYPOINTS);
+                    if (points.size() < 2) {
+                        throw new IllegalArgumentException(
+                                "Incorrect parameters: fewer than 2 waypoints.");
+                    }
+                } else {
+                    RouteRequestParams params = RouteRequestParams.from(req.queryMap().toMap());
+                    points = Arrays.asList(new double[]{params.startLon, params.startLat},
+                            new double[]{params.endLon, params.endLat});
+                }
+                profile = RoutingProfile.forName(req.queryParams("profile"));
+                alternatives = parseAlternatives(req.queryParams("alternatives"), points.size());
+                snapToEdges = parseSnap(req.queryParams("snap"), points.size(), alternatives);
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            final int routes = alternatives;
+            final RoutingProfile chosen = profile;
+            if (snapToEdges) {
+                EdgeIndex.Snap start = graph.snap(points.get(0)[0], points.get(0)[1]);
+                EdgeIndex.Snap dest = graph.snap(points.get(1)[0], points.get(1)[1]);
+                String key = start.edge + "@" + start.t + ":" + dest.edge + "@" + dest.t + ":"
+                        + chosen.name;
+                return gson.toJson(routeFlight.run(key, () -> snappedRoute(start, dest,
+                        chosen)).register(routeOverlay));
+            }
+            List<Long> waypoints = new ArrayList<>(points.size());
+            for (double[] point : points) {
+                waypoints.add(graph.closest(point[0], point[1]));
+            }
+            boolean optimize = "true".equals(req.queryParams("optimize"));
+            boolean keepLast = "true".equals(req.queryParams("keep_last"));
+            /* Requests that snap to the same waypoints under the same options share one search. */
+            String key = waypoints + ":" + chosen.name + (optimize ? ":" + keepLast : "")
+                    + (routes > 1 ? ":" + routes : "");
+            RouteSearch search = routeFlight.run(key, () -> {
+                if (routes > 1) {
+                    return alternativeRoutes(waypoints.get(0), waypoints.get(1), chosen,
+                            routes);
+                }
+                int[] order = null;
+                List<Long> stops = waypoints;
+                if (optimize) {
+                    order = Router.optimizeOrder(graph, waypoints, chosen, keepLast);
+                    stops = new ArrayList<>(order.length);
+                    for (int i : order) {
+                        stops.add(waypoints.get(i));
+                    }
+                }
+                RouteCache.Route route = route(stops, chosen);
+                return new RouteSearch(Collections.singletonList(route.vertices),
+                        route.directions, order, null, null, false);
+            });
+            return gson.toJson(search.register(routeOverlay));
+        }))));
+
+        /* Define the endpoint computing route costs between many origins and destinations. */
+        get("/matrix", timed("matrix", needsGraph(onPool(batchPool, (req, res) -> {
+            List<double[]> origins = null;
+            List<double[]> destinations = null;
+            RoutingProfile profile = null;
             try {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                BufferedImage img = renderImage(resultParams);
-                ImageIO.write(img, "png", os);
-                return gson.toJson(
-                        new RenderedRasterResultParams(
-                                resultParams, img.getWidth(), img.getHeight(),
-                                Base64.getEncoder().encodeToString(os.toByteArray())
-                        ));
-            } catch (IOException e) {
-                e.printStackTrace();
+                origins = parsePoints("origins", req.queryParams("origins"),
+                        MAX_MATRIX_POINTS);
+                destinations = parsePoints("destinations", req.queryParams("destinations"),
+                        MAX_MATRIX_POINTS);
+                profile = RoutingProfile.forName(req.queryParams("profile"));
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
             }
-            /* Return the best-effort resultParams when unable to render image. */
-            return gson.toJson(resultParams);
-        });
+            double[][] costs = Router.matrix(graph, origins, destinations, profile);
+            return gson.toJson(new MatrixResultParams(profile, costs));
+        }))));
 
-        /* Define the routing endpoint for HTTP GET requests. */
-        get("/route", (req, res) -> {
-            RouteRequestParams  params = null;
+        /* Define the endpoint outlining everything reachable from a point within a limit. */
+        get("/isochrone", timed("isochrone", needsGraph(onPool(batchPool, (req, res) -> {
+            double[] center = null;
+            double limit = 0;
+            RoutingProfile profile = null;
             try {
-                params = RouteRequestParams.from(req.queryMap().toMap());
+                center = parseLonLat(req);
+                profile = RoutingProfile.forName(req.queryParams("profile"));
+                limit = parseLimit(req.queryParams("limit"), profile);
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
-            route = Router.shortestPath(graph,
-                    params.startLon, params.startLat, params.endLon, params.endLat);
-            String directions = getDirectionsText(Router.routeDirections(graph, route));
-            RouteResultParams routeParams = new RouteResultParams(!route.isEmpty(), directions);
-            return gson.toJson(routeParams);
-        });
+            Isochrone area = Router.isochrone(graph, center[0], center[1], limit, profile);
+            List<double[][]> polygon = area.polygon();
+            long routeId = routeOverlay.registerArea(polygon);
+            return gson.toJson(new IsochroneResultParams(profile, limit, area, polygon, routeId));
+        }))));
 
-        /* Define the API endpoint for clearing the current route. */
-        get("/clear_route", (req, res) -> {
-            route = Collections.emptyList();
+        /* Define the endpoint snapping a GPS trace to the roads, by GET or, for long traces, by
+           POST with the same parameters as a form. */
+        Route match = timed("match", needsGraph(onPool(batchPool, (req, res) -> {
+            List<double[]> trace = null;
+            RoutingProfile profile = null;
+            try {
+                trace = parsePoints("points", req.queryParams("points"), MAX_TRACE_POINTS);
+                profile = RoutingProfile.forName(req.queryParams("profile"));
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            MapMatcher matcher = new MapMatcher(graph, profile);
+            List<MapMatcher.Match> matches = new ArrayList<>();
+            for (double[] point : trace) {
+                matches.addAll(matcher.add(point[0], point[1]));
+            }
+            matches.addAll(matcher.finish());
+            matchedPoints.addAndGet(matcher.points());
+            matchNanos.addAndGet(matcher.nanos());
+            return gson.toJson(new MatchResultParams(matcher.points(), matches,
+                    matcher.pointsPerSecond()));
+        })));
+        get("/match", match);
+        post("/match", match);
+
+        /* Define the overlay endpoint serving one transparent route tile as a PNG image. */
+        get("/route_overlay", timed("route_overlay", needsGraph(onPool(rasterPool, (req, res) -> {
+            byte[] tile = null;
+            try {
+                tile = routeOverlay.tile(parseRouteId(req.queryParams("route_id")),
+                        req.queryParams("tile"));
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            /* A route ID is never reused, so its tiles can be cached indefinitely. */
+            res.type("image/png");
+            res.header("Cache-Control", "public, max-age=31536000, immutable");
+            return tile;
+        }))));
+
+        /* Define the API endpoint for clearing a route. */
+        get("/clear_route", timed("clear_route", needsGraph((req, res) -> {
+            String routeId = req.queryParams("route_id");
+            if (routeId != null) {
+                try {
+                    routeOverlay.remove(parseRouteId(routeId));
+                } catch (IllegalArgumentException e) {
+                    halt(HALT_RESPONSE, e.getMessage());
+                }
+            }
             return true;
-        });
+        })));
 
         /* Define the API endpoint for search */
-        get("/search", (req, res) -> {
+        get("/search", timed("search", needsGraph(onPool(searchPool, (req, res) -> {
             String term = req.queryParams("term");
+            double[] center = null;
+            try {
+                center = parseSearchCenter(req);
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
             /* Search for actual location data. */
             if (req.queryParams().contains("full")) {
-                List<LocationParams> data = graph.getLocations(term);
+                List<LocationParams> data = center == null ? graph.getLocations(term)
+                        : graph.getLocations(term, center[0], center[1]);
                 return gson.toJson(data);
             } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = graph.getLocationsByPrefix(term);
+                /* Search for the most popular prefix matching strings. */
+                int limit = SEARCH_LIMIT;
+                if (req.queryParams("limit") != null) {
+                    try {
+                        limit = Integer.parseInt(req.queryParams("limit"));
+                    } catch (NumberFormatException e) {
+                        halt(HALT_RESPONSE, "Incorrect parameters: unable to parse limit.");
+                    }
+                }
+                List<String> matches;
+                if (req.queryParams().contains("fuzzy")) {
+                    matches = graph.getLocationsFuzzy(term, limit);
+                } else {
+                    if (center != null) {
+                        /* Rank by distance from the given point or viewport instead. */
+                        matches = graph.getLocationsByPrefix(term, limit, center[0], center[1]);
+                    } else {
+                        matches = graph.getLocationsByPrefix(term, limit);
+                    }
+                    /* Fall back to typo-tolerant matching when nothing starts with the term. */
+                    if (matches.isEmpty()) {
+                        matches = graph.getLocationsFuzzy(term, limit);
+                    }
+                }
                 return gson.toJson(matches);
             }
+        }))));
+
+        /* Define the API endpoint reporting how many requests were coalesced. */
+        get("/stats", (req, res) -> {
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("raster_requests", rasterFlight.requestCount());
+            stats.put("raster_coalesced", rasterFlight.coalescedCount());
+            stats.put("route_requests", routeFlight.requestCount());
+            stats.put("route_coalesced", routeFlight.coalescedCount());
+            stats.put("route_cache_hits", routeCacheStat(RouteCache::hitCount));
+            stats.put("route_cache_misses", routeCacheStat(RouteCache::missCount));
+            stats.put("match_points", matchedPoints.get());
+            stats.put("match_points_per_second", matchNanos.get() == 0 ? 0
+                    : matchedPoints.get() * 1000000000L / matchNanos.get());
+            return gson.toJson(stats);
+        });
+
+        /* Define the endpoint exposing the server's metrics for Prometheus to scrape. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return Metrics.scrape();
+        });
+
+        /* Define the endpoint telling an orchestrator the server is alive and how far each
+           startup stage has got. It only fails once a stage has, since the server cannot then
+           become ready without a restart. */
+        get("/health", (req, res) -> {
+            res.type("application/json");
+            if (startup.hasFailed()) {
+                res.status(FAILED_RESPONSE);
+            }
+            return gson.toJson(startup.status());
+        });
+
+        /* Define the endpoint telling an orchestrator whether every startup stage is done. */
+        get("/ready", (req, res) -> {
+            res.type("application/json");
+            if (!startup.isReady()) {
+                res.status(BUSY_RESPONSE);
+            }
+            return gson.toJson(startup.status());
         });
 
         /* Define map application redirect */
@@ -151,9 +451,164 @@ public class MapServer {
     }
 
     /**
-     * Return the image defined by the <code>resultParams</code>.
+     * Returns a route that is handled on the given endpoint pool.
+     * @param pool The pool to handle requests on, or <code>null</code> in shared mode.
+     * @param route The route to handle.
+     * @return The route to register with Spark.
+     */
+    private static Route onPool(EndpointExecutor pool, Route route) {
+        return pool == null ? route : pool.wrap(route);
+    }
+
+    /**
+     * Returns a statistic of the current route cache, or 0 before the graph has been loaded.
+     * @param stat The statistic to read from the cache.
+     * @return The statistic's value.
+     */
+    private static long routeCacheStat(ToLongFunction<RouteCache> stat) {
+        RouteCache cache = routeCache;
+        return cache == null ? 0 : stat.applyAsLong(cache);
+    }
+
+    /**
+     * Returns a route that answers 503 until the graph has been loaded, rather than queueing
+     * requests that need it.
+     * @param route The route to handle once the graph is loaded.
+     * @return The route to register with Spark.
+     */
+    private static Route needsGraph(Route route) {
+        return (req, res) -> {
+            if (graph == null) {
+                res.header("Retry-After", "5");
+                halt(BUSY_RESPONSE, "The map graph is still loading.");
+            }
+            return route.handle(req, res);
+        };
+    }
+
+    /**
+     * Blocks until every startup stage of the server started by <code>main</code> is done.
+     * @throws IllegalStateException If a stage failed.
+     */
+    static void awaitReady() throws InterruptedException {
+        startup.await();
+    }
+
+    /**
+     * Returns a route that records how long each request to an endpoint takes, from when Jetty
+     * hands it over, including any wait for its pool, to when the response is ready.
+     * @param endpoint The endpoint's name, as it is labelled in <code>/metrics</code>.
+     * @param route The route to time.
+     * @return The route to register with Spark.
+     */
+    private static Route timed(String endpoint, Route route) {
+        LatencyHistogram latency = Metrics.timer("bearmaps_request_seconds",
+                "Time taken to handle a request, by endpoint.", "endpoint", endpoint);
+        return (req, res) -> {
+            long start = System.nanoTime();
+            try {
+                return route.handle(req, res);
+            } finally {
+                latency.recordSince(start);
+            }
+        };
+    }
+
+    /** Registers the metrics read from counts the server already keeps elsewhere. */
+    private static void registerMetrics() {
+        String requests = "Requests for work that concurrent identical requests could share.";
+        String coalesced = "Requests that shared the work of a concurrent identical request.";
+        Metrics.counter("bearmaps_singleflight_requests_total", requests,
+                rasterFlight::requestCount, "flight", "raster");
+        Metrics.counter("bearmaps_singleflight_requests_total", requests,
+                routeFlight::requestCount, "flight", "route");
+        Metrics.counter("bearmaps_singleflight_coalesced_total", coalesced,
+                rasterFlight::coalescedCount, "flight", "raster");
+        Metrics.counter("bearmaps_singleflight_coalesced_total", coalesced,
+                routeFlight::coalescedCount, "flight", "route");
+        Metrics.counter("bearmaps_match_points_total", "GPS points matched by /match.",
+                matchedPoints::get);
+        Metrics.counter("bearmaps_cache_requests_total", "Cache lookups, by cache and result.",
+                () -> routeCacheStat(RouteCache::hitCount), "cache", "routes", "result", "hit");
+        Metrics.counter("bearmaps_cache_requests_total", "Cache lookups, by cache and result.",
+                () -> routeCacheStat(RouteCache::missCount), "cache", "routes", "result", "miss");
+        Metrics.gauge("bearmaps_cache_entries", "Entries held, by cache.",
+                () -> routeCacheStat(RouteCache::size), "cache", "routes");
+        Metrics.gauge("bearmaps_cache_entries", "Entries held, by cache.",
+                () -> TILE_CACHE.size(), "cache", "tiles");
+        Metrics.gauge("bearmaps_ready", "Whether every startup stage has finished.",
+                () -> startup.isReady() ? 1 : 0);
+        if (rasterPool != null) {
+            for (EndpointExecutor pool : Arrays.asList(rasterPool, routePool, batchPool,
+                    searchPool)) {
+                Metrics.counter("bearmaps_pool_rejected_total",
+                        "Requests turned away because an endpoint pool was full.",
+                        pool::rejectedCount, "pool", pool.name());
+                Metrics.gauge("bearmaps_pool_queued_requests",
+                        "Requests waiting for a worker of an endpoint pool.",
+                        pool::queued, "pool", pool.name());
+            }
+        }
+    }
+
+    private static LatencyHistogram rasterStage(String stage) {
+        return Metrics.timer("bearmaps_raster_stage_seconds",
+                "Time spent in each stage of a /raster request.", "stage", stage);
+    }
+
+    /**
+     * Records the time since <code>start</code> in a stage's histogram.
+     * @return The time the stage ended, where the next one starts.
+     */
+    private static long lap(LatencyHistogram stage, long start) {
+        long now = System.nanoTime();
+        stage.record(now - start);
+        return now;
+    }
+
+    /**
+     * Returns the key identifying the image rendered for <code>resultParams</code>, which only
+     * depends on the depth and position of the tiles in the render grid.
+     * @param resultParams A successful <code>RasterResultParams</code>.
+     * @return The key for <code>rasterFlight</code>.
+     */
+    private static String gridKey(RasterResultParams resultParams) {
+        String[][] grid = resultParams.renderGrid;
+        return grid[0][0] + "/" + grid.length + "x" + grid[0].length;
+    }
+
+    /**
+     * Renders the image for <code>resultParams</code> and returns the JSON response carrying it.
+     * @param resultParams A successful <code>RasterResultParams</code>.
+     * @return The JSON response for <code>/raster</code>.
+     */
+    private static String renderRaster(RasterResultParams resultParams) {
+        try {
+            BufferedImage img = renderImage(resultParams);
+            long start = System.nanoTime();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(img, "png", os);
+            start = lap(RASTER_ENCODE, start);
+            String encoded = Base64.getEncoder().encodeToString(os.toByteArray());
+            start = lap(RASTER_BASE64, start);
+            String json = gson.toJson(
+                    new RenderedRasterResultParams(
+                            resultParams, img.getWidth(), img.getHeight(), encoded
+                    ));
+            lap(RASTER_JSON, start);
+            return json;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        /* Return the best-effort resultParams when unable to render image. */
+        return gson.toJson(resultParams);
+    }
+
+    /**
+     * Return the base map image defined by the <code>resultParams</code>. Routes are not drawn
+     * here; they are served separately as overlay tiles from <code>/route_overlay</code>.
      * @param resultParams <code>RasterResultParams</code> from <code>Rasterer.getMapRaster</code>
-     * @return The final, rastered image including any shortest-paths routes.
+     * @return The final, rastered image of the base map.
      */
     private static BufferedImage renderImage(RasterResultParams resultParams) {
         String[][] renderGrid = resultParams.renderGrid;
@@ -164,9 +619,15 @@ public class MapServer {
                 numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics graphic = img.getGraphics();
         int x = 0, y = 0;
+        long reading = 0, drawing = 0;
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(readImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
+                long start = System.nanoTime();
+                BufferedImage tile = tile(renderGrid[r][c]);
+                long read = System.nanoTime();
+                graphic.drawImage(tile, x, y, null);
+                reading += read - start;
+                drawing += System.nanoTime() - read;
                 x += MapServer.TILE_SIZE;
                 if (x >= img.getWidth()) {
                     x = 0;
@@ -174,29 +635,42 @@ public class MapServer {
                 }
             }
         }
-        /* If there is a route, draw it. */
-        if (route != null && !route.isEmpty()) {
-            double ullon = resultParams.rasterUlLon;
-            double ullat = resultParams.rasterUlLat;
-            double lrlon = resultParams.rasterLrLon;
-            double lrlat = resultParams.rasterLrLat;
-            double wdpp = (lrlon - ullon) / img.getWidth();
-            double hdpp = (ullat - lrlat) / img.getHeight();
-            Graphics2D g2d = (Graphics2D) graphic;
-            g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
-            g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                        (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                        (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
-        }
+        RASTER_TILE_READ.record(reading);
+        RASTER_COMPOSITE.record(drawing);
         return img;
     }
 
+    /**
+     * Returns a base map tile, from <code>TILE_CACHE</code> if it is shallow enough to be kept.
+     * @param file The tile's file name, as in a render grid.
+     * @return The tile's image.
+     */
+    private static BufferedImage tile(String file) {
+        /* Tile names start with "d" and their single-digit depth. */
+        if (file.charAt(1) - '0' > TILE_CACHE_DEPTH) {
+            return readImage(IMG_ROOT + file);
+        }
+        BufferedImage cached = TILE_CACHE.get(file);
+        if (cached == null) {
+            cached = readImage(IMG_ROOT + file);
+            if (cached != null) {
+                TILE_CACHE.put(file, cached);
+            }
+        }
+        return cached;
+    }
+
+    /** Reads every tile no deeper than <code>TILE_CACHE_DEPTH</code> into the cache. */
+    private static void warmTileCache() {
+        for (int depth = 0; depth <= Math.min(TILE_CACHE_DEPTH, Rasterer.MAX_DEPTH); depth += 1) {
+            for (int x = 0; x < 1 << depth; x += 1) {
+                for (int y = 0; y < 1 << depth; y += 1) {
+                    tile("d" + depth + "_x" + x + "_y" + y + ".png");
+                }
+            }
+        }
+    }
+
     /**
      * Returns the image found at the given <code>imgPath</code>.
      * @param imgPath <code>String</code> path to the image.
@@ -205,6 +679,7 @@ public class MapServer {
     private static BufferedImage readImage(String imgPath) {
         BufferedImage tileImg = null;
         File in = new File(imgPath);
+        TILES_READ.increment();
         try {
             tileImg = ImageIO.read(in);
         } catch (IOException e) {
@@ -213,6 +688,266 @@ public class MapServer {
         return tileImg;
     }
 
+    /**
+     * Returns the route through the given stops and its directions, from
+     * <code>routeCache</code> if it only has a start and an end that were routed before.
+     * @param stops The IDs of the vertices to route through, in order.
+     * @param profile How to cost the route.
+     * @return The route, whose vertices are empty if some stop cannot be reached.
+     */
+    private static RouteCache.Route route(List<Long> stops, RoutingProfile profile) {
+        boolean cacheable = stops.size() == 2;
+        if (cacheable) {
+            RouteCache.Route cached = routeCache.get(stops.get(0), stops.get(1), profile);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        List<Long> vertices = Router.shortestPath(graph, stops, profile);
+        RouteCache.Route route = new RouteCache.Route(vertices,
+                getDirectionsText(Router.routeDirections(graph, vertices)));
+        if (cacheable) {
+            routeCache.put(stops.get(0), stops.get(1), profile, route);
+        }
+        return route;
+    }
+
+    /**
+     * Parses the route ID query parameter.
+     * @param routeId The <code>route_id</code> query parameter.
+     * @return The route ID.
+     * @throws IllegalArgumentException If the route ID is missing or not a number.
+     */
+    private static long parseRouteId(String routeId) {
+        if (routeId == null) {
+            throw new IllegalArgumentException("Request failed: route_id not found.");
+        }
+        try {
+            return Long.parseLong(routeId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Incorrect parameters: unable to parse route_id.");
+        }
+    }
+
+    /**
+     * Routes between two vertices with alternatives.
+     * @return The routes, best first, and the best route's directions.
+     */
+    private static RouteSearch alternativeRoutes(long start, long dest, RoutingProfile profile,
+                                                 int k) {
+        List<List<Long>> routes = Router.alternatives(graph, start, dest, profile, k);
+        if (routes.isEmpty()) {
+            return new RouteSearch(routes, "", null, null, null, true);
+        }
+        String directions = getDirectionsText(Router.routeDirections(graph, routes.get(0)));
+        return new RouteSearch(routes, directions, null, null, null, true);
+    }
+
+    /**
+     * Routes between two points on roads.
+     * @return The route and its directions.
+     */
+    private static RouteSearch snappedRoute(EdgeIndex.Snap start, EdgeIndex.Snap dest,
+                                            RoutingProfile profile) {
+        List<Long> route = Router.shortestPath(graph, start, dest, profile);
+        if (route == null) {
+            return new RouteSearch(Collections.emptyList(), "", null, null, null, false);
+        }
+        String directions = getDirectionsText(Router.routeDirections(graph, start, route,
+                dest));
+        return new RouteSearch(Collections.singletonList(route), directions, null, start, dest,
+                false);
+    }
+
+    /**
+     * The routes one search found, which every request <code>routeFlight</code> coalesces into
+     * it shares. Overlays are registered per request, so a client clearing its route never
+     * removes another's.
+     */
+    private static class RouteSearch {
+        /** The routes found, best first; none, or one with no vertices, if routing failed. */
+        private final List<List<Long>> routes;
+        private final String directions;
+        /** The order the waypoints were visited in, or null if they were visited as given. */
+        private final int[] order;
+        /** The points on roads the route ends at, or null if it runs between vertices. */
+        private final EdgeIndex.Snap start, dest;
+        /** Whether alternatives were asked for, so their IDs are reported even if none. */
+        private final boolean alternatives;
+
+        private RouteSearch(List<List<Long>> routes, String directions, int[] order,
+                            EdgeIndex.Snap start, EdgeIndex.Snap dest, boolean alternatives) {
+            this.routes = routes;
+            this.directions = directions;
+            this.order = order;
+            this.start = start;
+            this.dest = dest;
+            this.alternatives = alternatives;
+        }
+
+        /**
+         * Registers the routes found for overlay tiles.
+         * @param overlay The overlay to register them with.
+         * @return The response to one request, with IDs of its own.
+         */
+        private RouteResultParams register(RouteOverlay overlay) {
+            boolean found = !routes.isEmpty() && !routes.get(0).isEmpty();
+            long routeId = 0;
+            long[] alternativeIds = alternatives ? new long[Math.max(0, routes.size() - 1)]
+                    : null;
+            if (found) {
+                List<Long> best = routes.get(0);
+                routeId = start == null ? overlay.register(best)
+                        : overlay.register(start, best, dest);
+                for (int i = 1; i < routes.size(); i++) {
+                    alternativeIds[i - 1] = overlay.register(routes.get(i));
+                }
+            }
+            return new RouteResultParams(found, directions, routeId, order, alternativeIds);
+        }
+    }
+
+    /**
+     * Parses how to snap the ends of a route to the graph.
+     * @param snap The query parameter: "vertex", the default, for the nearest intersections, or
+     *             "edge" for the nearest points on roads.
+     * @param points The number of points routed through, which must be two to snap to edges.
+     * @param alternatives The number of routes asked for, which must be one to snap to edges.
+     * @return Whether to snap to edges.
+     * @throws IllegalArgumentException If the parameter is unknown, or is "edge" with waypoints
+     * or alternatives.
+     */
+    private static boolean parseSnap(String snap, int points, int alternatives) {
+        if (snap == null || snap.equals("vertex")) {
+            return false;
+        }
+        if (!snap.equals("edge")) {
+            throw new IllegalArgumentException(String.format(
+                    "Incorrect parameters: unknown snap %s.", snap));
+        }
+        if (points > 2 || alternatives > 1) {
+            throw new IllegalArgumentException(
+                    "Incorrect parameters: snap=edge needs a single start and end.");
+        }
+        return true;
+    }
+
+    /**
+     * Parses how many routes to return.
+     * @param alternatives The query parameter, or null for one.
+     * @param points The number of points routed through, which must be two for more than one.
+     * @return The number of routes, from 1 to <code>MAX_ALTERNATIVES</code>.
+     * @throws IllegalArgumentException If the parameter is malformed or out of range, or given
+     * with waypoints.
+     */
+    private static int parseAlternatives(String alternatives, int points) {
+        if (alternatives == null) {
+            return 1;
+        }
+        int k;
+        try {
+            k = Integer.parseInt(alternatives);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Incorrect parameters: unable to parse alternatives %s.", alternatives));
+        }
+        if (k < 1 || k > MAX_ALTERNATIVES) {
+            throw new IllegalArgumentException(String.format(
+                    "Incorrect parameters: alternatives must be between 1 and %d.",
+                    MAX_ALTERNATIVES));
+        }
+        if (k > 1 && points > 2) {
+            throw new IllegalArgumentException(
+                    "Incorrect parameters: alternatives need a single start and end.");
+        }
+        return k;
+    }
+
+    /**
+     * Parses a list of points given as <code>lon,lat</code> pairs separated by semicolons.
+     * @param param The name of the query parameter, for error messages.
+     * @param points The query parameter.
+     * @param max The largest number of points allowed.
+     * @return The points as <code>{lon, lat}</code> pairs.
+     * @throws IllegalArgumentException If the parameter is missing, malformed, or lists more
+     * than <code>max</code> points.
+     */
+    private static List<double[]> parsePoints(String param, String points, int max) {
+        if (points == null || points.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Request failed: %s not found.",
+                    param));
+        }
+        String[] pairs = points.split(";");
+        if (pairs.length > max) {
+            throw new IllegalArgumentException(String.format(
+                    "Incorrect parameters: more than %d %s.", max, param));
+        }
+        List<double[]> result = new ArrayList<>(pairs.length);
+        for (String pair : pairs) {
+            String[] lonLat = pair.split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pair);
+                }
+                result.add(new double[]{Double.parseDouble(lonLat[0]),
+                        Double.parseDouble(lonLat[1])});
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format(
+                        "Incorrect parameters: unable to parse %s.", param));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the required <code>lon</code> and <code>lat</code> parameters of a request.
+     * @param req The request.
+     * @return <code>{lon, lat}</code>.
+     * @throws IllegalArgumentException If either is missing or not a number.
+     */
+    private static double[] parseLonLat(Request req) {
+        String lon = req.queryParams("lon");
+        String lat = req.queryParams("lat");
+        if (lon == null || lat == null) {
+            throw new IllegalArgumentException("Request failed: lon and lat not found.");
+        }
+        try {
+            return new double[]{Double.parseDouble(lon), Double.parseDouble(lat)};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "Incorrect parameters: unable to parse lon and lat.");
+        }
+    }
+
+    /**
+     * Parses the cost limit of an isochrone.
+     * @param limit The query parameter, in miles for the distance profile and seconds otherwise.
+     * @param profile The routing profile the limit is in the units of.
+     * @return The limit.
+     * @throws IllegalArgumentException If the limit is missing, malformed, negative, or larger
+     * than <code>MAX_ISOCHRONE_MILES</code> or the time it takes to travel as far.
+     */
+    private static double parseLimit(String limit, RoutingProfile profile) {
+        if (limit == null) {
+            throw new IllegalArgumentException("Request failed: limit not found.");
+        }
+        double value;
+        try {
+            value = Double.parseDouble(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    String.format("Incorrect parameters: unable to parse limit %s.", limit));
+        }
+        double max = profile.timed()
+                ? RoutingProfile.seconds(MAX_ISOCHRONE_MILES, profile.maxSpeed())
+                : MAX_ISOCHRONE_MILES;
+        if (!(value >= 0 && value <= max)) {
+            throw new IllegalArgumentException(String.format(
+                    "Incorrect parameters: limit must be between 0 and %.0f.", max));
+        }
+        return value;
+    }
+
     /**
      * Returns the HTML-friendly <code>Stirng</code> representation of the route.
      * @param directions The <code>List</code> of <code>NavigationDirections</code>.
@@ -230,10 +965,64 @@ public class MapServer {
 
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
-    /** Route stroke information: typically roads are not more than 5px wide. */
-    private static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
-    /** Route stroke information: semi-transparent cyan. */
-    private static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /**
+     * Returns the point <code>/search</code> ranks matches around: <code>lon</code> and
+     * <code>lat</code> if given, else the center of the viewport given as <code>ullon</code>,
+     * <code>ullat</code>, <code>lrlon</code> and <code>lrlat</code>, else null.
+     * @param req The search request.
+     * @return <code>{lon, lat}</code>, or null to rank by popularity.
+     * @throws IllegalArgumentException If a coordinate is not a number.
+     */
+    private static double[] parseSearchCenter(Request req) {
+        try {
+            if (req.queryParams("lon") != null && req.queryParams("lat") != null) {
+                return new double[]{Double.parseDouble(req.queryParams("lon")),
+                        Double.parseDouble(req.queryParams("lat"))};
+            }
+            if (req.queryParams("ullon") != null && req.queryParams("ullat") != null
+                    && req.queryParams("lrlon") != null && req.queryParams("lrlat") != null) {
+                double ullon = Double.parseDouble(req.queryParams("ullon"));
+                double ullat = Double.parseDouble(req.queryParams("ullat"));
+                double lrlon = Double.parseDouble(req.queryParams("lrlon"));
+                double lrlat = Double.parseDouble(req.queryParams("lrlat"));
+                return new double[]{(ullon + lrlon) / 2, (ullat + lrlat) / 2};
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "Incorrect parameters: unable to parse search center.");
+        }
+        return null;
+    }
+
+    /** Largest number of origins or destinations one <code>/matrix</code> request may list. */
+    private static final int MAX_MATRIX_POINTS = 500;
+    /** Largest number of points one <code>/match</code> request may list. */
+    private static final int MAX_TRACE_POINTS = 10000;
+    /** Largest number of routes one <code>/route</code> request may ask for. */
+    private static final int MAX_ALTERNATIVES = 5;
+    /** Largest number of waypoints one <code>/route</code> request may list. */
+    private static final int MAX_WAYPOINTS = 50;
+    /** Largest distance an isochrone may reach, bounding the work one request can ask for. */
+    private static final double MAX_ISOCHRONE_MILES = 10;
+    /** Number of autocomplete suggestions returned by <code>/search</code> by default. */
+    private static final int SEARCH_LIMIT = 10;
+    /**
+     * HTTP response for requests rejected by a full endpoint pool, or needing a graph that is
+     * still loading.
+     */
+    private static final int BUSY_RESPONSE = 503;
+    /** HTTP status of <code>/health</code> once a startup stage has failed. */
+    private static final int FAILED_RESPONSE = 500;
+    /**
+     * Deepest level of base map tiles kept decoded in memory; the 85 tiles of the first four
+     * levels take about 16 MB.
+     */
+    private static final int TILE_CACHE_DEPTH = Integer.getInteger("bearmaps.tile.cache.depth",
+            3);
+    /** Number of processors, used to size the endpoint pools. */
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    /** Jetty threads kept for its acceptors and selectors, static files and cheap endpoints. */
+    private static final int JETTY_RESERVED_THREADS = 16 + 2 * PROCESSORS;
     /** The directory where tile images can be found. */
     private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
     /**
@@ -241,6 +1030,8 @@ public class MapServer {
      * using custom region selection.
      */
     private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+    /** The graph snapshot written after the first parse of <code>OSM_DB_PATH</code>. */
+    private static final String SNAPSHOT_PATH = OSM_DB_PATH + ".snapshot";
 
     /** An adapter class for extending RasterResultParams with the final image. */
     private static class RenderedRasterResultParams {
@@ -0,0 +1,28 @@
+import java.util.List;
+
+/**
+ * The MatchResultParams contains the matches computed by MapMatcher for a trace, for
+ * serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class MatchResultParams {
+    /** The number of points in the trace. */
+    private final int points;
+    /** The matches of the points that could be matched, in order. */
+    private final List<MapMatcher.Match> matches;
+    /** How many points per second the trace was matched at. */
+    private final double pointsPerSecond;
+
+    /**
+     * Constructs a MatchResultParams instance.
+     * @param points The number of points in the trace.
+     * @param matches The matches.
+     * @param pointsPerSecond The matching throughput.
+     */
+    MatchResultParams(int points, List<MapMatcher.Match> matches, double pointsPerSecond) {
+        this.points = points;
+        this.matches = matches;
+        this.pointsPerSecond = pointsPerSecond;
+    }
+}
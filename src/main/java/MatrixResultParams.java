@@ -0,0 +1,31 @@
+/**
+ * The MatrixResultParams contains the route costs computed by Router.matrix for serialization by
+ * Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class MatrixResultParams {
+    /** The routing profile the costs were computed under. */
+    private final String profile;
+    /** The unit of the costs, "miles" or "seconds". */
+    private final String unit;
+    /** Cost from each origin to each destination, or null where there is no route. */
+    private final Double[][] costs;
+
+    /**
+     * Constructs a MatrixResultParams instance.
+     * @param profile The routing profile.
+     * @param costs The costs, infinite where there is no route.
+     */
+    MatrixResultParams(RoutingProfile profile, double[][] costs) {
+        this.profile = profile.name;
+        this.unit = profile.timed() ? "seconds" : "miles";
+        this.costs = new Double[costs.length][];
+        for (int i = 0; i < costs.length; i += 1) {
+            this.costs[i] = new Double[costs[i].length];
+            for (int j = 0; j < costs[i].length; j += 1) {
+                this.costs[i][j] = Double.isInfinite(costs[i][j]) ? null : costs[i][j];
+            }
+        }
+    }
+}
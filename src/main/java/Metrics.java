@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The server's metrics, scraped from <code>/metrics</code> in the Prometheus text format. Each
+ * metric is registered once, usually into a static field of the class that updates it, and
+ * updating it afterwards takes no lock: timers and other distributions are
+ * <code>LatencyHistogram</code>s, exported as summaries with a few quantiles; counters are
+ * <code>LongAdder</code>s; and counts already kept elsewhere, like a pool's rejections, are read
+ * through a supplier when scraped.
+ */
+final class Metrics {
+    /** The quantiles every summary reports. */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    /** Nanoseconds to the seconds Prometheus expects of timers. */
+    private static final double SECONDS_PER_NANO = 1e-9;
+
+    /** Metric families in registration order, each with its children keyed by label set. */
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Registers, or returns the already registered, timer of a family of timers.
+     * @param name The family's name, ending in <code>_seconds</code>.
+     * @param help What the family times.
+     * @param labels Label names and values, alternating.
+     * @return The histogram to record nanoseconds in.
+     */
+    static LatencyHistogram timer(String name, String help, String... labels) {
+        return (LatencyHistogram) register(name, help, "summary", SECONDS_PER_NANO, labels,
+                LatencyHistogram::new);
+    }
+
+    /**
+     * Registers, or returns the already registered, distribution of a count, like the vertices
+     * settled by one search.
+     * @param name The family's name.
+     * @param help What the family counts.
+     * @param labels Label names and values, alternating.
+     * @return The histogram to record counts in.
+     */
+    static LatencyHistogram summary(String name, String help, String... labels) {
+        return (LatencyHistogram) register(name, help, "summary", 1, labels,
+                LatencyHistogram::new);
+    }
+
+    /**
+     * Registers, or returns the already registered, counter of a family of counters.
+     * @param name The family's name, ending in <code>_total</code>.
+     * @param help What the family counts.
+     * @param labels Label names and values, alternating.
+     * @return The counter.
+     */
+    static LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) register(name, help, "counter", 1, labels, LongAdder::new);
+    }
+
+    /**
+     * Registers a counter read from a count kept elsewhere, replacing any registered before
+     * with the same labels.
+     * @param name The family's name, ending in <code>_total</code>.
+     * @param help What the family counts.
+     * @param count Reads the count; it must never go down.
+     * @param labels Label names and values, alternating.
+     */
+    static void counter(String name, String help, LongSupplier count, String... labels) {
+        replace(name, help, "counter", labels, count);
+    }
+
+    /**
+     * Registers a gauge read when scraped, replacing any registered before with the same labels.
+     * @param name The family's name.
+     * @param help What the family measures.
+     * @param value Reads the value.
+     * @param labels Label names and values, alternating.
+     */
+    static void gauge(String name, String help, LongSupplier value, String... labels) {
+        replace(name, help, "gauge", labels, value);
+    }
+
+    /**
+     * Returns every metric in the Prometheus text exposition format, version 0.0.4.
+     * @return The metrics, one sample per line.
+     */
+    static String scrape() {
+        List<Family> families;
+        synchronized (FAMILIES) {
+            families = new ArrayList<>(FAMILIES.values());
+        }
+        StringBuilder out = new StringBuilder();
+        for (Family family : families) {
+            Map<String, Object> children;
+            synchronized (FAMILIES) {
+                children = new LinkedHashMap<>(family.children);
+            }
+            out.append("# HELP ").append(family.name).append(' ').append(family.help)
+                    .append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type)
+                    .append('\n');
+            for (Map.Entry<String, Object> child : children.entrySet()) {
+                family.write(out, child.getKey(), child.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private static Object register(String name, String help, String type, double scale,
+                                   String[] labels, Supplier<?> create) {
+        String key = labels(labels);
+        synchronized (FAMILIES) {
+            Family family = family(name, help, type, scale);
+            return family.children.computeIfAbsent(key, k -> create.get());
+        }
+    }
+
+    private static void replace(String name, String help, String type, String[] labels,
+                                LongSupplier value) {
+        String key = labels(labels);
+        synchronized (FAMILIES) {
+            family(name, help, type, 1).children.put(key, value);
+        }
+    }
+
+    private static Family family(String name, String help, String type, double scale) {
+        Family family = FAMILIES.computeIfAbsent(name,
+                n -> new Family(name, help, type, scale));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(
+                    String.format("Metric %s is a %s, not a %s.", name, family.type, type));
+        }
+        return family;
+    }
+
+    /** Formats label pairs as they appear between the braces of a sample. */
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name, value pairs.");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\")
+                    .replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return out.toString();
+    }
+
+    /** A named metric and its children, one per set of label values. */
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        /** Multiplies recorded values into the exported unit. */
+        final double scale;
+        final Map<String, Object> children = new LinkedHashMap<>();
+
+        Family(String name, String help, String type, double scale) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+        }
+
+        void write(StringBuilder out, String labels, Object child) {
+            if (child instanceof LatencyHistogram) {
+                LatencyHistogram histogram = (LatencyHistogram) child;
+                String prefix = labels.isEmpty() ? "" : labels + ",";
+                for (double q : QUANTILES) {
+                    sample(out, name, prefix + "quantile=\"" + q + "\"",
+                            histogram.valueAt(q) * scale);
+                }
+                sample(out, name + "_sum", labels, histogram.sum() * scale);
+                sample(out, name + "_count", labels, histogram.count());
+            } else if (child instanceof LongAdder) {
+                sample(out, name, labels, ((LongAdder) child).sum());
+            } else {
+                sample(out, name, labels, ((LongSupplier) child).getAsLong());
+            }
+        }
+
+        private static void sample(StringBuilder out, String name, String labels,
+                                   double value) {
+            out.append(name);
+            if (!labels.isEmpty()) {
+                out.append('{').append(labels).append('}');
+            }
+            out.append(' ');
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                out.append((long) value);
+            } else {
+                out.append(value);
+            }
+            out.append('\n');
+        }
+    }
+}
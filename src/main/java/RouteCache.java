@@ -0,0 +1,122 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of computed routes, keyed by the vertices a request's start and destination
+ * snapped to and the routing profile. Requests whose raw coordinates differ but snap to the same
+ * pair of vertices, like a commuter's daily trip, are answered from the cache without searching
+ * the graph again. The least recently used route is evicted once the cache is full.
+ *
+ * Routes are only valid for the graph they were searched on, so a cache belongs to one graph:
+ * whoever loads a new graph makes a new cache for it, and anything that changes a graph in place
+ * must <code>clear</code> its cache.
+ */
+class RouteCache {
+    private final Map<Key, Route> routes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     * @param capacity The most routes kept.
+     */
+    RouteCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Route cache capacity must be at least 1.");
+        }
+        this.routes = Collections.synchronizedMap(
+                new LinkedHashMap<Key, Route>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Key, Route> eldest) {
+                        return size() > capacity;
+                    }
+                });
+    }
+
+    /**
+     * Returns the cached route between two vertices under a profile.
+     * @param start The ID of the start vertex.
+     * @param dest The ID of the destination vertex.
+     * @param profile How the route was costed.
+     * @return The route, or null if it is not cached.
+     */
+    Route get(long start, long dest, RoutingProfile profile) {
+        Route route = routes.get(new Key(start, dest, profile));
+        if (route == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return route;
+    }
+
+    /**
+     * Caches the route between two vertices under a profile, evicting the least recently used
+     * route if the cache is full.
+     */
+    void put(long start, long dest, RoutingProfile profile, Route route) {
+        routes.put(new Key(start, dest, profile), route);
+    }
+
+    /** Forgets every route, as when the graph they were searched on changes. */
+    void clear() {
+        routes.clear();
+    }
+
+    /** Returns the number of routes cached. */
+    int size() {
+        return routes.size();
+    }
+
+    /** Returns the number of calls to <code>get</code> that found a cached route. */
+    long hitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of calls to <code>get</code> that did not. */
+    long missCount() {
+        return misses.get();
+    }
+
+    /** A computed route and the directions text of the response carrying it. */
+    static class Route {
+        /** The vertex IDs along the route, empty if the destination cannot be reached. */
+        final List<Long> vertices;
+        final String directions;
+
+        Route(List<Long> vertices, String directions) {
+            this.vertices = Collections.unmodifiableList(vertices);
+            this.directions = directions;
+        }
+    }
+
+    private static class Key {
+        private final long start;
+        private final long dest;
+        private final RoutingProfile profile;
+
+        Key(long start, long dest, RoutingProfile profile) {
+            this.start = start;
+            this.dest = dest;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return start == other.start && dest == other.dest && profile.equals(other.profile);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, dest, profile);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders shortest-path routes, and the outlines of reachable areas, as transparent overlay tiles
+ * that sit on top of the base map.
+ * Overlay tiles use the same depth/x/y addressing as the base map tiles chosen by
+ * <code>Rasterer.getMapRaster</code>, and every tile is keyed by the route ID and its tile
+ * coordinates. Since a route ID is never reused, a rendered overlay tile never changes, and the
+ * base map rastered by <code>MapServer.renderImage</code> no longer depends on the route at all.
+ */
+class RouteOverlay {
+    /** Route stroke information: typically roads are not more than 5px wide. */
+    static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
+    /** Route stroke information: semi-transparent cyan. */
+    static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /** Reachable areas are filled faintly and outlined in the route color, thinly. */
+    static final Color AREA_FILL_COLOR = new Color(108, 181, 230, 72);
+    static final float AREA_STROKE_WIDTH_PX = 2.0f;
+    /** Maximum number of routes kept around for overlay requests. */
+    private static final int MAX_ROUTES = 256;
+    /** Maximum number of encoded overlay tiles kept across all routes. */
+    private static final int MAX_TILES = 1024;
+    /** Tile names as produced by <code>Rasterer.getMapRaster</code>. */
+    private static final Pattern TILE_NAME = Pattern.compile("d(\\d+)_x(\\d+)_y(\\d+)\\.png");
+    /** Overlay tile requests answered from the cache of encoded tiles, and those rendered. */
+    private static final LongAdder TILE_HITS = Metrics.counter("bearmaps_cache_requests_total",
+            "Cache lookups, by cache and result.", "cache", "overlay_tiles", "result", "hit");
+    private static final LongAdder TILE_MISSES = Metrics.counter("bearmaps_cache_requests_total",
+            "Cache lookups, by cache and result.", "cache", "overlay_tiles", "result", "miss");
+
+    private final GraphDB graph;
+    /**
+     * Route IDs start at the server start time so that IDs handed out before a restart are not
+     * reused, which would otherwise let browsers show a cached tile of a different route.
+     */
+    private final AtomicLong nextRouteId = new AtomicLong(System.currentTimeMillis());
+    private final Map<Long, Polyline> routes = Collections.synchronizedMap(
+            new LinkedHashMap<Long, Polyline>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Polyline> eldest) {
+                    return size() > MAX_ROUTES;
+                }
+            });
+    private final Map<String, byte[]> tiles = Collections.synchronizedMap(
+            new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > MAX_TILES;
+                }
+            });
+    /** The encoded fully transparent tile, shared by every tile the route does not cross. */
+    private final byte[] emptyTile;
+
+    RouteOverlay(GraphDB graph) {
+        this.graph = graph;
+        this.emptyTile = encode(newTile());
+    }
+
+    /**
+     * Registers a route for overlay rendering.
+     * @param route The vertex IDs of the route, in order.
+     * @return The ID the overlay tiles of this route are keyed by.
+     */
+    long register(List<Long> route) {
+        long id = nextRouteId.incrementAndGet();
+        routes.put(id, new Polyline(graph, route));
+        return id;
+    }
+
+    /**
+     * Registers a route between two points on edges for overlay rendering.
+     * @param start Where the route starts.
+     * @param route The vertex IDs passed, in order.
+     * @param dest Where the route ends.
+     * @return The ID the overlay tiles of this route are keyed by.
+     */
+    long register(EdgeIndex.Snap start, List<Long> route, EdgeIndex.Snap dest) {
+        long id = nextRouteId.incrementAndGet();
+        routes.put(id, new Polyline(graph, start, route, dest));
+        return id;
+    }
+
+    /**
+     * Registers a reachable area for overlay rendering. Its tiles are served, and it is
+     * forgotten, exactly as a route's.
+     * @param rings The outline of the area, as returned by <code>Isochrone.polygon</code>.
+     * @return The ID the overlay tiles of this area are keyed by.
+     */
+    long registerArea(List<double[][]> rings) {
+        long id = nextRouteId.incrementAndGet();
+        routes.put(id, new Polyline(rings));
+        return id;
+    }
+
+    /**
+     * Forgets the route with the given ID. Its cached tiles are evicted as other tiles come in.
+     * @param routeId ID returned by <code>register</code>.
+     */
+    void remove(long routeId) {
+        routes.remove(routeId);
+    }
+
+    /**
+     * Returns the PNG-encoded, transparent overlay tile of a route.
+     * @param routeId ID returned by <code>register</code>.
+     * @param tileName The name of the base map tile this overlay tile sits on, e.g.
+     *                 <code>d3_x1_y2.png</code>.
+     * @return The encoded overlay tile, fully transparent if the route does not cross the tile.
+     * @throws IllegalArgumentException If the route is unknown or the tile name is malformed.
+     */
+    byte[] tile(long routeId, String tileName) {
+        Polyline line = routes.get(routeId);
+        if (line == null) {
+            throw new IllegalArgumentException(
+                    String.format("Request failed: route %d not found.", routeId));
+        }
+        Matcher m = TILE_NAME.matcher(tileName == null ? "" : tileName);
+        if (!m.matches()) {
+            throw new IllegalArgumentException(
+                    String.format("Incorrect parameters: unable to parse tile %s.", tileName));
+        }
+        String key = routeId + "/" + tileName;
+        byte[] encoded = tiles.get(key);
+        if (encoded != null) {
+            TILE_HITS.increment();
+        } else {
+            TILE_MISSES.increment();
+            encoded = render(line, Integer.parseInt(m.group(1)),
+                    Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+            tiles.put(key, encoded);
+        }
+        return encoded;
+    }
+
+    private byte[] render(Polyline line, int depth, int x, int y) {
+        double lonDelta = MapServer.ROOT_LON_DELTA / Math.pow(2, depth);
+        double latDelta = MapServer.ROOT_LAT_DELTA / Math.pow(2, depth);
+        double ullon = MapServer.ROOT_ULLON + x * lonDelta;
+        double ullat = MapServer.ROOT_ULLAT - y * latDelta;
+        double pxPerLon = MapServer.TILE_SIZE / lonDelta;
+        double pxPerLat = MapServer.TILE_SIZE / latDelta;
+        /* Pad by the stroke so line caps that spill over from a neighboring tile are kept. */
+        double padLon = ROUTE_STROKE_WIDTH_PX / pxPerLon;
+        double padLat = ROUTE_STROKE_WIDTH_PX / pxPerLat;
+        if (line.maxLon < ullon - padLon || line.minLon > ullon + lonDelta + padLon
+                || line.maxLat < ullat - latDelta - padLat || line.minLat > ullat + padLat) {
+            return emptyTile;
+        }
+
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+        for (int p = 0; p < line.lons.length; p += 1) {
+            double[] lons = line.lons[p];
+            double[] lats = line.lats[p];
+            path.moveTo((lons[0] - ullon) * pxPerLon, (ullat - lats[0]) * pxPerLat);
+            for (int i = 1; i < lons.length; i += 1) {
+                path.lineTo((lons[i] - ullon) * pxPerLon, (ullat - lats[i]) * pxPerLat);
+            }
+            if (line.area) {
+                path.closePath();
+            }
+        }
+        BufferedImage img = newTile();
+        Graphics2D g2d = img.createGraphics();
+        if (line.area) {
+            g2d.setColor(AREA_FILL_COLOR);
+            g2d.fill(path);
+        }
+        g2d.setColor(ROUTE_STROKE_COLOR);
+        g2d.setStroke(new BasicStroke(line.area ? AREA_STROKE_WIDTH_PX : ROUTE_STROKE_WIDTH_PX,
+                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.draw(path);
+        g2d.dispose();
+        return encode(img);
+    }
+
+    private static BufferedImage newTile() {
+        return new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static byte[] encode(BufferedImage img) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(img, "png", os);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * The coordinates of a route, or of the rings outlining an area, resolved once so tiles
+     * render without graph lookups.
+     */
+    private static class Polyline {
+        /** Coordinates of each part: a route has one, an area one per ring. */
+        private final double[][] lons, lats;
+        private final boolean area;
+        private double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        private double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+
+        private Polyline(GraphDB g, List<Long> route) {
+            lons = new double[1][route.size()];
+            lats = new double[1][route.size()];
+            area = false;
+            for (int i = 0; i < route.size(); i += 1) {
+                add(0, i, g.lon(route.get(i)), g.lat(route.get(i)));
+            }
+        }
+
+        private Polyline(GraphDB g, EdgeIndex.Snap start, List<Long> route,
+                         EdgeIndex.Snap dest) {
+            lons = new double[1][route.size() + 2];
+            lats = new double[1][route.size() + 2];
+            area = false;
+            add(0, 0, start.lon, start.lat);
+            for (int i = 0; i < route.size(); i += 1) {
+                add(0, i + 1, g.lon(route.get(i)), g.lat(route.get(i)));
+            }
+            add(0, route.size() + 1, dest.lon, dest.lat);
+        }
+
+        private Polyline(List<double[][]> rings) {
+            lons = new double[rings.size()][];
+            lats = new double[rings.size()][];
+            area = true;
+            for (int p = 0; p < lons.length; p += 1) {
+                double[][] ring = rings.get(p);
+                lons[p] = new double[ring.length];
+                lats[p] = new double[ring.length];
+                for (int i = 0; i < ring.length; i += 1) {
+                    add(p, i, ring[i][0], ring[i][1]);
+                }
+            }
+        }
+
+        private void add(int part, int i, double lon, double lat) {
+            lons[part][i] = lon;
+            lats[part][i] = lat;
+            minLon = Math.min(minLon, lon);
+            maxLon = Math.max(maxLon, lon);
+            minLat = Math.min(minLat, lat);
+            maxLat = Math.max(maxLat, lat);
+        }
+    }
+}
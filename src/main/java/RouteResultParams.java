@@ -11,19 +11,32 @@ class RouteResultParams {
     private final boolean routingSuccess;
     /** The HTML-friendly String representation of the navigation directions. */
     private final String directions;
+    /** The ID to request this route's overlay tiles with, or 0 if routing failed. */
+    private final long routeId;
+    /** The order the waypoints were visited in, or null if they were visited as given. */
+    private final int[] order;
+    /** IDs to request the overlay tiles of alternative routes with, or null if none were asked. */
+    private final long[] alternativeRouteIds;
 
     /** Private constructor to prevent direct instantiation of a RouteResultParams instance. */
     private RouteResultParams() {
-        this(false, "");
+        this(false, "", 0, null, null);
     }
 
     /**
      * Constructs a RouteResultParams instance and sets the routingSuccess and distance fields.
      * @param routingSuccess The routingSuccess field.
      * @param directions The directions field.
+     * @param routeId The routeId field.
+     * @param order The order field.
+     * @param alternativeRouteIds The alternativeRouteIds field.
      */
-    RouteResultParams(boolean routingSuccess, String directions) {
+    RouteResultParams(boolean routingSuccess, String directions, long routeId, int[] order,
+                      long[] alternativeRouteIds) {
         this.routingSuccess = routingSuccess;
         this.directions = directions;
+        this.routeId = routeId;
+        this.order = order;
+        this.alternativeRouteIds = alternativeRouteIds;
     }
 }
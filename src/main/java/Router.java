@@ -6,12 +6,23 @@ import java.util.regex.Pattern;
 import java.util.HashMap;
 import java.util.PriorityQueue;
 import java.util.ArrayList;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class provides a <code>shortestPath</code> method and <code>routeDirections</code> for
  * finding routes between two points on the map.
  */
 public class Router {
+    /**
+     * Whether <code>shortestPath(g, startID, destID)</code> runs the original search, which
+     * computes great-circle distances as it goes, instead of <code>EdgeRouter</code>'s search
+     * over precomputed edge lengths. Set with <code>-Dbearmaps.router=legacy</code>.
+     */
+    private static final boolean LEGACY_SEARCH =
+            "legacy".equals(System.getProperty("bearmaps.router"));
+    /** Vertices settled by each search of <code>legacyShortestPath</code>. */
+    private static final LatencyHistogram SETTLED = EdgeRouter.settled("legacy");
+
     /**
      * Return a <code>List</code> of vertex IDs corresponding to the shortest path from a given
      * starting coordinate and destination coordinate.
@@ -27,9 +38,40 @@ public class Router {
     public static List<Long> shortestPath(GraphDB g,
                                           double stlon, double stlat,
                                           double destlon, double destlat) {
-        long startID = g.closest(stlon, stlat);
+        return shortestPath(g, g.closest(stlon, stlat), g.closest(destlon, destlat));
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest path between two
+     * vertices that have already been snapped to the graph with <code>GraphDB.closest</code>.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param startID The ID of the starting vertex.
+     * @param destID  The ID of the destination vertex.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest paths, or an
+     * empty list if there is none
+     */
+    public static List<Long> shortestPath(GraphDB g, long startID, long destID) {
+        if (LEGACY_SEARCH) {
+            return legacyShortestPath(g, startID, destID);
+        }
+        DenseGraph d = g.dense;
+        return ids(d, EdgeRouter.shortestRoute(d, d.index(startID), d.index(destID)));
+    }
+
+    /**
+     * The original A* search for <code>shortestPath(g, startID, destID)</code>, computing each
+     * edge's length and each vertex's distance to the destination with
+     * <code>GraphDB.distance</code> as it goes. It finds the same paths as the default search,
+     * several times more slowly, and is kept to compare against.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param startID The ID of the starting vertex.
+     * @param destID  The ID of the destination vertex.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest paths
+     */
+    static List<Long> legacyShortestPath(GraphDB g, long startID, long destID) {
         PriorityNode startNode = new PriorityNode(startID, 0.0);
-        long destID = g.closest(destlon, destlat);
         PriorityQueue<PriorityNode> fringe = new PriorityQueue<>();
         fringe.add(startNode);
         HashMap<Long, Double> best = new HashMap<>();
@@ -40,10 +82,12 @@ public class Router {
         ArrayList<Long> reversedShortPath = new ArrayList<>();
         ArrayList<Long> shortPath = new ArrayList<>();
         long currID = startID;
+        int settled = 0;
         while (!fringe.isEmpty() && currID != destID) {
             PriorityNode currNode = fringe.poll();
             currID = currNode.iD;
             if (!visited.contains(currID)) {
+                settled += 1;
                 for (long neighborID : g.adjacent(currID)) {
                     if (visited.contains(neighborID)) {
                         continue;
@@ -86,9 +130,11 @@ public class Router {
                 visited.add(currNode.iD);
                 currID = currNode.iD;
             } catch (NullPointerException e) {
+                SETTLED.record(settled);
                 return Collections.emptyList();
             }
         }
+        SETTLED.record(settled);
         while (currID != startID) {
             reversedShortPath.add(currID);
             currID = prev.get(currID);
@@ -99,6 +145,207 @@ public class Router {
         }
         return shortPath;
     }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the cheapest path between two
+     * snapped vertices under a routing profile. <code>RoutingProfile.DISTANCE</code> gives
+     * exactly the path of <code>shortestPath(g, startID, destID)</code>; timed profiles are
+     * searched by <code>EdgeRouter</code>.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param startID The ID of the starting vertex.
+     * @param destID  The ID of the destination vertex.
+     * @param profile How to cost the path.
+     * @return The <code>List</code> of vertex IDs along the path, or an empty list if there is
+     * none.
+     */
+    static List<Long> shortestPath(GraphDB g, long startID, long destID,
+                                   RoutingProfile profile) {
+        if (!profile.timed()) {
+            return shortestPath(g, startID, destID);
+        }
+        DenseGraph d = g.dense;
+        return ids(d, EdgeRouter.route(d, d.index(startID), d.index(destID), profile));
+    }
+
+    /** Returns the OSM IDs of the vertices along a path of dense indices. */
+    private static List<Long> ids(DenseGraph d, int[] path) {
+        List<Long> ids = new ArrayList<>(path.length);
+        for (int v : path) {
+            ids.add(d.id(v));
+        }
+        return ids;
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs passed by the cheapest route between two points
+     * snapped partway along edges with <code>GraphDB.snap</code>, starting and ending at the
+     * snapped points rather than at the nearest vertices; see <code>EdgeRouter</code>.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param start   Where the route starts.
+     * @param dest    Where the route ends.
+     * @param profile How to cost the path.
+     * @return The <code>List</code> of vertex IDs passed, which is empty if the route stays on
+     * one edge, or null if the destination cannot be reached.
+     */
+    static List<Long> shortestPath(GraphDB g, EdgeIndex.Snap start, EdgeIndex.Snap dest,
+                                   RoutingProfile profile) {
+        DenseGraph d = g.dense;
+        int[] path = EdgeRouter.route(d, start, dest, profile);
+        return path == null ? null : ids(d, path);
+    }
+
+    /**
+     * Return up to <code>k</code> reasonable routes between two vertices that have already been
+     * snapped to the graph: the shortest path, then alternatives that cost at most a little more
+     * and do not largely overlap the routes before them; see <code>AlternativeRoutes</code>.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param startID The ID of the starting vertex.
+     * @param destID  The ID of the destination vertex.
+     * @param profile How to cost routes.
+     * @param k       The largest number of routes to return.
+     * @return The routes as <code>List</code>s of vertex IDs, best first, or no routes if the
+     * destination cannot be reached.
+     */
+    static List<List<Long>> alternatives(GraphDB g, long startID, long destID,
+                                         RoutingProfile profile, int k) {
+        DenseGraph d = g.dense;
+        List<Long> best = shortestPath(g, startID, destID, profile);
+        int[] path = new int[best.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = d.index(best.get(i));
+        }
+        List<List<Long>> routes = new ArrayList<>();
+        for (int[] route : AlternativeRoutes.find(d, path, profile, k)) {
+            List<Long> ids = new ArrayList<>(route.length);
+            for (int v : route) {
+                ids.add(d.id(v));
+            }
+            routes.add(ids);
+        }
+        return routes;
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest route through
+     * waypoints that have already been snapped to the graph, visiting them in order. The legs
+     * between consecutive waypoints are searched in parallel and joined end to end.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param waypoints The IDs of the vertices to visit, in order; at least one.
+     * @param profile   How to cost routes.
+     * @return The <code>List</code> of vertex IDs along the route, or an empty list if any
+     * waypoint cannot be reached from the one before it.
+     */
+    static List<Long> shortestPath(GraphDB g, List<Long> waypoints, RoutingProfile profile) {
+        List<List<Long>> legs = new ArrayList<>(Collections.nCopies(waypoints.size() - 1, null));
+        DistanceMatrix.POOL.invoke(new Legs(g, waypoints, profile, legs, 0, legs.size()));
+        List<Long> route = new ArrayList<>();
+        route.add(waypoints.get(0));
+        for (List<Long> leg : legs) {
+            if (leg.isEmpty()) {
+                return Collections.emptyList();
+            }
+            route.addAll(leg.subList(1, leg.size()));
+        }
+        return route;
+    }
+
+    /** Searches the legs <code>[from, to)</code> of a route, splitting the range in half. */
+    private static class Legs extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final GraphDB g;
+        private final List<Long> waypoints;
+        private final RoutingProfile profile;
+        private final List<List<Long>> legs;
+        private final int from, to;
+
+        Legs(GraphDB g, List<Long> waypoints, RoutingProfile profile, List<List<Long>> legs,
+             int from, int to) {
+            this.g = g;
+            this.waypoints = waypoints;
+            this.profile = profile;
+            this.legs = legs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Legs(g, waypoints, profile, legs, from, mid),
+                        new Legs(g, waypoints, profile, legs, mid, to));
+            } else if (to > from) {
+                legs.set(from, shortestPath(g, waypoints.get(from), waypoints.get(from + 1),
+                        profile));
+            }
+        }
+    }
+
+    /**
+     * Return a cheap order to visit waypoints in, starting at the first; see
+     * <code>StopOrder</code>. The costs between every pair of waypoints come from one
+     * <code>DistanceMatrix</code>.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param waypoints The IDs of the vertices to visit, already snapped to the graph.
+     * @param profile   How to cost routes.
+     * @param keepLast  Whether the last waypoint must also stay last.
+     * @return The indices of the waypoints in visiting order.
+     */
+    static int[] optimizeOrder(GraphDB g, List<Long> waypoints, RoutingProfile profile,
+                               boolean keepLast) {
+        int[] stops = new int[waypoints.size()];
+        for (int i = 0; i < stops.length; i++) {
+            stops[i] = g.dense.index(waypoints.get(i));
+        }
+        return StopOrder.optimize(DistanceMatrix.compute(g.dense, stops, stops, profile),
+                keepLast);
+    }
+
+    /**
+     * Return the cost of the cheapest route from every origin to every destination. Each point
+     * is snapped to the graph once, and each origin's row comes from a single search; see
+     * <code>DistanceMatrix</code>.
+     *
+     * @param g            <code>GraphDB</code> data source.
+     * @param origins      The origins as <code>{lon, lat}</code> pairs.
+     * @param destinations The destinations as <code>{lon, lat}</code> pairs.
+     * @param profile      How to cost routes.
+     * @return <code>costs[i][j]</code> from origin i to destination j, in miles for the distance
+     * profile and seconds otherwise, or infinity where there is no route.
+     */
+    static double[][] matrix(GraphDB g, List<double[]> origins, List<double[]> destinations,
+                             RoutingProfile profile) {
+        return DistanceMatrix.compute(g.dense, snap(g, origins), snap(g, destinations), profile);
+    }
+
+    /**
+     * Return everything reachable from a point within a cost limit.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param lon     The longitude of the start point.
+     * @param lat     The latitude of the start point.
+     * @param limit   The largest cost, in miles for the distance profile and seconds otherwise.
+     * @param profile How to cost routes.
+     * @return The reachable vertices and the outline of the area they cover.
+     */
+    static Isochrone isochrone(GraphDB g, double lon, double lat, double limit,
+                               RoutingProfile profile) {
+        return Isochrone.compute(g.dense, g.dense.index(g.closest(lon, lat)), limit, profile);
+    }
+
+    private static int[] snap(GraphDB g, List<double[]> points) {
+        int[] snapped = new int[points.size()];
+        for (int i = 0; i < snapped.length; i++) {
+            snapped[i] = g.dense.index(g.closest(points.get(i)[0], points.get(i)[1]));
+        }
+        return snapped;
+    }
+
     public static class PriorityNode implements Comparable<PriorityNode> {
         private long iD;
         private double priority;
@@ -208,8 +455,87 @@ public class Router {
      * @return A new <code>List</code> of <code>NavigationDirection</code> objects.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        // TODO
-        return Collections.emptyList();
+        DenseGraph d = g.dense;
+        int[] path = new int[route.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = d.index(route.get(i));
+            if (path[i] < 0) {
+                throw new IllegalArgumentException(route.get(i) + " is not in the graph.");
+            }
+        }
+        Directions directions = new Directions(d);
+        for (int i = 0; i + 1 < path.length; i++) {
+            int u = path[i];
+            int v = path[i + 1];
+            directions.add(d.edgeName(u, v, directions.currentName), d.lon(u), d.lat(u),
+                    d.lon(v), d.lat(v));
+        }
+        return directions.list;
+    }
+
+    /**
+     * Given a route between two points on edges from <code>shortestPath</code>, returns
+     * directions along it, including the parts of edges travelled from the start and to the
+     * destination.
+     *
+     * @param g <code>GraphDB</code> data source.
+     * @param start Where the route starts.
+     * @param route The vertex IDs passed.
+     * @param dest Where the route ends.
+     * @return A new <code>List</code> of <code>NavigationDirection</code> objects.
+     */
+    static List<NavigationDirection> routeDirections(GraphDB g, EdgeIndex.Snap start,
+                                                     List<Long> route, EdgeIndex.Snap dest) {
+        DenseGraph d = g.dense;
+        Directions directions = new Directions(d);
+        double lon = start.lon;
+        double lat = start.lat;
+        int name = d.wayName(d.edgeWay(start.edge));
+        for (int i = 0; i < route.size(); i++) {
+            int v = d.index(route.get(i));
+            if (i > 0) {
+                int u = d.index(route.get(i - 1));
+                name = d.edgeName(u, v, directions.currentName);
+            }
+            /* A point snapped right onto a vertex adds no partial edge. */
+            if (i > 0 || lon != d.lon(v) || lat != d.lat(v)) {
+                directions.add(name, lon, lat, d.lon(v), d.lat(v));
+            }
+            lon = d.lon(v);
+            lat = d.lat(v);
+        }
+        if (lon != dest.lon || lat != dest.lat) {
+            directions.add(d.wayName(d.edgeWay(dest.edge)), lon, lat, dest.lon, dest.lat);
+        }
+        return directions.list;
+    }
+
+    /** Collects directions segment by segment, starting a new one wherever the name changes. */
+    private static class Directions {
+        private final DenseGraph d;
+        private final List<NavigationDirection> list = new ArrayList<>();
+        private NavigationDirection current = null;
+        private int currentName = -1;
+        private double prevBearing = 0.0;
+
+        Directions(DenseGraph d) {
+            this.d = d;
+        }
+
+        void add(int name, double fromLon, double fromLat, double toLon, double toLat) {
+            double bearing = GraphDB.bearing(fromLon, fromLat, toLon, toLat);
+            if (current == null || name != currentName) {
+                NavigationDirection next = new NavigationDirection();
+                next.direction = current == null ? NavigationDirection.START
+                        : NavigationDirection.turn(bearing - prevBearing);
+                next.way = d.name(name);
+                list.add(next);
+                current = next;
+                currentName = name;
+            }
+            current.distance += GraphDB.distance(fromLon, fromLat, toLon, toLat);
+            prevBearing = bearing;
+        }
     }
     /**
      * Class to represent a navigation direction, which consists of 3 attributes:
@@ -239,6 +565,31 @@ public class Router {
         String way;
         /** The distance along this way. */
         double distance = 0.0;
+
+        /**
+         * Returns the direction for a change of bearing: within 15 degrees is straight, within
+         * 30 slight, within 100 a turn and anything more sharp; positive changes turn right.
+         * @param relativeBearing The new bearing minus the previous one, in degrees.
+         * @return One of the direction constants other than <code>START</code>.
+         */
+        static int turn(double relativeBearing) {
+            double angle = relativeBearing;
+            if (angle > 180) {
+                angle -= 360;
+            } else if (angle < -180) {
+                angle += 360;
+            }
+            double abs = Math.abs(angle);
+            if (abs <= 15) {
+                return STRAIGHT;
+            } else if (abs <= 30) {
+                return angle < 0 ? SLIGHT_LEFT : SLIGHT_RIGHT;
+            } else if (abs <= 100) {
+                return angle < 0 ? LEFT : RIGHT;
+            } else {
+                return angle < 0 ? SHARP_LEFT : SHARP_RIGHT;
+            }
+        }
         public String toString() {
             return String.format("%s on %s and continue for %.3f miles.",
                     DIRECTIONS[direction], way, distance);
@@ -0,0 +1,152 @@
+import java.util.Set;
+
+/**
+ * How routes are costed. <code>DISTANCE</code> finds the shortest route by great-circle length,
+ * ignoring one-way restrictions, exactly as <code>Router.shortestPath</code> always has. The
+ * other profiles find the fastest route for a kind of traveller: each may use only some highway
+ * classes (in the way <code>GraphBuildingHandler</code> allows only some), travels each class at
+ * its own speed, and may respect one-way streets and pay a time penalty for every turn.
+ *
+ * Edge travel times are precomputed once per profile by <code>DenseGraph.weights</code>, so
+ * searching reads them from an array instead of recomputing them for every relaxation.
+ */
+class RoutingProfile {
+    /** Shortest route by length. */
+    static final RoutingProfile DISTANCE = new RoutingProfile("distance", null, null, false,
+            false, null);
+
+    /** Fastest route on foot: any direction along anything but motorways and trunk roads. */
+    static final RoutingProfile WALKING = new RoutingProfile("walking",
+            Set.of("motorway", "trunk", "motorway_link", "trunk_link"),
+            new double[]{3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3}, false, false, null);
+
+    /** Fastest route by bicycle, keeping to one-way streets, with small turn penalties. */
+    static final RoutingProfile CYCLING = new RoutingProfile("cycling",
+            Set.of("motorway", "trunk", "motorway_link", "trunk_link"),
+            new double[]{12, 12, 12, 12, 13, 12, 12, 8, 12, 12, 12, 12, 12}, false, true,
+            new double[]{0, 0, 1, 1, 2, 4, 6, 4});
+
+    /** Fastest route by car, at the tagged speed limit where there is one. */
+    static final RoutingProfile DRIVING = new RoutingProfile("driving", Set.of(),
+            new double[]{65, 55, 45, 35, 30, 25, 25, 10, 45, 40, 35, 30, 25}, true, true,
+            new double[]{0, 0, 2, 1, 4, 8, 15, 10});
+
+    /** Every profile, in the order their precomputed weights are stored. */
+    static final RoutingProfile[] PROFILES = {DISTANCE, WALKING, CYCLING, DRIVING};
+
+    /** Changes of bearing beyond this many degrees count as turning back. */
+    private static final double U_TURN_DEGREES = 170;
+    /** How many times the sharpest turn's penalty it takes to turn back. */
+    private static final double U_TURN_FACTOR = 2;
+    /** Tagged speed limits above this many miles per hour are not believed. */
+    private static final double SPEED_LIMIT_CAP = 70;
+    private static final double SECONDS_PER_HOUR = 3600;
+
+    /** The name clients select the profile by. */
+    final String name;
+    /** Whether one-way restrictions apply. */
+    final boolean respectsOneway;
+    /** Whether a way's tagged speed limit replaces the default speed for its class. */
+    private final boolean followsSpeedLimits;
+    /** Speeds in miles per hour indexed like <code>DenseGraph.HIGHWAY_CLASSES</code>; 0 bars. */
+    private final double[] speeds;
+    private final double maxSpeed;
+    /** Turn penalties in seconds indexed by the <code>NavigationDirection</code> constants. */
+    private final double[] turnSeconds;
+
+    private RoutingProfile(String name, Set<String> barred, double[] speeds,
+                           boolean followsSpeedLimits, boolean respectsOneway,
+                           double[] turnSeconds) {
+        this.name = name;
+        this.followsSpeedLimits = followsSpeedLimits;
+        this.respectsOneway = respectsOneway;
+        this.turnSeconds = turnSeconds;
+        if (speeds == null) {
+            this.speeds = null;
+            this.maxSpeed = 0;
+            return;
+        }
+        this.speeds = speeds.clone();
+        double max = 0;
+        for (int c = 0; c < speeds.length; c += 1) {
+            if (barred.contains(DenseGraph.HIGHWAY_CLASSES[c])) {
+                this.speeds[c] = 0;
+            }
+            max = Math.max(max, this.speeds[c]);
+        }
+        this.maxSpeed = followsSpeedLimits ? Math.max(max, SPEED_LIMIT_CAP) : max;
+    }
+
+    /**
+     * Returns the profile with the given name.
+     * @param name The profile name, or null for <code>DISTANCE</code>.
+     * @return The profile.
+     * @throws IllegalArgumentException If there is no such profile.
+     */
+    static RoutingProfile forName(String name) {
+        if (name == null) {
+            return DISTANCE;
+        }
+        for (RoutingProfile profile : PROFILES) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Incorrect parameters: unknown profile " + name + ".");
+    }
+
+    /** Returns whether routes are costed by travel time rather than length. */
+    boolean timed() {
+        return speeds != null;
+    }
+
+    /** Returns whether turns cost time, so that routes must be searched edge by edge. */
+    boolean turnCosts() {
+        return turnSeconds != null;
+    }
+
+    /**
+     * Returns the speed at which a way is travelled.
+     * @param highwayClass The way's index in <code>DenseGraph.HIGHWAY_CLASSES</code>.
+     * @param maxspeed The way's tagged speed limit in miles per hour, or NaN.
+     * @return The speed in miles per hour, at most <code>maxSpeed()</code>, or 0 if the profile
+     * may not use the way.
+     */
+    double speed(int highwayClass, double maxspeed) {
+        double speed = speeds[highwayClass];
+        if (speed > 0 && followsSpeedLimits && !Double.isNaN(maxspeed)) {
+            speed = maxspeed;
+        }
+        return Math.min(speed, maxSpeed);
+    }
+
+    /** Returns the highest speed any way is travelled at, in miles per hour. */
+    double maxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Returns the time in seconds to travel a distance at a speed.
+     * @param miles The distance in miles.
+     * @param mph The speed in miles per hour.
+     */
+    static double seconds(double miles, double mph) {
+        return miles / mph * SECONDS_PER_HOUR;
+    }
+
+    /**
+     * Returns the penalty for changing bearing between consecutive edges.
+     * @param relativeBearing The new bearing minus the previous one, in degrees.
+     * @return The penalty in seconds.
+     */
+    double turnSeconds(double relativeBearing) {
+        double angle = Math.abs(relativeBearing);
+        if (angle > 180) {
+            angle = 360 - angle;
+        }
+        if (angle > U_TURN_DEGREES) {
+            return U_TURN_FACTOR * turnSeconds[Router.NavigationDirection.SHARP_LEFT];
+        }
+        return turnSeconds[Router.NavigationDirection.turn(relativeBearing)];
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+/**
+ * Reusable state for one graph search over items numbered from 0, such as the vertices or edges
+ * of a <code>DenseGraph</code>: tentative costs, parents, and an indexed binary heap keyed by
+ * priority that supports lowering an item's key in place. Nothing is cleared between searches;
+ * every item's state is stamped with the search it belongs to, so starting a search is constant
+ * time however large the graph is. A workspace is not thread-safe; <code>forThread</code> hands
+ * each thread its own.
+ */
+class SearchWorkspace {
+    /** Number of workspaces each thread has, for searches that need more than one at once. */
+    private static final int SLOTS = 2;
+    private static final ThreadLocal<SearchWorkspace[]> WORKSPACES =
+            ThreadLocal.withInitial(() -> new SearchWorkspace[SLOTS]);
+
+    private double[] cost;
+    private int[] parent;
+    /** The search each item's state belongs to; older stamps mean the item is untouched. */
+    private int[] stamp;
+    /** Position of each item in the heap, -1 once settled. */
+    private int[] position;
+    private int[] heap;
+    private double[] priority;
+    private int heapSize;
+    private int search;
+
+    private SearchWorkspace(int capacity) {
+        allocate(capacity);
+    }
+
+    /**
+     * Returns this thread's workspace, grown to hold at least <code>capacity</code> items and
+     * reset for a new search.
+     * @param capacity The number of items the search may touch.
+     * @return A workspace with every item unreached.
+     */
+    static SearchWorkspace forThread(int capacity) {
+        return forThread(0, capacity);
+    }
+
+    /**
+     * Returns one of this thread's workspaces, grown and reset as by <code>forThread</code>.
+     * @param slot Which workspace, from 0 up to but not including <code>SLOTS</code>.
+     * @param capacity The number of items the search may touch.
+     * @return A workspace with every item unreached, distinct from the other slots'.
+     */
+    static SearchWorkspace forThread(int slot, int capacity) {
+        SearchWorkspace[] workspaces = WORKSPACES.get();
+        if (workspaces[slot] == null) {
+            workspaces[slot] = new SearchWorkspace(0);
+        }
+        SearchWorkspace workspace = workspaces[slot];
+        if (workspace.cost.length < capacity) {
+            workspace.allocate(capacity);
+        }
+        workspace.reset();
+        return workspace;
+    }
+
+    private void allocate(int capacity) {
+        cost = new double[capacity];
+        parent = new int[capacity];
+        stamp = new int[capacity];
+        position = new int[capacity];
+        heap = new int[capacity];
+        priority = new double[capacity];
+        search = 0;
+    }
+
+    /** Starts a new search, leaving every item unreached. */
+    void reset() {
+        heapSize = 0;
+        search += 1;
+        if (search == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            search = 1;
+        }
+    }
+
+    /** Returns whether an item has been given a cost in this search. */
+    boolean reached(int item) {
+        return stamp[item] == search;
+    }
+
+    /** Returns an item's tentative or final cost, or infinity if it is unreached. */
+    double cost(int item) {
+        return reached(item) ? cost[item] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the item an item was reached from, or -1 for a start item. */
+    int parent(int item) {
+        return parent[item];
+    }
+
+    /** Returns whether an item has been removed from the heap by <code>poll</code>. */
+    boolean settled(int item) {
+        return reached(item) && position[item] < 0;
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /**
+     * Lowers an item's cost if <code>newCost</code> improves on it, queueing or re-keying it.
+     * Settled items are left alone.
+     * @param item The item.
+     * @param newCost The cost of the newly found way to reach it.
+     * @param from The item it is reached from, or -1.
+     * @param newPriority Its priority in the heap, the cost plus any heuristic estimate.
+     * @return Whether the cost was lowered.
+     */
+    boolean relax(int item, double newCost, int from, double newPriority) {
+        if (!reached(item)) {
+            stamp[item] = search;
+            cost[item] = newCost;
+            parent[item] = from;
+            priority[item] = newPriority;
+            position[item] = heapSize;
+            heap[heapSize] = item;
+            heapSize += 1;
+            siftUp(position[item]);
+            return true;
+        }
+        if (position[item] < 0 || newCost >= cost[item]) {
+            return false;
+        }
+        cost[item] = newCost;
+        parent[item] = from;
+        priority[item] = newPriority;
+        siftUp(position[item]);
+        return true;
+    }
+
+    /**
+     * Settles an unreached item at a cost without queueing it, so that the workspace can record
+     * final costs found by a search running in another workspace.
+     * @param item The item.
+     * @param finalCost Its cost.
+     * @return Whether the item was unreached.
+     */
+    boolean settle(int item, double finalCost) {
+        if (reached(item)) {
+            return false;
+        }
+        stamp[item] = search;
+        cost[item] = finalCost;
+        parent[item] = -1;
+        position[item] = -1;
+        return true;
+    }
+
+    /** Removes and returns the item of least priority, settling it. */
+    int poll() {
+        int top = heap[0];
+        heapSize -= 1;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        position[top] = -1;
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int item = heap[i];
+        double key = priority[item];
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (priority[heap[up]] <= key) {
+                break;
+            }
+            heap[i] = heap[up];
+            position[heap[i]] = i;
+            i = up;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+
+    private void siftDown(int i) {
+        int item = heap[i];
+        double key = priority[item];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && priority[heap[child + 1]] < priority[heap[child]]) {
+                child += 1;
+            }
+            if (priority[heap[child]] >= key) {
+                break;
+            }
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicates concurrent computations of the same key. The first caller for a key runs the
+ * computation; callers arriving for that key while it is still running wait for and share its
+ * result instead of repeating the work. Nothing is cached: once the computation finishes, the
+ * next caller for the key computes it again.
+ *
+ * @param <K> Type of the normalized request key.
+ * @param <V> Type of the computed result.
+ */
+class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Returns the result of <code>work</code> for <code>key</code>, either by running it or by
+     * waiting on an identical computation that is already in flight.
+     * @param key The normalized request key.
+     * @param work The computation to run if no identical computation is in flight.
+     * @return The result of the computation.
+     * @throws Exception Any exception thrown by the computation, also rethrown to every waiter.
+     */
+    V run(K key, Callable<V> work) throws Exception {
+        requests.incrementAndGet();
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+        try {
+            V result = work.call();
+            mine.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** Returns the number of calls to <code>run</code>. */
+    long requestCount() {
+        return requests.get();
+    }
+
+    /** Returns the number of calls that waited on an in-flight computation instead of running. */
+    long coalescedCount() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs the stages a server goes through before it can answer every request, each on a thread
+ * of its own, and reports how far each has got. The server listens from the start, answering
+ * the requests that need no unfinished stage, so a slow start can be told from a hung one.
+ */
+class Startup {
+    /** The stages, in the order they were declared. */
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    /**
+     * Declares the stages, all pending until they are run.
+     * @param names The names of the stages.
+     */
+    Startup(String... names) {
+        for (String name : names) {
+            stages.put(name, new Stage(name));
+        }
+    }
+
+    /**
+     * Starts running a stage in the background.
+     * @param name The name of a declared stage.
+     * @param task The work of the stage.
+     */
+    void run(String name, Runnable task) {
+        Stage stage = stage(name);
+        Thread thread = new Thread(() -> {
+            stage.start = System.nanoTime();
+            stage.state = State.RUNNING;
+            try {
+                task.run();
+                stage.end = System.nanoTime();
+                stage.state = State.READY;
+                stage.done.complete(null);
+            } catch (RuntimeException | Error e) {
+                stage.end = System.nanoTime();
+                stage.error = String.valueOf(e);
+                stage.state = State.FAILED;
+                stage.done.completeExceptionally(e);
+                e.printStackTrace();
+            }
+        }, "startup-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Returns whether a stage has finished. */
+    boolean isReady(String name) {
+        return stage(name).state == State.READY;
+    }
+
+    /** Returns whether every stage has finished. */
+    boolean isReady() {
+        for (Stage stage : stages.values()) {
+            if (stage.state != State.READY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns whether some stage has failed, so that the server will never be ready. */
+    boolean hasFailed() {
+        for (Stage stage : stages.values()) {
+            if (stage.state == State.FAILED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for every stage to finish.
+     * @throws IllegalStateException If a stage failed.
+     */
+    void await() throws InterruptedException {
+        for (Stage stage : stages.values()) {
+            try {
+                stage.done.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Startup stage " + stage.name + " failed.",
+                        e.getCause());
+            }
+        }
+    }
+
+    /** Returns the progress of every stage, for <code>/health</code> and <code>/ready</code>. */
+    Status status() {
+        long now = System.nanoTime();
+        List<StageStatus> progress = new ArrayList<>(stages.size());
+        for (Stage stage : stages.values()) {
+            /* Read the state first, since it is written after the times. */
+            State state = stage.state;
+            double seconds = 0;
+            if (state == State.RUNNING) {
+                seconds = (now - stage.start) / 1e9;
+            } else if (state != State.PENDING) {
+                seconds = (stage.end - stage.start) / 1e9;
+            }
+            progress.add(new StageStatus(stage.name, state.name().toLowerCase(), seconds,
+                    stage.error));
+        }
+        return new Status(isReady(), progress);
+    }
+
+    private Stage stage(String name) {
+        Stage stage = stages.get(name);
+        if (stage == null) {
+            throw new IllegalArgumentException("Unknown startup stage " + name + ".");
+        }
+        return stage;
+    }
+
+    private enum State {
+        PENDING, RUNNING, READY, FAILED
+    }
+
+    private static class Stage {
+        private final String name;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile State state = State.PENDING;
+        private volatile long start, end;
+        private volatile String error;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    /** The progress of every stage, as serialized by Gson. */
+    static class Status {
+        final boolean ready;
+        final List<StageStatus> stages;
+
+        Status(boolean ready, List<StageStatus> stages) {
+            this.ready = ready;
+            this.stages = stages;
+        }
+    }
+
+    /** How far a stage has got, and how long it has run or took. */
+    static class StageStatus {
+        final String name;
+        final String state;
+        final double seconds;
+        /** Why the stage failed, or <code>null</code>. */
+        final String error;
+
+        StageStatus(String name, String state, double seconds, String error) {
+            this.name = name;
+            this.state = state;
+            this.seconds = seconds;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Chooses the order to visit stops in, given the cost of travelling between every pair of them,
+ * as a travelling salesman would: greedily by nearest neighbor from the first stop, then improved
+ * by 2-opt, which reverses stretches of the tour for as long as doing so makes it cheaper. Costs
+ * need not be symmetric, since one-way streets make them differ by direction, so each reversal is
+ * priced by summing the whole tour again. That is cubic in the number of stops per improving
+ * pass, which is fine for the few dozen stops a route is given.
+ */
+class StopOrder {
+    /** Largest number of improving 2-opt passes, a bound that is seldom reached. */
+    private static final int MAX_PASSES = 100;
+
+    private StopOrder() {
+    }
+
+    /**
+     * Returns a cheap order to visit stops in, starting at the first.
+     * @param costs <code>costs[i][j]</code> from stop i to stop j, infinite where there is no
+     *              route.
+     * @param keepLast Whether the last stop must also stay last, as when it is the destination.
+     * @return The indices of the stops in visiting order.
+     */
+    static int[] optimize(double[][] costs, boolean keepLast) {
+        int n = costs.length;
+        int[] order = nearestNeighbor(costs, keepLast);
+        int last = keepLast ? n - 2 : n - 1;
+        double best = cost(costs, order);
+        for (int pass = 0; pass < MAX_PASSES; pass += 1) {
+            boolean improved = false;
+            for (int i = 1; i < last; i += 1) {
+                for (int j = i + 1; j <= last; j += 1) {
+                    reverse(order, i, j);
+                    double c = cost(costs, order);
+                    if (c < best) {
+                        best = c;
+                        improved = true;
+                    } else {
+                        reverse(order, i, j);
+                    }
+                }
+            }
+            if (!improved) {
+                break;
+            }
+        }
+        return order;
+    }
+
+    /** Returns the tour that always goes next to the cheapest stop not yet visited. */
+    private static int[] nearestNeighbor(double[][] costs, boolean keepLast) {
+        int n = costs.length;
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        visited[0] = true;
+        if (keepLast && n > 1) {
+            order[n - 1] = n - 1;
+            visited[n - 1] = true;
+        }
+        int free = keepLast ? n - 1 : n;
+        for (int k = 1; k < free; k += 1) {
+            int from = order[k - 1];
+            int next = -1;
+            for (int j = 0; j < n; j += 1) {
+                if (!visited[j] && (next == -1 || costs[from][j] < costs[from][next])) {
+                    next = j;
+                }
+            }
+            order[k] = next;
+            visited[next] = true;
+        }
+        return order;
+    }
+
+    /** Returns the cost of visiting stops in an order. */
+    static double cost(double[][] costs, int[] order) {
+        double sum = 0;
+        for (int k = 1; k < order.length; k += 1) {
+            sum += costs[order[k - 1]][order[k]];
+        }
+        return sum;
+    }
+
+    private static void reverse(int[] order, int i, int j) {
+        for (; i < j; i += 1, j -= 1) {
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+    }
+}
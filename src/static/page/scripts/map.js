@@ -14,6 +14,7 @@ $(function() {
     const $loadingStatus = $('#status-loading');
     const $errorStatus = $('#status-error');
     const $directionsText = $('#directions-text');
+    const $overlay = $('#overlay');
     const themeableElements = ['body', '.actions', '.card', '.search', '.ui-autocomplete',
                                 '.status', '.settings', '.clear', '.action-icon'];
     var params = {
@@ -29,6 +30,7 @@ $(function() {
     // psueod-lock
     var getInProgress = false;
     var route_params = {};
+    var route_id = null;
     var map;
     var dest;
     var tx = 0, ty = 0;
@@ -38,6 +40,7 @@ $(function() {
     var ullon_bound, ullat_bound, lrlon_bound, lrlat_bound;
     var img_w, img_h;
     var constrain, theme;
+    var profile = 'distance';
 
     /* Starting hyper-parameters #machinelearning */
     const zoom_delta = 0.04;
@@ -57,6 +60,8 @@ $(function() {
     const raster_server = host + '/raster';
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
+    const route_overlay = host + '/route_overlay';
+    const isochrone_server = host + '/isochrone';
     const search = host + '/search';
 
     /* ════════════════════════════ ೋღ HELPERS ღೋ ══════════════════════════ */
@@ -101,6 +106,23 @@ $(function() {
         }
     }
 
+    /* Lay the transparent route tiles over the base map, one per tile in its render grid */
+    function updateOverlay(render_grid) {
+        $overlay.empty();
+        if (!route_id || !render_grid) {
+            return;
+        }
+        for (var r = 0; r < render_grid.length; r++) {
+            const $row = $('<div/>');
+            for (var c = 0; c < render_grid[r].length; c++) {
+                $('<img/>', {
+                    src: route_overlay + '?route_id=' + route_id + '&tile=' + render_grid[r][c]
+                }).appendTo($row);
+            }
+            $row.appendTo($overlay);
+        }
+    }
+
     function updateImg(successCallback) {
         /* Synchronous ajax call for image update.
            Could be async for better experience but then user spam locks up the server.
@@ -117,6 +139,7 @@ $(function() {
                 if (data.query_success) {
                     $loadingStatus.hide();
                     map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
+                    updateOverlay(data.render_grid);
                     console.log('Updating map with image length: ' +
                                 data.b64_encoded_image_data.length);
                     ullon_bound = data.raster_ul_lon;
@@ -155,6 +178,7 @@ $(function() {
 
     function updateT() {
         map.style.transform = 'translateX(' + tx + 'px) translateY(' + ty + 'px)';
+        $overlay.css('transform', map.style.transform);
         dest.style.transform = 'translateX(' + (tx+rtx) + 'px) translateY(' + (ty+rty) + 'px)';
         for (var i = 0; i < markers.length; i++) {
             const marker = markers[i];
@@ -170,9 +194,10 @@ $(function() {
         $.get({
             async: true,
             url: route_server,
-            data: route_params,
+            data: $.extend({ profile: profile }, route_params),
             success: function(data) {
                 data = JSON.parse(data);
+                route_id = data.routing_success ? data.route_id : null;
                 updateImg();
                 if (data.routing_success) {
                     $directionsText.html(data.directions);
@@ -183,6 +208,30 @@ $(function() {
         });
     }
 
+    /* Outline what is reachable from a point, in the overlay a route would use */
+    function updateIsochrone(lon, lat) {
+        const limit = parseFloat($('#isochrone-input').val()) || 0;
+        $.get({
+            async: true,
+            url: isochrone_server,
+            data: {
+                lon: lon,
+                lat: lat,
+                profile: profile,
+                limit: profile === 'distance' ? limit : limit * 60
+            },
+            success: function(data) {
+                data = JSON.parse(data);
+                route_id = data.route_id;
+                route_params = {};
+                dest.style.visibility = 'hidden';
+                $directionsText.html(data.reachable + ' intersections within ' + limit
+                    + (profile === 'distance' ? ' miles.' : ' minutes.'));
+                update();
+            },
+        });
+    }
+
     /* Any function that use a custom callback should probably call updateT() themselves */
     function update(callback) {
         if (callback) {
@@ -325,14 +374,23 @@ $(function() {
 
     /* Make search bar do autocomplete things */
     $('#tags').autocomplete({
-          source: search,
+          /* Rank suggestions by distance from the middle of the current view. */
+          source: function (request, response) {
+              $.getJSON(search, {
+                  term: request.term,
+                  lon: (params.ullon + real_lrlon()) / 2,
+                  lat: (params.ullat + real_lrlat()) / 2
+              }, response);
+          },
           minLength: 2,
           select: function (event, ui) {
               $.get({
                   async: true,
                   url: search,
                   dataType: 'json',
-                  data: { term: ui.item.value, full: true},
+                  data: { term: ui.item.value, full: true,
+                          lon: (params.ullon + real_lrlon()) / 2,
+                          lat: (params.ullat + real_lrlat()) / 2 },
                   success: function(data) {
                       removeMarkers();
                       for (var i = 0; i < data.length; i++) {
@@ -407,7 +465,9 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: route_id ? { route_id: route_id } : {},
             success: function() {
+                route_id = null;
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
                 update();
@@ -439,10 +499,16 @@ $(function() {
     });
 
     $('body').dblclick(function handler(event) {
+        const offset = $body.offset();
+        if (event.shiftKey) {
+            $routeStatus.hide();
+            updateIsochrone(params.ullon + (event.pageX - offset.left) * wdpp,
+                params.ullat - (event.pageY - offset.top) * hdpp);
+            return;
+        }
         if (route_params.start_lon && route_params.end_lon) { //finished routing, reset routing
             route_params = {};
         }
-        const offset = $body.offset();
         if (route_params.start_lon) { // began routing already but not finished
             route_params.end_lon = params.ullon + (event.pageX - offset.left) * wdpp;
             route_params.end_lat = params.ullat - (event.pageY - offset.top) * hdpp;
@@ -482,6 +548,13 @@ $(function() {
         update();
     });
 
+    $('input[type=radio][name=profile]').change(function() {
+        profile = this.value;
+        if (route_params.start_lon && route_params.end_lon) {
+            updateRoute();
+        }
+    });
+
     $('input[type=radio][name=theme]').change(function() {
         theme = this.value;
         setCookie('theme', this.value);
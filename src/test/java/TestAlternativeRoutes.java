@@ -0,0 +1,87 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests alternative routes between the ends of three roads of different lengths that run side
+ * by side, and on a generated grid.
+ */
+public class TestAlternativeRoutes {
+    private static GraphDB graphRoads;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphRoads == null) {
+            File osm = folder.newFile("roads.osm.xml");
+            try (PrintWriter out = new PrintWriter(osm, "UTF-8")) {
+                out.println("<?xml version='1.0' encoding='UTF-8'?>");
+                out.println("<osm version=\"0.6\" generator=\"test\">");
+                out.println("<node id=\"1\" lat=\"37.86\" lon=\"-122.27\"/>");
+                out.println("<node id=\"4\" lat=\"37.86\" lon=\"-122.25\"/>");
+                /* Via 2 is shortest, via 3 a little longer, via 5 about a sixth longer, and
+                   via 6 too long to be worth offering. */
+                out.println("<node id=\"2\" lat=\"37.861\" lon=\"-122.26\"/>");
+                out.println("<node id=\"3\" lat=\"37.857\" lon=\"-122.26\"/>");
+                out.println("<node id=\"5\" lat=\"37.855\" lon=\"-122.26\"/>");
+                out.println("<node id=\"6\" lat=\"37.845\" lon=\"-122.26\"/>");
+                for (int via : new int[]{2, 3, 5, 6}) {
+                    out.printf("<way id=\"10%d\"><nd ref=\"1\"/><nd ref=\"%d\"/><nd ref=\"4\"/>"
+                            + "<tag k=\"highway\" v=\"residential\"/></way>%n", via, via);
+                }
+                out.println("</osm>");
+            }
+            graphRoads = new GraphDB(osm.getPath());
+        }
+    }
+
+    @Test
+    public void testAlternatives() {
+        List<List<Long>> routes = Router.alternatives(graphRoads, 1L, 4L,
+                RoutingProfile.DISTANCE, 4);
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 4L), Arrays.asList(1L, 3L, 4L),
+                Arrays.asList(1L, 5L, 4L)), routes);
+
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 4L), Arrays.asList(1L, 3L, 4L)),
+                Router.alternatives(graphRoads, 1L, 4L, RoutingProfile.DRIVING, 2));
+        assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 4L)),
+                Router.alternatives(graphRoads, 1L, 4L, RoutingProfile.WALKING, 1));
+        assertEquals(Arrays.asList(Arrays.asList(2L)),
+                Router.alternatives(graphRoads, 2L, 2L, RoutingProfile.WALKING, 3));
+    }
+
+    @Test
+    public void testLargeGrid() throws Exception {
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, 100);
+        GraphDB grid = new GraphDB(osm.getPath());
+        long start = grid.closest(-122.29, 37.81);
+        long dest = grid.closest(-122.23, 37.86);
+        RoutingProfile profile = RoutingProfile.WALKING;
+        List<Long> best = Router.shortestPath(grid, start, dest, profile);
+        List<List<Long>> routes = Router.alternatives(grid, start, dest, profile, 3);
+
+        assertEquals(3, routes.size());
+        assertEquals(best, routes.get(0));
+        for (List<Long> route : routes) {
+            assertEquals(start, (long) route.get(0));
+            assertEquals(dest, (long) route.get(route.size() - 1));
+            assertEquals(route.size(), new HashSet<>(route).size());
+        }
+        Set<Long> first = new HashSet<>(routes.get(0));
+        assertTrue(!first.containsAll(routes.get(1)));
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAutocomplete {
+
+    private static List<LocationParams> locations(String... names) {
+        List<LocationParams> locations = new ArrayList<>();
+        long id = 1;
+        for (String name : names) {
+            locations.add(new LocationParams(37.87, -122.26, name, id));
+            id += 1;
+        }
+        return locations;
+    }
+
+    @Test
+    public void testRankedByPopularity() {
+        Autocomplete index = new Autocomplete(locations(
+                "Top Dog", "Peet's Coffee", "Peet's Coffee", "Peet's Coffee", "Pete's Pizza",
+                "Pacific Film Archive", "Starbucks", "Starbucks", "Pete's Pizza"));
+        assertEquals(Arrays.asList("Peet's Coffee", "Pete's Pizza", "Pacific Film Archive"),
+                index.topK("p", 10));
+        assertEquals(Arrays.asList("Peet's Coffee", "Pete's Pizza"), index.topK("pe", 2));
+        assertEquals(Collections.singletonList("Pete's Pizza"), index.topK("PETES", 10));
+        assertEquals(Collections.emptyList(), index.topK("peter", 10));
+        assertEquals(Arrays.asList("Peet's Coffee", "Pete's Pizza", "Starbucks"),
+                index.topK("", 3));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        String[] words = {"alpha", "alps", "al", "bay", "bayview", "b", "bear", "beard", "cal"};
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            names.add(words[i % words.length] + " " + words[(i * 7) % words.length]);
+        }
+        Autocomplete index = new Autocomplete(locations(names.toArray(new String[0])));
+        for (String prefix : new String[]{"a", "al", "alp", "b", "bea", "bay v", "cal b", "z"}) {
+            List<String> expected = new ArrayList<>();
+            for (String name : names) {
+                if (name.startsWith(prefix) && !expected.contains(name)) {
+                    expected.add(name);
+                }
+            }
+            List<String> actual = index.topK(prefix, Integer.MAX_VALUE);
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(prefix, expected, actual);
+        }
+    }
+}
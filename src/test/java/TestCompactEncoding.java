@@ -0,0 +1,132 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCompactEncoding {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotRoundTripsExactly() throws Exception {
+        File osm = folder.newFile("jittered.osm.xml");
+        TestPlanarRouting.writeJitteredGrid(osm, 40, new Random(49));
+        File precise = folder.newFile("precise.osm.xml");
+        try (PrintWriter out = new PrintWriter(precise, "UTF-8")) {
+            out.println("<?xml version='1.0' encoding='UTF-8'?>");
+            out.println("<osm version=\"0.6\" generator=\"test\">");
+            out.println("<node id=\"5\" lat=\"37.8700000001\" lon=\"-122.2600000001\"/>");
+            out.println("<node id=\"3\" lat=\"37.87\" lon=\"-122.25\"/>");
+            out.println("<way id=\"9\"><nd ref=\"5\"/><nd ref=\"3\"/>");
+            out.println("<tag k=\"highway\" v=\"residential\"/></way>");
+            out.println("</osm>");
+        }
+        for (File file : new File[]{osm, precise}) {
+            GraphDB g = new GraphDB(file.getPath());
+            File snapshot = folder.newFile();
+            GraphSnapshot.write(g, snapshot.getPath());
+            GraphDB restored = GraphSnapshot.read(snapshot.getPath());
+            int edges = 0;
+            for (long v : g.vertices()) {
+                assertEquals(g.lon(v), restored.lon(v), 0.0);
+                assertEquals(g.lat(v), restored.lat(v), 0.0);
+                assertEquals(g.adjacent(v), restored.adjacent(v));
+                edges += g.vertexHashMap.get(v).degree;
+            }
+            assertEquals(g.vertexHashMap.size(), restored.vertexHashMap.size());
+            if (file == osm) {
+                /* Fixed width, a vertex took an ID, two coordinates, a degree, a name flag and
+                   an ID and a way per edge. */
+                long fixedWidth = g.vertexHashMap.size() * 29L + edges * 12L;
+                assertTrue(snapshot.length() < fixedWidth / 2);
+            }
+        }
+    }
+
+    @Test
+    public void testCompactVerticesMatchFullOnes() throws Exception {
+        File osm = folder.newFile("jittered.osm.xml");
+        TestPlanarRouting.writeJitteredGrid(osm, 20, new Random(51));
+        GraphDB g = new GraphDB(osm.getPath());
+        for (long id : g.vertices()) {
+            GraphDB.Vertex full = g.vertexHashMap.get(id);
+            GraphDB.Vertex compact = g.new CompactVertex(id, null,
+                    GraphDB.toFixedLon(full.lon()), GraphDB.toFixedLat(full.lat()));
+            assertEquals(full.lon(), compact.lon(), 0.0);
+            assertEquals(full.lat(), compact.lat(), 0.0);
+            assertEquals(full.x(), compact.x(), 0.0);
+            assertEquals(full.y(), compact.y(), 0.0);
+        }
+    }
+
+    @Test
+    public void testCompactGraphFindsShortestRoutes() throws Exception {
+        File osm = folder.newFile("jittered.osm.xml");
+        TestPlanarRouting.writeJitteredGrid(osm, 40, new Random(50));
+        GraphDB g = new GraphDB(osm.getPath());
+        DenseGraph full = new DenseGraph(g, false, false);
+        DenseGraph compact = new DenseGraph(g, false, true);
+        for (int v = 0; v < full.size(); v += 1) {
+            assertEquals(full.lon(v), compact.lon(v), 0.0);
+            assertEquals(full.lat(v), compact.lat(v), 0.0);
+        }
+        for (int e = 0; e < full.edgeCount(); e += 1) {
+            assertTrue(compact.edgeLength(e) >= full.edgeLength(e));
+            assertEquals(full.edgeLength(e), compact.edgeLength(e), full.edgeLength(e) * 1e-6);
+            assertEquals(full.edgeBearing(e), compact.edgeBearing(e), 0.005);
+        }
+        Random random = new Random(6);
+        for (int i = 0; i < 200; i += 1) {
+            int v = random.nextInt(full.size());
+            int w = random.nextInt(full.size());
+            double exact = GraphDB.distance(full.lon(v), full.lat(v), full.lon(w), full.lat(w));
+            assertTrue(compact.planarDistance(v, w) <= exact);
+            /* Both search their KD-order in full precision, so find the vertex the tree does. */
+            double lon = (full.lon(v) + full.lon(w)) / 2;
+            double lat = (full.lat(v) + full.lat(w)) / 2;
+            long nearest = g.closest(lon, lat);
+            assertEquals(nearest, full.id(full.closest(GraphDB.projectToX(lon, lat),
+                    GraphDB.projectToY(lon, lat))));
+            assertEquals(nearest, compact.id(compact.closest(GraphDB.projectToX(lon, lat),
+                    GraphDB.projectToY(lon, lat))));
+            /* Near ties may resolve differently, but never to a longer route. */
+            double miles = length(full, EdgeRouter.shortestRoute(full, v, w));
+            assertEquals(miles, length(full, EdgeRouter.shortestRoute(compact, v, w)),
+                    1e-6 * miles + 1e-9);
+        }
+    }
+
+    /**
+     * Compares the bytes each encoding stores per vertex, counting edges and ways.
+     * <code>LayoutBenchmark</code> compares the time to route on each.
+     */
+    @Test
+    public void testCompactEncodingIsSmaller() throws Exception {
+        File osm = folder.newFile("large.osm.xml");
+        TestPlanarRouting.writeJitteredGrid(osm, 200, new Random(51));
+        GraphDB g = new GraphDB(osm.getPath());
+        DenseGraph[] encodings = {new DenseGraph(g, true, false), new DenseGraph(g, true, true)};
+        long[] bytes = new long[encodings.length];
+        for (int i = 0; i < encodings.length; i += 1) {
+            File file = folder.newFile();
+            encodings[i].write(file.getPath());
+            bytes[i] = file.length() / encodings[i].size();
+        }
+        assertTrue(bytes[1] < bytes[0]);
+    }
+
+    private static double length(DenseGraph d, int[] path) {
+        double miles = 0;
+        for (int i = 1; i < path.length; i += 1) {
+            miles += GraphDB.distance(d.lon(path[i - 1]), d.lat(path[i - 1]), d.lon(path[i]),
+                    d.lat(path[i]));
+        }
+        return miles;
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests route directions on a hand-written 3x3 grid of named streets, where some ways give
+ * their name tag before their highway tag and one edge belongs to an unnamed way.
+ */
+public class TestDirectionsTiny {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testTurns() {
+        assertDirections(graphNamed, Arrays.asList(1L, 2L, 3L, 6L, 9L),
+                "Start on Bancroft Way and continue for 1.09",
+                "Turn right on  and continue for 0.69",
+                "Go straight on Piedmont Avenue and continue for 0.69");
+        assertDirections(graphNamed, Arrays.asList(7L, 8L, 5L, 4L),
+                "Start on Dwight Way and continue for 0.54",
+                "Turn left on Telegraph Avenue and continue for 0.69",
+                "Turn left on Durant Avenue and continue for 0.54");
+    }
+
+    @Test
+    public void testShortRoutes() {
+        assertEquals(0, Router.routeDirections(graphNamed, Arrays.asList(5L)).size());
+        assertDirections(graphNamed, Arrays.asList(5L, 2L),
+                "Start on Telegraph Avenue and continue for 0.69");
+    }
+
+    @Test
+    public void testTurnThresholds() {
+        assertEquals(Router.NavigationDirection.STRAIGHT, Router.NavigationDirection.turn(15));
+        assertEquals(Router.NavigationDirection.SLIGHT_LEFT, Router.NavigationDirection.turn(-16));
+        assertEquals(Router.NavigationDirection.RIGHT, Router.NavigationDirection.turn(100));
+        assertEquals(Router.NavigationDirection.SHARP_LEFT, Router.NavigationDirection.turn(-101));
+        /* Changes of bearing wrap around, so 350 degrees is 10 degrees to the left. */
+        assertEquals(Router.NavigationDirection.STRAIGHT, Router.NavigationDirection.turn(350));
+        assertEquals(Router.NavigationDirection.SHARP_RIGHT,
+                Router.NavigationDirection.turn(-200));
+    }
+
+    @Test
+    public void testSnapshotKeepsWayNames() throws Exception {
+        String path = folder.newFile("tiny-named.snapshot").getPath();
+        GraphSnapshot.write(graphNamed, path);
+        GraphDB restored = GraphSnapshot.read(path);
+        assertDirections(restored, Arrays.asList(7L, 8L, 5L, 4L),
+                "Start on Dwight Way and continue for 0.54",
+                "Turn left on Telegraph Avenue and continue for 0.69",
+                "Turn left on Durant Avenue and continue for 0.54");
+    }
+
+    /** Checks each direction's text up to the given prefix, which leaves out distance digits. */
+    private static void assertDirections(GraphDB g, List<Long> route, String... expected) {
+        List<String> actual = new ArrayList<>();
+        List<Router.NavigationDirection> directions = Router.routeDirections(g, route);
+        for (int i = 0; i < directions.size(); i++) {
+            String text = directions.get(i).toString();
+            actual.add(i < expected.length
+                    ? text.substring(0, Math.min(text.length(), expected[i].length())) : text);
+        }
+        assertEquals(Arrays.asList(expected), actual);
+    }
+}
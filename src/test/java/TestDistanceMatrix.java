@@ -0,0 +1,133 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests many-to-many route costs against one-to-one routes, on the hand-written 3x3 grid and on
+ * a generated grid large enough for a 100x100 matrix.
+ */
+public class TestDistanceMatrix {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testDistanceMatchesShortestPaths() {
+        long[] ids = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        List<double[]> points = new ArrayList<>();
+        for (long id : ids) {
+            points.add(new double[]{graphNamed.lon(id), graphNamed.lat(id)});
+        }
+        double[][] costs = Router.matrix(graphNamed, points, points, RoutingProfile.DISTANCE);
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = 0; j < ids.length; j++) {
+                List<Long> path = Router.shortestPath(graphNamed, ids[i], ids[j]);
+                assertEquals(length(graphNamed, path), costs[i][j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testTimedProfiles() {
+        List<double[]> points = Arrays.asList(new double[]{-122.27, 37.86},
+                new double[]{-122.25, 37.86});
+        double[][] walking = Router.matrix(graphNamed, points, points, RoutingProfile.WALKING);
+        double[][] distance = Router.matrix(graphNamed, points, points, RoutingProfile.DISTANCE);
+        assertEquals(0, walking[0][0], 0);
+        assertEquals(distance[0][1] / 3 * 3600, walking[0][1], 1e-2);
+        assertEquals(walking[0][1], walking[1][0], 1e-2);
+
+        /* Eastbound along one-way Durant is direct; westbound drives around by Dwight Way. */
+        double[][] driving = Router.matrix(graphNamed, points, points, RoutingProfile.DRIVING);
+        assertEquals(0, driving[1][1], 0);
+        assertTrue(driving[1][0] > driving[0][1]);
+    }
+
+    @Test
+    public void testLargeMatrix() throws Exception {
+        int side = 100;
+        File osm = folder.newFile("grid.osm.xml");
+        writeGrid(osm, side);
+        GraphDB grid = new GraphDB(osm.getPath());
+
+        Random random = new Random(36);
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            points.add(new double[]{-122.3 + random.nextDouble() * side * 1e-3,
+                    37.8 + random.nextDouble() * side * 1e-3});
+        }
+        for (RoutingProfile profile : RoutingProfile.PROFILES) {
+            double[][] costs = Router.matrix(grid, points, points, profile);
+            assertEquals(100, costs.length);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(0, costs[i][i], 0);
+            }
+        }
+
+        /* Spot-check rows against single searches. */
+        double[][] costs = Router.matrix(grid, points, points, RoutingProfile.DISTANCE);
+        for (int k = 0; k < 5; k++) {
+            int i = random.nextInt(100);
+            int j = random.nextInt(100);
+            long from = grid.closest(points.get(i)[0], points.get(i)[1]);
+            long to = grid.closest(points.get(j)[0], points.get(j)[1]);
+            assertEquals(length(grid, Router.shortestPath(grid, from, to)), costs[i][j], 1e-9);
+        }
+    }
+
+    private static double length(GraphDB g, List<Long> path) {
+        double miles = 0;
+        for (int i = 1; i < path.size(); i++) {
+            miles += g.distance(path.get(i - 1), path.get(i));
+        }
+        return miles;
+    }
+
+    /** Writes a square grid of residential streets 0.001 degrees apart. */
+    static void writeGrid(File file, int side) throws Exception {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version='1.0' encoding='UTF-8'?>");
+            out.println("<osm version=\"0.6\" generator=\"test\">");
+            for (int r = 0; r < side; r++) {
+                for (int c = 0; c < side; c++) {
+                    out.printf("<node id=\"%d\" lat=\"%.4f\" lon=\"%.4f\"/>%n", r * side + c + 1,
+                            37.8 + r * 1e-3, -122.3 + c * 1e-3);
+                }
+            }
+            long way = 1000000;
+            for (int i = 0; i < side; i++) {
+                out.printf("<way id=\"%d\">%n", way++);
+                for (int c = 0; c < side; c++) {
+                    out.printf("<nd ref=\"%d\"/>%n", i * side + c + 1);
+                }
+                out.println("<tag k=\"highway\" v=\"residential\"/></way>");
+                out.printf("<way id=\"%d\">%n", way++);
+                for (int r = 0; r < side; r++) {
+                    out.printf("<nd ref=\"%d\"/>%n", r * side + i + 1);
+                }
+                out.println("<tag k=\"highway\" v=\"tertiary\"/></way>");
+            }
+            out.println("</osm>");
+        }
+    }
+}
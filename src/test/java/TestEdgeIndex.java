@@ -0,0 +1,173 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests snapping to road segments on the hand-written 3x3 grid, where Durant Avenue (4-5-6) is
+ * one-way east, and against brute force on a generated grid.
+ */
+public class TestEdgeIndex {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testSnapMidBlock() {
+        DenseGraph d = graphNamed.dense;
+        EdgeIndex.Snap snap = graphNamed.snap(-122.265, 37.8601);
+        assertEquals(4L, d.id(d.edgeTo(d.edgeTwin(snap.edge))));
+        assertEquals(5L, d.id(d.edgeTo(snap.edge)));
+        assertEquals(0.5, snap.t, 1e-3);
+        assertEquals(-122.265, snap.lon, 1e-9);
+        assertEquals(37.86, snap.lat, 1e-9);
+        assertEquals(GraphDB.distance(-122.265, 37.8601, -122.265, 37.86), snap.distance, 1e-9);
+        /* The nearest vertex is a quarter mile away. */
+        long closest = graphNamed.closest(-122.265, 37.8601);
+        assertTrue(GraphDB.distance(-122.265, 37.8601, graphNamed.lon(closest),
+                graphNamed.lat(closest)) > 0.25);
+    }
+
+    @Test
+    public void testRouteBetweenSnaps() {
+        EdgeIndex.Snap west = graphNamed.snap(-122.265, 37.86);
+        EdgeIndex.Snap east = graphNamed.snap(-122.255, 37.86);
+        List<Long> route = Router.shortestPath(graphNamed, west, east, RoutingProfile.DRIVING);
+        assertEquals(Arrays.asList(5L), route);
+        List<Router.NavigationDirection> directions = Router.routeDirections(graphNamed, west,
+                route, east);
+        assertEquals(1, directions.size());
+        assertEquals("Durant Avenue", directions.get(0).way);
+        assertEquals(GraphDB.distance(-122.265, 37.86, -122.255, 37.86),
+                directions.get(0).distance, 1e-9);
+
+        /* Durant is one-way east, so driving west goes around the block. */
+        List<Long> around = Router.shortestPath(graphNamed, east, west, RoutingProfile.DRIVING);
+        assertEquals(6L, (long) around.get(0));
+        assertEquals(4L, (long) around.get(around.size() - 1));
+        assertFalse(around.contains(5L) && around.indexOf(5L) + 1 < around.size()
+                && around.get(around.indexOf(5L) + 1) == 4L);
+        assertEquals(Arrays.asList(5L),
+                Router.shortestPath(graphNamed, east, west, RoutingProfile.WALKING));
+
+        /* Two points on one edge are joined directly. */
+        EdgeIndex.Snap near = graphNamed.snap(-122.268, 37.86);
+        assertEquals(0, Router.shortestPath(graphNamed, west, near,
+                RoutingProfile.DISTANCE).size());
+        assertEquals(1, Router.routeDirections(graphNamed, west, Arrays.asList(), near).size());
+    }
+
+    @Test
+    public void testConcurrentClosest() throws Exception {
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, 30);
+        GraphDB grid = new GraphDB(osm.getPath());
+        Random random = new Random(27);
+        int queries = 2000;
+        double[][] points = new double[queries][];
+        long[] expected = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            points[i] = new double[]{-122.3 + random.nextDouble() * 0.1,
+                37.8 + random.nextDouble() * 0.1};
+            expected[i] = grid.closest(points[i][0], points[i][1]);
+        }
+        /* Searches running side by side, as on the endpoint pools, each find their own vertex. */
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(pool.submit(() -> {
+                long[] found = new long[queries];
+                for (int i = 0; i < queries; i++) {
+                    found[i] = grid.closest(points[i][0], points[i][1]);
+                }
+                return found;
+            }));
+        }
+        for (Future<long[]> result : results) {
+            assertArrayEquals(expected, result.get());
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testAgainstBruteForce() throws Exception {
+        int side = 100;
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, side);
+        GraphDB grid = new GraphDB(osm.getPath());
+        DenseGraph d = grid.dense;
+        assertEquals(d.edgeCount() / 2, grid.edgeIndex.size());
+
+        Random random = new Random(41);
+        for (int i = 0; i < 200; i++) {
+            double lon = -122.301 + random.nextDouble() * 0.102;
+            double lat = 37.799 + random.nextDouble() * 0.102;
+            EdgeIndex.Snap snap = grid.snap(lon, lat);
+            assertNotNull(snap);
+            assertEquals(bruteDistance(d, -1, lon, lat), snap.distance, 1e-6);
+            assertEquals(snap.distance, bruteDistance(d, snap.edge, lon, lat), 1e-9);
+
+            double radius = 0.05;
+            Set<Integer> found = new HashSet<>();
+            grid.edgeIndex.within(lon, lat, radius, found::add);
+            for (int e = 0; e < d.edgeCount(); e++) {
+                if (!d.edgeForward(e)) {
+                    continue;
+                }
+                double distance = bruteDistance(d, e, lon, lat);
+                if (distance < 0.99 * radius) {
+                    assertTrue(found.contains(e));
+                } else if (distance > 1.01 * radius) {
+                    assertFalse(found.contains(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the distance in miles from a point to one edge's segment, or to the nearest
+     * segment if the edge is -1.
+     */
+    private static double bruteDistance(DenseGraph d, int edge, double lon, double lat) {
+        double best = Double.POSITIVE_INFINITY;
+        double scale = Math.cos(Math.toRadians(lat));
+        for (int e = edge < 0 ? 0 : edge; e < (edge < 0 ? d.edgeCount() : edge + 1); e++) {
+            int u = d.edgeTo(d.edgeTwin(e));
+            int v = d.edgeTo(e);
+            double ex = (d.lon(v) - d.lon(u)) * scale;
+            double ey = d.lat(v) - d.lat(u);
+            double t = ((lon - d.lon(u)) * scale * ex + (lat - d.lat(u)) * ey)
+                    / (ex * ex + ey * ey);
+            t = Math.max(0, Math.min(1, t));
+            best = Math.min(best, GraphDB.distance(lon, lat, d.lon(u) + t * (d.lon(v) - d.lon(u)),
+                    d.lat(u) + t * (d.lat(v) - d.lat(u))));
+        }
+        return best;
+    }
+}
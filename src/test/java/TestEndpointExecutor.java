@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a saturated endpoint pool neither delays requests for other pools nor holds on to
+ * requests it has no room for.
+ */
+public class TestEndpointExecutor {
+
+    @Test
+    public void testSaturatedPoolDoesNotStarveOthers() throws Exception {
+        EndpointExecutor raster = new EndpointExecutor("raster", 2, 2);
+        EndpointExecutor route = new EndpointExecutor("route", 2, 8);
+        CountDownLatch running = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger finished = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(raster.capacity());
+        for (int i = 0; i < raster.capacity(); i++) {
+            clients.submit(() -> raster.call(() -> {
+                running.countDown();
+                release.await();
+                return finished.incrementAndGet();
+            }));
+        }
+        /* Both workers are busy and both queue slots are taken. */
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        while (raster.queued() < 2) {
+            Thread.sleep(1);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            final int expected = i;
+            assertEquals(expected, (int) route.call(() -> expected));
+        }
+        assertEquals("Raster requests ran before being released", 0, finished.get());
+
+        try {
+            raster.call(() -> true);
+            fail("A full pool should reject instead of queueing without bound");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, raster.rejectedCount());
+        }
+        release.countDown();
+        clients.shutdown();
+        assertTrue(clients.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(raster.capacity(), finished.get());
+        raster.shutdown();
+        route.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTaskExceptionPropagates() throws Exception {
+        EndpointExecutor pool = new EndpointExecutor("search", 1, 1);
+        try {
+            pool.call(() -> {
+                throw new IllegalStateException("halted");
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
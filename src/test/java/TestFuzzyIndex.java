@@ -0,0 +1,157 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks fuzzy name search against a brute-force scan computing the bounded edit distance to
+ * every name, on a synthetic name set about ten times the size of Berkeley's.
+ * <code>FuzzyBenchmark</code> compares the two in speed.
+ */
+public class TestFuzzyIndex {
+    private static final String[] WORDS = {
+        "telegraph", "shattuck", "college", "bancroft", "durant", "channing", "haste", "dwight",
+        "ashby", "alcatraz", "piedmont", "euclid", "hearst", "cedar", "vine", "rose", "oxford",
+        "milvia", "grant", "martin", "luther", "king", "sacramento", "san", "pablo", "university",
+        "addison", "allston", "kittredge", "bowditch", "ellsworth", "fulton", "claremont", "tunnel",
+        "coffee", "pizza", "market", "library", "park", "garden", "hall", "station", "cafe",
+        "bakery", "school", "church", "theater", "museum", "plaza", "tower"
+    };
+    private static final String[] SUFFIXES = {
+        "", " street", " avenue", " way", " road", " drive", " place", " court", " lane"
+    };
+    private static final int NUM_NAMES = 50000;
+    private static final int NUM_QUERIES = 100;
+
+    private static List<LocationParams> syntheticLocations(Random random, int count) {
+        List<LocationParams> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int words = 1 + random.nextInt(3);
+            StringBuilder name = new StringBuilder();
+            for (int w = 0; w < words; w++) {
+                name.append(w == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            name.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+            locations.add(new LocationParams(37.87, -122.26, name.toString(), i));
+        }
+        return locations;
+    }
+
+    /** Misspells a name with one or two random edits. */
+    private static String typo(Random random, String name) {
+        StringBuilder s = new StringBuilder(name);
+        int edits = 1 + random.nextInt(2);
+        for (int e = 0; e < edits && s.length() > 1; e++) {
+            int at = random.nextInt(s.length());
+            char c = (char) ('a' + random.nextInt(26));
+            switch (random.nextInt(3)) {
+                case 0:
+                    s.setCharAt(at, c);
+                    break;
+                case 1:
+                    s.deleteCharAt(at);
+                    break;
+                default:
+                    s.insert(at, c);
+                    break;
+            }
+        }
+        return s.toString();
+    }
+
+    private static Set<String> bruteForce(List<String> names, List<String> cleaned,
+                                          String query, int maxEdits) {
+        String q = GraphDB.cleanString(query);
+        Set<String> matches = new HashSet<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (FuzzyIndex.editDistance(q, cleaned.get(i), maxEdits) <= maxEdits) {
+                matches.add(names.get(i));
+            }
+        }
+        return matches;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int sub = d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                d[i][j] = Math.min(sub, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    @Test
+    public void testEditDistance() {
+        assertEquals(0, FuzzyIndex.editDistance("durant", "durant", 2));
+        assertEquals(1, FuzzyIndex.editDistance("durnt", "durant", 2));
+        assertEquals(2, FuzzyIndex.editDistance("teelgraph", "telegraph", 2));
+        assertEquals(3, FuzzyIndex.editDistance("abc", "xyz", 2));
+        assertEquals(2, FuzzyIndex.editDistance("ab", "abcd", 2));
+
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            String a = WORDS[random.nextInt(WORDS.length)];
+            String b = typo(random, typo(random, WORDS[random.nextInt(WORDS.length)]));
+            int max = random.nextInt(4);
+            assertEquals(a + " " + b, Math.min(levenshtein(a, b), max + 1),
+                    FuzzyIndex.editDistance(a, b, max));
+        }
+    }
+
+    @Test
+    public void testRanking() {
+        List<LocationParams> locations = new ArrayList<>();
+        for (String name : new String[]{"Top Dog", "Top Dogs", "Tap Dog", "Tap Dog", "Hot Dog"}) {
+            locations.add(new LocationParams(37.87, -122.26, name, locations.size()));
+        }
+        FuzzyIndex index = new FuzzyIndex(locations);
+        assertEquals(Arrays.asList("Top Dog", "Tap Dog", "Top Dogs"), index.search("top dog", 3));
+        assertEquals(Arrays.asList("Tap Dog", "Top Dog"), index.search("tpo dog", 10, 2));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(61);
+        List<LocationParams> locations = syntheticLocations(random, NUM_NAMES);
+        FuzzyIndex index = new FuzzyIndex(locations);
+        List<String> names = new ArrayList<>(new HashSet<>(namesOf(locations)));
+        List<String> cleaned = new ArrayList<>();
+        for (String name : names) {
+            cleaned.add(GraphDB.cleanString(name));
+        }
+
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries.add(typo(random, names.get(random.nextInt(names.size()))));
+        }
+
+        for (String query : queries) {
+            int maxEdits = FuzzyIndex.defaultMaxEdits(GraphDB.cleanString(query).length());
+            List<String> actual = index.search(query, Integer.MAX_VALUE, maxEdits);
+            Set<String> expected = bruteForce(names, cleaned, query, maxEdits);
+            assertEquals(query, expected, new HashSet<>(actual));
+        }
+    }
+
+    private static List<String> namesOf(List<LocationParams> locations) {
+        List<String> names = new ArrayList<>();
+        for (LocationParams location : locations) {
+            names.add(location.name);
+        }
+        return names;
+    }
+}
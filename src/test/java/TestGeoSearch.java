@@ -0,0 +1,102 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests location search ranked by distance from a point, on the hand-written graph and against
+ * a brute-force sort over synthetic locations.
+ */
+public class TestGeoSearch {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static final String[] PREFIXES = {"cafe ", "pizza ", "park "};
+
+    @Test
+    public void testRankedByDistance() {
+        GraphDB g = new GraphDB(OSM_DB_PATH_NAMED);
+        assertEquals(Arrays.asList("Peet's Coffee", "Pacific Film Archive"),
+                g.getLocationsByPrefix("p", 10, -122.252, 37.852));
+        assertEquals(Arrays.asList("Pacific Film Archive", "Peet's Coffee"),
+                g.getLocationsByPrefix("p", 10, -122.255, 37.866));
+        assertEquals(Arrays.asList("Pacific Film Archive"),
+                g.getLocationsByPrefix("p", 1, -122.255, 37.866));
+        assertEquals(Arrays.asList(), g.getLocationsByPrefix("zz", 10, -122.255, 37.866));
+
+        List<LocationParams> topDogs = g.getLocations("top dog", -122.265, 37.855);
+        assertEquals(23L, topDogs.get(0).id);
+        assertEquals(20L, topDogs.get(1).id);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(32);
+        List<LocationParams> locations = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            String name = PREFIXES[random.nextInt(PREFIXES.length)] + random.nextInt(1000);
+            locations.add(new LocationParams(37.84 + random.nextDouble() * 0.05,
+                    -122.30 + random.nextDouble() * 0.08, name, i));
+        }
+        GraphDB g = new GraphDB();
+        g.locationIndex = new LocationIndex(locations);
+        g.buildIndexes();
+
+        for (int q = 0; q < 50; q++) {
+            double lon = -122.30 + random.nextDouble() * 0.08;
+            double lat = 37.84 + random.nextDouble() * 0.05;
+            String prefix = PREFIXES[random.nextInt(PREFIXES.length)];
+            int k = 1 + random.nextInt(20);
+            assertEquals(bruteForce(locations, prefix, k, lon, lat),
+                    g.getLocationsByPrefix(prefix, k, lon, lat));
+        }
+    }
+
+    @Test
+    public void testManyMatchesFarFromTheCenter() {
+        Random random = new Random(33);
+        List<LocationParams> locations = new ArrayList<>();
+        /* Thousands of cafes in the far east of the map, and parks around the center. */
+        for (int i = 0; i < 5000; i++) {
+            locations.add(new LocationParams(37.84 + random.nextDouble() * 0.05,
+                    -122.22 + random.nextDouble() * 0.01, "cafe " + i, i));
+            locations.add(new LocationParams(37.86 + random.nextDouble() * 0.01,
+                    -122.30 + random.nextDouble() * 0.01, "park " + i, 5000 + i));
+        }
+        GraphDB g = new GraphDB();
+        g.locationIndex = new LocationIndex(locations);
+        g.buildIndexes();
+
+        for (int k : new int[]{1, 10, 100}) {
+            assertEquals(bruteForce(locations, "cafe", k, -122.295, 37.865),
+                    g.getLocationsByPrefix("cafe", k, -122.295, 37.865));
+        }
+        assertEquals(5000, g.getLocationsByPrefix("cafe", 10000, -122.295, 37.865).size());
+    }
+
+    private static List<String> bruteForce(List<LocationParams> locations, String prefix, int k,
+                                           double lon, double lat) {
+        double x = GraphDB.projectToX(lon, lat);
+        double y = GraphDB.projectToY(lon, lat);
+        List<LocationParams> matches = new ArrayList<>();
+        for (LocationParams location : locations) {
+            if (GraphDB.cleanString(location.name).startsWith(GraphDB.cleanString(prefix))) {
+                matches.add(location);
+            }
+        }
+        matches.sort(Comparator.comparingDouble(l -> GraphDB.euclidean(x,
+                GraphDB.projectToX(l.lon, l.lat), y, GraphDB.projectToY(l.lon, l.lat))));
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (LocationParams location : matches) {
+            if (names.size() == k) {
+                break;
+            }
+            names.add(location.name);
+        }
+        return new ArrayList<>(names);
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestGraphLayout {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHilbertCurveVisitsNeighbouringCells() {
+        int side = 16;
+        int[] xs = new int[side * side];
+        int[] ys = new int[side * side];
+        boolean[] seen = new boolean[side * side];
+        for (int x = 0; x < side; x += 1) {
+            for (int y = 0; y < side; y += 1) {
+                int d = (int) DenseGraph.hilbert(x, y);
+                /* The curve fills the corner square before leaving it. */
+                assertTrue(d < side * side && !seen[d]);
+                seen[d] = true;
+                xs[d] = x;
+                ys[d] = y;
+            }
+        }
+        for (int d = 1; d < side * side; d += 1) {
+            assertEquals(1, Math.abs(xs[d] - xs[d - 1]) + Math.abs(ys[d] - ys[d - 1]));
+        }
+    }
+
+    @Test
+    public void testReorderingKeepsRoutes() throws Exception {
+        int side = 30;
+        File osm = folder.newFile("shuffled.osm.xml");
+        writeShuffledGrid(osm, side, new Random(47));
+        GraphDB g = new GraphDB(osm.getPath());
+        DenseGraph byId = new DenseGraph(g, false);
+        DenseGraph byCurve = new DenseGraph(g, true);
+        assertEquals(byId.size(), byCurve.size());
+        assertEquals(byId.edgeCount(), byCurve.edgeCount());
+        Random random = new Random(4);
+        for (int i = 0; i < 100; i += 1) {
+            long start = byId.id(random.nextInt(byId.size()));
+            long dest = byId.id(random.nextInt(byId.size()));
+            assertArrayEquals(ids(byId, EdgeRouter.shortestRoute(byId, byId.index(start),
+                    byId.index(dest))), ids(byCurve, EdgeRouter.shortestRoute(byCurve,
+                    byCurve.index(start), byCurve.index(dest))));
+            assertArrayEquals(ids(byId, EdgeRouter.route(byId, byId.index(start),
+                    byId.index(dest), RoutingProfile.DRIVING)), ids(byCurve,
+                    EdgeRouter.route(byCurve, byCurve.index(start), byCurve.index(dest),
+                    RoutingProfile.DRIVING)));
+        }
+    }
+
+    private static long[] ids(DenseGraph d, int[] path) {
+        return Arrays.stream(path).mapToLong(d::id).toArray();
+    }
+
+    /** Writes a grid of streets whose node IDs are a random permutation. */
+    private static void writeShuffledGrid(File file, int side, Random random) throws Exception {
+        long[] ids = new long[side * side];
+        for (int i = 0; i < ids.length; i += 1) {
+            ids[i] = i + 1;
+        }
+        for (int i = ids.length - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            long t = ids[i];
+            ids[i] = ids[j];
+            ids[j] = t;
+        }
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version='1.0' encoding='UTF-8'?>");
+            out.println("<osm version=\"0.6\" generator=\"test\">");
+            for (int r = 0; r < side; r++) {
+                for (int c = 0; c < side; c++) {
+                    out.printf("<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>%n", ids[r * side + c],
+                            37.8 + (r + 0.4 * random.nextDouble()) * 1e-3,
+                            -122.3 + (c + 0.4 * random.nextDouble()) * 1e-3);
+                }
+            }
+            long way = 10000000;
+            for (int i = 0; i < side; i++) {
+                out.printf("<way id=\"%d\">%n", way++);
+                for (int c = 0; c < side; c++) {
+                    out.printf("<nd ref=\"%d\"/>%n", ids[i * side + c]);
+                }
+                out.println("<tag k=\"highway\" v=\"residential\"/></way>");
+                out.printf("<way id=\"%d\">%n", way++);
+                for (int r = 0; r < side; r++) {
+                    out.printf("<nd ref=\"%d\"/>%n", ids[r * side + i]);
+                }
+                out.println("<tag k=\"highway\" v=\"tertiary\"/></way>");
+            }
+            out.println("</osm>");
+        }
+    }
+}
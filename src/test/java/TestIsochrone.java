@@ -0,0 +1,126 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reachable areas on the hand-written 3x3 grid, where grid streets are about 0.55 miles
+ * apart east to west and 0.69 miles north to south, and Durant Avenue (4-5-6) is one-way east.
+ */
+public class TestIsochrone {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testReachableVertices() {
+        Isochrone area = Router.isochrone(graphNamed, -122.26, 37.86, 1.0,
+                RoutingProfile.DISTANCE);
+        assertEquals(new HashSet<>(Arrays.asList(5L, 2L, 4L, 6L, 8L)),
+                new HashSet<>(area.vertexIds()));
+        assertEquals(5L, (long) area.vertexIds().get(0));
+        double[] costs = area.costs();
+        for (int i = 1; i < costs.length; i++) {
+            assertTrue(costs[i - 1] <= costs[i]);
+            List<Long> path = Router.shortestPath(graphNamed, 5L, area.vertexIds().get(i));
+            assertEquals(graphNamed.distance(path.get(0), path.get(1)), costs[i], 1e-9);
+        }
+
+        Isochrone origin = Router.isochrone(graphNamed, -122.26, 37.86, 0,
+                RoutingProfile.DISTANCE);
+        assertEquals(Arrays.asList(5L), origin.vertexIds());
+    }
+
+    @Test
+    public void testOneway() {
+        /* Durant is one-way east, so 4 is far by car but near on foot. */
+        double seconds = 100;
+        assertEquals(new HashSet<>(Arrays.asList(5L, 2L, 6L, 8L)), new HashSet<>(
+                Router.isochrone(graphNamed, -122.26, 37.86, seconds, RoutingProfile.DRIVING)
+                        .vertexIds()));
+        assertTrue(Router.isochrone(graphNamed, -122.26, 37.86, 800, RoutingProfile.WALKING)
+                .vertexIds().contains(4L));
+    }
+
+    @Test
+    public void testPolygon() {
+        Isochrone area = Router.isochrone(graphNamed, -122.26, 37.86, 1.0,
+                RoutingProfile.DISTANCE);
+        List<double[][]> rings = area.polygon();
+        assertEquals(1, rings.size());
+        double[][] ring = rings.get(0);
+        assertTrue(Arrays.equals(ring[0], ring[ring.length - 1]));
+        /* Every reachable vertex and the roads between them are inside; far corners are not. */
+        for (long v : area.vertexIds()) {
+            assertTrue(inside(ring, graphNamed.lon(v), graphNamed.lat(v)));
+        }
+        assertTrue(inside(ring, -122.265, 37.86));
+        assertTrue(!inside(ring, -122.27, 37.87));
+        assertTrue(!inside(ring, -122.25, 37.85));
+        assertTrue(area(ring) > 0);
+
+        /* Nothing reachable but the start still outlines one cell around it. */
+        List<double[][]> cell = Router.isochrone(graphNamed, -122.26, 37.86, 0,
+                RoutingProfile.DISTANCE).polygon();
+        assertEquals(1, cell.size());
+        assertEquals(5, cell.get(0).length);
+        assertTrue(inside(cell.get(0), -122.26, 37.86));
+    }
+
+    @Test
+    public void testLargeIsochrone() throws Exception {
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, 100);
+        GraphDB grid = new GraphDB(osm.getPath());
+        for (RoutingProfile profile : RoutingProfile.PROFILES) {
+            double limit = profile.timed() ? RoutingProfile.seconds(2, profile.maxSpeed()) : 2;
+            Isochrone first = Router.isochrone(grid, -122.25, 37.85, limit, profile);
+            first.polygon();
+            /* A second search in the same thread's reused workspace finds the same area. */
+            Isochrone area = Router.isochrone(grid, -122.25, 37.85, limit, profile);
+            List<double[][]> rings = area.polygon();
+            assertEquals(first.size(), area.size());
+            assertTrue(inside(rings.get(0), -122.25, 37.85));
+        }
+    }
+
+    /** Returns whether a point is inside a closed ring, by counting crossings of a ray east. */
+    private static boolean inside(double[][] ring, double lon, double lat) {
+        boolean inside = false;
+        for (int i = 1; i < ring.length; i++) {
+            double[] a = ring[i - 1];
+            double[] b = ring[i];
+            if ((a[1] > lat) != (b[1] > lat)
+                    && lon < a[0] + (lat - a[1]) / (b[1] - a[1]) * (b[0] - a[0])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /** Returns the signed area of a closed ring, positive when it runs counter-clockwise. */
+    private static double area(double[][] ring) {
+        double sum = 0;
+        for (int i = 1; i < ring.length; i++) {
+            sum += ring[i - 1][0] * ring[i][1] - ring[i][0] * ring[i - 1][1];
+        }
+        return sum / 2;
+    }
+}
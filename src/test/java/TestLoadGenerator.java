@@ -0,0 +1,103 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLoadGenerator {
+
+    @Test
+    public void testSyntheticTrafficStaysOnTheMap() {
+        Iterator<String> traffic = new LoadGenerator.SyntheticTraffic(new Random(7), 6, 3, 1);
+        int rasters = 0;
+        for (int i = 0; i < 10000; i += 1) {
+            String path = traffic.next();
+            String endpoint = LoadGenerator.endpoint(path);
+            if (endpoint.equals("/raster")) {
+                rasters += 1;
+                RasterRequestParams params = RasterRequestParams.from(query(path));
+                assertTrue(path, params.ullon >= MapServer.ROOT_ULLON - 1e-7);
+                assertTrue(path, params.lrlon <= MapServer.ROOT_LRLON + 1e-7);
+                assertTrue(path, params.ullat <= MapServer.ROOT_ULLAT + 1e-7);
+                assertTrue(path, params.lrlat >= MapServer.ROOT_LRLAT - 1e-7);
+                assertTrue(path, params.ullon < params.lrlon && params.lrlat < params.ullat);
+            } else if (endpoint.equals("/route")) {
+                RouteRequestParams params = RouteRequestParams.from(query(path));
+                assertTrue(path, params.startLon >= MapServer.ROOT_ULLON
+                        && params.endLat <= MapServer.ROOT_ULLAT);
+            } else {
+                assertEquals("/search", endpoint);
+            }
+        }
+        assertEquals(0.6, rasters / 10000.0, 0.02);
+    }
+
+    @Test
+    public void testReplayCyclesThroughTheLog() {
+        Iterator<String> replay = LoadGenerator.replay(Arrays.asList("# recorded", "",
+                "http://localhost:4567/search?term=top", "/route?start_lon=1"));
+        assertEquals("/search?term=top", replay.next());
+        assertEquals("/route?start_lon=1", replay.next());
+        assertEquals("/search?term=top", replay.next());
+    }
+
+    /**
+     * A server that stalls once delays every request due during the stall. Their service time
+     * is short, since each is answered as soon as it is sent, but their latency from when they
+     * were due is not, and the corrected percentiles must show it.
+     */
+    @Test
+    public void testStallIsNotOmitted() throws Exception {
+        AtomicInteger handled = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newSingleThreadExecutor());
+        server.createContext("/", exchange -> {
+            if (handled.incrementAndGet() == 20) {
+                try {
+                    Thread.sleep(400);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            LoadGenerator generator = new LoadGenerator("http://localhost:"
+                    + server.getAddress().getPort(), 1);
+            LoadGenerator.Report report = generator.run(
+                    LoadGenerator.replay(Arrays.asList("/search?term=a")), 100, 1000000000L, 0);
+            LoadGenerator.Result result = report.result("/search");
+            assertEquals(100, result.responseTime.count());
+            assertEquals(0, result.errors.sum());
+            /* About 40 requests were due during the stall, waiting up to 400 ms. */
+            assertTrue(result.responseTime.valueAt(0.9) > 100000000L);
+            assertTrue(result.serviceTime.valueAt(0.9) < 50000000L);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static Map<String, String[]> query(String path) {
+        Map<String, String[]> params = new HashMap<>();
+        for (String pair : path.substring(path.indexOf('?') + 1).split("&")) {
+            String[] kv = pair.split("=");
+            params.put(kv[0], new String[]{kv[1]});
+        }
+        return params;
+    }
+}
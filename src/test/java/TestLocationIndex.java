@@ -0,0 +1,87 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests full-name location lookup on a hand-written graph, and that the location index survives
+ * a round trip through a graph snapshot.
+ */
+public class TestLocationIndex {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testGetLocations() {
+        assertEquals(setOf(20L, 23L), idsOf(graphNamed.getLocations("Top Dog")));
+        assertEquals(setOf(20L, 23L), idsOf(graphNamed.getLocations("TOP DOG!")));
+        assertEquals(setOf(21L, 22L), idsOf(graphNamed.getLocations("peets coffee")));
+        assertEquals(setOf(), idsOf(graphNamed.getLocations("top")));
+
+        LocationParams archive = graphNamed.getLocations("pacific film archive").get(0);
+        assertEquals("Pacific Film Archive", archive.name);
+        assertEquals(37.865, archive.lat, 1e-9);
+        assertEquals(-122.255, archive.lon, 1e-9);
+    }
+
+    @Test
+    public void testUnconnectedLocationsAreKept() {
+        /* Node 20 is not on any road, so clean removes it from the graph but not the index. */
+        Set<Long> vertices = new HashSet<>();
+        for (long v : graphNamed.vertices()) {
+            vertices.add(v);
+        }
+        assertTrue(!vertices.contains(20L));
+        assertEquals(Arrays.asList("Peet's Coffee", "Pacific Film Archive"),
+                graphNamed.getLocationsByPrefix("p"));
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        String path = folder.newFile("tiny-named.snapshot").getPath();
+        GraphSnapshot.write(graphNamed, path);
+        GraphDB restored = GraphSnapshot.read(path);
+
+        int count = 0;
+        for (long v : graphNamed.vertices()) {
+            assertEquals(graphNamed.lon(v), restored.lon(v), 0.0);
+            assertEquals(graphNamed.lat(v), restored.lat(v), 0.0);
+            assertEquals(graphNamed.adjacent(v), restored.adjacent(v));
+            count += 1;
+        }
+        assertEquals(count, TestGraphBuilding.countIterableItems(restored.vertices()));
+        assertEquals(setOf(20L, 23L), idsOf(restored.getLocations("top dog")));
+        assertEquals(graphNamed.getLocationsByPrefix("p"), restored.getLocationsByPrefix("p"));
+        assertEquals(graphNamed.closest(-122.258, 37.868), restored.closest(-122.258, 37.868));
+    }
+
+    private static Set<Long> idsOf(List<LocationParams> locations) {
+        Set<Long> ids = new HashSet<>();
+        for (LocationParams location : locations) {
+            ids.add(location.id);
+        }
+        return ids;
+    }
+
+    private static Set<Long> setOf(Long... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,133 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests matching traces on the hand-written 3x3 grid, where Durant Avenue (4-5-6) is one-way
+ * east, and on a generated grid.
+ */
+public class TestMapMatcher {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    /** Returns points along Durant from one longitude to another, wobbling a few meters. */
+    private static List<double[]> durant(double fromLon, double toLon) {
+        List<double[]> trace = new ArrayList<>();
+        int steps = 16;
+        for (int i = 0; i <= steps; i++) {
+            double lon = fromLon + (toLon - fromLon) * i / steps;
+            trace.add(new double[]{lon, 37.86 + (i % 2 == 0 ? 2e-5 : -2e-5)});
+        }
+        return trace;
+    }
+
+    @Test
+    public void testMatchAlongRoad() {
+        List<double[]> trace = durant(-122.269, -122.251);
+        List<MapMatcher.Match> matches = MapMatcher.match(graphNamed, trace,
+                RoutingProfile.DRIVING);
+        assertEquals(trace.size(), matches.size());
+        List<Long> durant = Arrays.asList(4L, 5L, 6L);
+        for (int i = 0; i < matches.size(); i++) {
+            MapMatcher.Match m = matches.get(i);
+            assertEquals(i, m.index);
+            assertTrue(durant.contains(m.from) && durant.contains(m.to));
+            assertTrue(m.to > m.from);
+            assertEquals(37.86, m.lat, 1e-9);
+            assertEquals(trace.get(i)[0], m.lon, 1e-6);
+            assertTrue(m.error < MapMatcher.SIGMA);
+        }
+        assertNull(matches.get(0).route);
+        /* Crossing 5 passes it; staying on one edge passes nothing. */
+        List<Long> passed = new ArrayList<>();
+        for (int i = 1; i < matches.size(); i++) {
+            passed.addAll(matches.get(i).route);
+        }
+        assertEquals(Arrays.asList(5L), passed);
+    }
+
+    @Test
+    public void testOneway() {
+        List<double[]> trace = durant(-122.251, -122.269);
+        for (MapMatcher.Match m : MapMatcher.match(graphNamed, trace, RoutingProfile.DRIVING)) {
+            assertTrue(m.to > m.from);
+        }
+        for (MapMatcher.Match m : MapMatcher.match(graphNamed, trace, RoutingProfile.WALKING)) {
+            assertTrue(m.to < m.from);
+        }
+    }
+
+    @Test
+    public void testSkipsFarPoints() {
+        List<double[]> trace = durant(-122.269, -122.251);
+        trace.add(5, new double[]{-122.26, 37.9});
+        List<MapMatcher.Match> matches = MapMatcher.match(graphNamed, trace,
+                RoutingProfile.DISTANCE);
+        assertEquals(trace.size() - 1, matches.size());
+        for (MapMatcher.Match m : matches) {
+            assertTrue(m.index != 5);
+        }
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        int side = 100;
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, side);
+        GraphDB grid = new GraphDB(osm.getPath());
+
+        /* A noisy drive east along row 50, which is matched as it goes. */
+        Random random = new Random(40);
+        MapMatcher matcher = new MapMatcher(grid, RoutingProfile.DRIVING);
+        List<MapMatcher.Match> matches = new ArrayList<>();
+        int points = 0;
+        for (double lon = -122.29; lon < -122.21; lon += 2e-4) {
+            double lat = 37.85 + random.nextGaussian() * 3e-5;
+            List<MapMatcher.Match> decided = matcher.add(lon + random.nextGaussian() * 3e-5,
+                    lat);
+            assertTrue(points - (matches.size() + decided.size()) <= MapMatcher.MAX_LAG + 1);
+            matches.addAll(decided);
+            points++;
+        }
+        matches.addAll(matcher.finish());
+        assertEquals(points, matcher.points());
+
+        assertEquals(points, matches.size());
+        HashSet<Long> passed = new HashSet<>();
+        for (int i = 0; i < matches.size(); i++) {
+            MapMatcher.Match m = matches.get(i);
+            assertEquals(i, m.index);
+            assertEquals(50, (m.from - 1) / side);
+            assertEquals(50, (m.to - 1) / side);
+            if (i > 0) {
+                passed.addAll(m.route);
+            }
+        }
+        /* Every intersection crossed is passed. */
+        for (int c = 11; c <= 89; c++) {
+            assertTrue(passed.contains(50L * side + c + 1));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestMetrics {
+    @Test
+    public void testQuantilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(61);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i += 1) {
+            /* Spread over six orders of magnitude, like latencies from cache hits to renders. */
+            values[i] = (long) Math.pow(10, 3 + 6 * random.nextDouble());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(q * values.length) - 1];
+            long estimate = histogram.valueAt(q);
+            assertEquals("quantile " + q, exact, estimate, exact / 30.0);
+        }
+        assertEquals(values.length, histogram.count());
+        assertEquals(values[values.length - 1], histogram.max());
+        assertEquals(values[values.length - 1], histogram.valueAt(1));
+    }
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 123456789L,
+                Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(value);
+            long lowest = LatencyHistogram.lowest(bucket);
+            assertTrue(value + " below its bucket", lowest <= value);
+            assertTrue(value + " above its bucket",
+                    value - lowest < LatencyHistogram.width(bucket));
+        }
+        assertEquals(0, new LatencyHistogram().valueAt(0.5));
+    }
+
+    @Test
+    public void testScrapeFormat() {
+        LatencyHistogram timer = Metrics.timer("test_scrape_seconds", "A test timer.",
+                "endpoint", "raster");
+        timer.record(2000000);
+        timer.record(2000000);
+        LongAdder counter = Metrics.counter("test_scrape_total", "A test \"counter\".",
+                "cache", "tiles", "result", "hit");
+        counter.add(3);
+        Metrics.gauge("test_scrape_queued", "A test gauge.", () -> 7);
+        assertEquals(timer, Metrics.timer("test_scrape_seconds", "A test timer.",
+                "endpoint", "raster"));
+
+        List<String> lines = Arrays.asList(Metrics.scrape().split("\n"));
+        assertTrue(lines.contains("# TYPE test_scrape_seconds summary"));
+        double median = Double.parseDouble(value(lines,
+                "test_scrape_seconds{endpoint=\"raster\",quantile=\"0.5\"}"));
+        assertEquals(0.002, median, 0.002 / 30);
+        assertEquals("0.004", value(lines, "test_scrape_seconds_sum{endpoint=\"raster\"}"));
+        assertEquals("2", value(lines, "test_scrape_seconds_count{endpoint=\"raster\"}"));
+        assertTrue(lines.contains("# TYPE test_scrape_total counter"));
+        assertEquals("3", value(lines, "test_scrape_total{cache=\"tiles\",result=\"hit\"}"));
+        assertTrue(lines.contains("# TYPE test_scrape_queued gauge"));
+        assertEquals("7", value(lines, "test_scrape_queued"));
+    }
+
+    private static String value(List<String> lines, String sample) {
+        for (String line : lines) {
+            if (line.startsWith(sample + " ")) {
+                return line.substring(sample.length() + 1);
+            }
+        }
+        throw new AssertionError(sample + " not scraped");
+    }
+}
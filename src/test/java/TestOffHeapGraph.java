@@ -0,0 +1,212 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestOffHeapGraph {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testCopiesMatchTheHeapGraph() throws Exception {
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, 12);
+        for (GraphDB g : new GraphDB[]{graphNamed, new GraphDB(osm.getPath())}) {
+            for (boolean hilbertOrder : new boolean[]{false, true}) {
+                DenseGraph heap = new DenseGraph(g, hilbertOrder);
+                String path = folder.newFile().getPath();
+                heap.write(path);
+                assertFalse(heap.isOffHeap());
+                assertSameGraph(heap, heap.copyOffHeap());
+                assertSameGraph(heap, DenseGraph.map(path, hilbertOrder, false));
+            }
+        }
+    }
+
+    @Test
+    public void testRoutesFromAMappedGraph() throws Exception {
+        String path = folder.newFile("tiny-named.dense").getPath();
+        DenseGraph heap = graphNamed.dense;
+        heap.write(path);
+        try {
+            graphNamed.dense = DenseGraph.map(path, false, false);
+            assertEquals(Arrays.asList(6L, 9L, 8L, 7L, 4L),
+                    Router.shortestPath(graphNamed, 6L, 4L, RoutingProfile.DRIVING));
+            assertEquals("Durant Avenue", graphNamed.dense.name(graphNamed.dense.edgeName(
+                    graphNamed.dense.index(4L), graphNamed.dense.index(5L), -1)));
+        } finally {
+            graphNamed.dense = heap;
+        }
+    }
+
+    @Test
+    public void testMappedSnapshotLeavesTheHeapEmpty() throws Exception {
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, 12);
+        GraphDB heap = new GraphDB(osm.getPath());
+        String snapshot = folder.newFile("grid.snapshot").getPath();
+        GraphSnapshot.write(heap, snapshot);
+        /* The first read finds no mapped files, so decodes the vertices and writes them. */
+        assertFalse(GraphSnapshot.read(snapshot, true).denseOnly);
+        GraphDB mapped = GraphSnapshot.read(snapshot, true);
+
+        assertTrue(mapped.denseOnly);
+        assertTrue(mapped.dense.isOffHeap());
+        assertTrue(mapped.edgeIndex.isOffHeap());
+        assertSameAnswers(heap, mapped);
+        try {
+            GraphSnapshot.write(mapped, snapshot);
+            fail("Wrote a snapshot of a graph with no vertices on the heap.");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("off the heap"));
+        }
+    }
+
+    @Test
+    public void testMapRejectsOtherFiles() throws Exception {
+        String path = folder.newFile("grid.dense").getPath();
+        graphNamed.dense.write(path);
+        try {
+            DenseGraph.map(path, true, false);
+            fail("Mapped a graph numbered by OSM ID as one numbered along the curve.");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("another order"));
+        }
+        File other = folder.newFile("other.dense");
+        try (PrintWriter out = new PrintWriter(other, "UTF-8")) {
+            out.println("not a graph");
+        }
+        try {
+            DenseGraph.map(other.getPath(), false, false);
+            fail("Mapped a file that is not a graph.");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("not a dense graph"));
+        }
+    }
+
+    @Test
+    public void testReleasedGraphAnswersFromDense() throws Exception {
+        File osm = folder.newFile("grid.osm.xml");
+        TestDistanceMatrix.writeGrid(osm, 12);
+        GraphDB heap = new GraphDB(osm.getPath());
+        GraphDB released = new GraphDB(osm.getPath());
+        released.dense = released.dense.copyOffHeap();
+        released.edgeIndex = released.edgeIndex.copyOffHeap();
+        released.releaseHeapGraph();
+
+        assertTrue(released.denseOnly);
+        assertTrue(released.edgeIndex.isOffHeap());
+        assertSameAnswers(heap, released);
+    }
+
+    /**
+     * Checks that a graph served from <code>dense</code> alone holds nothing on the heap and
+     * answers vertex, nearest-point and routing queries as a heap graph does.
+     */
+    private static void assertSameAnswers(GraphDB heap, GraphDB served) {
+        assertTrue(served.vertexHashMap.isEmpty());
+        assertTrue(served.ways.isEmpty());
+        assertNull(served.kd);
+        List<Long> vertices = new ArrayList<>();
+        served.vertices().forEach(vertices::add);
+        assertEquals(heap.vertexHashMap.size(), vertices.size());
+        for (long v : vertices) {
+            assertEquals(heap.lon(v), served.lon(v), 0.0);
+            assertEquals(heap.lat(v), served.lat(v), 0.0);
+            assertEquals(heap.adjacent(v), served.adjacent(v));
+            assertEquals(v, served.closest(heap.lon(v), heap.lat(v)));
+        }
+        Random random = new Random(48);
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (long v : vertices) {
+            minLon = Math.min(minLon, heap.lon(v));
+            maxLon = Math.max(maxLon, heap.lon(v));
+            minLat = Math.min(minLat, heap.lat(v));
+            maxLat = Math.max(maxLat, heap.lat(v));
+        }
+        for (int i = 0; i < 500; i += 1) {
+            double lon = minLon + random.nextDouble() * (maxLon - minLon);
+            double lat = minLat + random.nextDouble() * (maxLat - minLat);
+            assertEquals(heap.closest(lon, lat), served.closest(lon, lat));
+            EdgeIndex.Snap expected = heap.snap(lon, lat);
+            EdgeIndex.Snap actual = served.snap(lon, lat);
+            assertEquals(expected.distance, actual.distance, 0.0);
+            assertEquals(expected.lon, actual.lon, 0.0);
+            assertEquals(expected.lat, actual.lat, 0.0);
+        }
+        long start = vertices.get(0);
+        long dest = vertices.get(vertices.size() - 1);
+        assertEquals(Router.shortestPath(heap, start, dest, RoutingProfile.DRIVING),
+                Router.shortestPath(served, start, dest, RoutingProfile.DRIVING));
+        assertEquals(Router.legacyShortestPath(heap, start, dest),
+                Router.legacyShortestPath(served, start, dest));
+    }
+
+    /** Checks that two graphs hold the same vertices, edges, ways and weights. */
+    private static void assertSameGraph(DenseGraph expected, DenseGraph actual) {
+        assertTrue(actual.isOffHeap());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        int ways = 0;
+        for (int v = 0; v < expected.size(); v += 1) {
+            assertEquals(expected.id(v), actual.id(v));
+            assertEquals(v, actual.index(expected.id(v)));
+            assertEquals(expected.lon(v), actual.lon(v), 0.0);
+            assertEquals(expected.lat(v), actual.lat(v), 0.0);
+            assertEquals(expected.planarDistance(v, 0), actual.planarDistance(v, 0), 0.0);
+            assertEquals(expected.edgeStart(v), actual.edgeStart(v));
+            assertEquals(expected.edgeEnd(v), actual.edgeEnd(v));
+        }
+        assertEquals(-1, actual.index(-1));
+        for (int e = 0; e < expected.edgeCount(); e += 1) {
+            assertEquals(expected.edgeTo(e), actual.edgeTo(e));
+            assertEquals(expected.edgeWay(e), actual.edgeWay(e));
+            assertEquals(expected.edgeForward(e), actual.edgeForward(e));
+            assertEquals(expected.edgeBearing(e), actual.edgeBearing(e), 0.0);
+            assertEquals(expected.edgeLength(e), actual.edgeLength(e), 0.0);
+            assertEquals(expected.edgeTwin(e), actual.edgeTwin(e));
+            ways = Math.max(ways, expected.edgeWay(e) + 1);
+        }
+        for (int way = 0; way < ways; way += 1) {
+            assertEquals(expected.wayId(way), actual.wayId(way));
+            assertEquals(expected.wayClass(way), actual.wayClass(way));
+            assertEquals(expected.wayMaxspeed(way), actual.wayMaxspeed(way), 0.0);
+            assertEquals(expected.name(expected.wayName(way)),
+                    actual.name(actual.wayName(way)));
+        }
+        for (RoutingProfile profile : RoutingProfile.PROFILES) {
+            if (profile.timed()) {
+                FloatBuffer w = expected.weights(profile);
+                for (int e = 0; e < expected.edgeCount(); e += 1) {
+                    assertEquals(w.get(e), actual.weights(profile).get(e), 0.0f);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPlanarRouting {
+    private static final int SIDE = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        File osm = folder.newFile("jittered.osm.xml");
+        writeJitteredGrid(osm, SIDE, new Random(46));
+        graph = new GraphDB(osm.getPath());
+    }
+
+    @Test
+    public void testPlanarDistanceNeverOverestimates() {
+        DenseGraph d = graph.dense;
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i += 1) {
+            int v = random.nextInt(d.size());
+            int w = random.nextInt(d.size());
+            double exact = GraphDB.distance(d.lon(v), d.lat(v), d.lon(w), d.lat(w));
+            double bound = d.planarDistance(v, w);
+            assertTrue(bound <= exact);
+            /* Tight enough to guide the search as well as the great-circle distance does. */
+            assertTrue(bound >= exact * 0.999);
+        }
+    }
+
+    @Test
+    public void testSamePathsAsLegacySearch() {
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i += 1) {
+            long start = random.nextInt(SIDE * SIDE) + 1;
+            long dest = random.nextInt(SIDE * SIDE) + 1;
+            List<Long> expected = Router.legacyShortestPath(graph, start, dest);
+            assertEquals(expected, Router.shortestPath(graph, start, dest));
+        }
+        assertEquals(List.of(7L), Router.shortestPath(graph, 7, 7));
+    }
+
+    /** Writes a grid of streets whose intersections are moved randomly off the lattice. */
+    static void writeJitteredGrid(File file, int side, Random random) throws Exception {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version='1.0' encoding='UTF-8'?>");
+            out.println("<osm version=\"0.6\" generator=\"test\">");
+            for (int r = 0; r < side; r++) {
+                for (int c = 0; c < side; c++) {
+                    out.printf("<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>%n", r * side + c + 1,
+                            37.8 + (r + 0.4 * random.nextDouble()) * 1e-3,
+                            -122.3 + (c + 0.4 * random.nextDouble()) * 1e-3);
+                }
+            }
+            long way = 1000000;
+            for (int i = 0; i < side; i++) {
+                out.printf("<way id=\"%d\">%n", way++);
+                for (int c = 0; c < side; c++) {
+                    out.printf("<nd ref=\"%d\"/>%n", i * side + c + 1);
+                }
+                out.println("<tag k=\"highway\" v=\"residential\"/></way>");
+                out.printf("<way id=\"%d\">%n", way++);
+                for (int r = 0; r < side; r++) {
+                    out.printf("<nd ref=\"%d\"/>%n", r * side + i + 1);
+                }
+                out.println("<tag k=\"highway\" v=\"tertiary\"/></way>");
+            }
+            out.println("</osm>");
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestRouteCache {
+
+    @Test
+    public void testHitsByVerticesAndProfile() {
+        RouteCache cache = new RouteCache(8);
+        RouteCache.Route route = new RouteCache.Route(Arrays.asList(1L, 2L, 3L), "Start on A");
+        cache.put(1, 3, RoutingProfile.DRIVING, route);
+        assertSame(route, cache.get(1, 3, RoutingProfile.DRIVING));
+        assertNull(cache.get(3, 1, RoutingProfile.DRIVING));
+        assertNull(cache.get(1, 3, RoutingProfile.WALKING));
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RouteCache cache = new RouteCache(2);
+        RouteCache.Route route = new RouteCache.Route(Arrays.asList(1L, 2L), "");
+        cache.put(1, 2, RoutingProfile.DISTANCE, route);
+        cache.put(2, 3, RoutingProfile.DISTANCE, route);
+        /* Using the first route makes the second the least recently used. */
+        cache.get(1, 2, RoutingProfile.DISTANCE);
+        cache.put(3, 4, RoutingProfile.DISTANCE, route);
+        assertEquals(2, cache.size());
+        assertSame(route, cache.get(1, 2, RoutingProfile.DISTANCE));
+        assertNull(cache.get(2, 3, RoutingProfile.DISTANCE));
+        assertSame(route, cache.get(3, 4, RoutingProfile.DISTANCE));
+    }
+
+    @Test
+    public void testClearForgetsEverything() {
+        RouteCache cache = new RouteCache(8);
+        cache.put(1, 2, RoutingProfile.DISTANCE,
+                new RouteCache.Route(Arrays.asList(1L, 2L), ""));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1, 2, RoutingProfile.DISTANCE));
+    }
+}
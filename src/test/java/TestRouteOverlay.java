@@ -0,0 +1,102 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestRouteOverlay {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static final int DEPTH = 7;
+    private static GraphDB graphNamed;
+
+    private RouteOverlay overlay;
+    private long routeId;
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+        overlay = new RouteOverlay(graphNamed);
+        routeId = overlay.register(Arrays.asList(6L, 9L, 8L, 7L, 4L));
+    }
+
+    @Test
+    public void testRejectsUnknownRoutesAndTiles() {
+        try {
+            overlay.tile(routeId + 1, "d0_x0_y0.png");
+            fail("Served a tile of a route that was never registered.");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("not found"));
+        }
+        for (String name : new String[]{null, "", "d1_x0.png", "d1_x0_y0.jpg", "../d1_x0_y0.png"}) {
+            try {
+                overlay.tile(routeId, name);
+                fail("Served the malformed tile " + name + ".");
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage().contains("unable to parse tile"));
+            }
+        }
+    }
+
+    @Test
+    public void testTilesAwayFromTheRouteAreShared() throws Exception {
+        String crossed = crossedTile(6L);
+        int edge = (1 << DEPTH) - 1;
+        byte[] empty = overlay.tile(routeId, "d" + DEPTH + "_x0_y0.png");
+        assertSame(empty, overlay.tile(routeId, "d" + DEPTH + "_x" + edge + "_y" + edge + ".png"));
+        assertNotSame(empty, overlay.tile(routeId, crossed));
+        assertEquals(0, opaquePixels(empty));
+    }
+
+    @Test
+    public void testCrossedTileIsDrawn() throws Exception {
+        byte[] tile = overlay.tile(routeId, crossedTile(6L));
+        assertTrue(opaquePixels(tile) > 0);
+        /* The cached tile is served again. */
+        assertSame(tile, overlay.tile(routeId, crossedTile(6L)));
+    }
+
+    @Test
+    public void testRemovedRoutesAreNotServed() {
+        String crossed = crossedTile(6L);
+        overlay.tile(routeId, crossed);
+        overlay.remove(routeId);
+        try {
+            overlay.tile(routeId, crossed);
+            fail("Served a tile of a removed route.");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("not found"));
+        }
+    }
+
+    /** Returns the name of the tile at <code>DEPTH</code> holding a vertex. */
+    private static String crossedTile(long id) {
+        double lonDelta = MapServer.ROOT_LON_DELTA / (1 << DEPTH);
+        double latDelta = MapServer.ROOT_LAT_DELTA / (1 << DEPTH);
+        int x = (int) ((graphNamed.lon(id) - MapServer.ROOT_ULLON) / lonDelta);
+        int y = (int) ((MapServer.ROOT_ULLAT - graphNamed.lat(id)) / latDelta);
+        return "d" + DEPTH + "_x" + x + "_y" + y + ".png";
+    }
+
+    private static int opaquePixels(byte[] png) throws Exception {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(png));
+        int count = 0;
+        for (int y = 0; y < img.getHeight(); y += 1) {
+            for (int x = 0; x < img.getWidth(); x += 1) {
+                if (img.getRGB(x, y) >>> 24 != 0) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSingleFlight {
+
+    @Test
+    public void testConcurrentDuplicatesShareOneComputation() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(pool.submit(() -> flight.run("d2_x0_y0.png/2x3", () -> {
+                computations.incrementAndGet();
+                release.await(10, TimeUnit.SECONDS);
+                return "rendered";
+            })));
+        }
+        /* Let every other caller join the in-flight computation before it completes; a
+           request is counted before it looks for one, a coalesced one only once it has. */
+        while (flight.coalescedCount() < callers - 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("rendered", result.get());
+        }
+        pool.shutdown();
+        assertEquals(1, computations.get());
+        assertEquals(callers - 1, flight.coalescedCount());
+
+        /* Finished computations are not cached. */
+        assertEquals("again", flight.run("d2_x0_y0.png/2x3", () -> "again"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFailureIsNotRemembered() throws Exception {
+        SingleFlight<Long, Long> flight = new SingleFlight<>();
+        try {
+            flight.run(1L, () -> {
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException e) {
+            assertEquals(Long.valueOf(2L), flight.run(1L, () -> 2L));
+        }
+        flight.run(1L, () -> {
+            throw new IllegalArgumentException();
+        });
+    }
+}
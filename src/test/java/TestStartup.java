@@ -0,0 +1,70 @@
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestStartup {
+    @Test
+    public void testReportsEachStage() throws Exception {
+        Startup startup = new Startup("graph", "tiles");
+        assertFalse(startup.isReady());
+        assertEquals("pending", startup.status().stages.get(0).state);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        startup.run("graph", () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        startup.run("tiles", () -> { });
+        running.await();
+        Startup.Status status = startup.status();
+        assertFalse(status.ready);
+        assertEquals("graph", status.stages.get(0).name);
+        assertEquals("running", status.stages.get(0).state);
+        assertFalse(startup.isReady("graph"));
+
+        release.countDown();
+        startup.await();
+        status = startup.status();
+        assertTrue(status.ready);
+        for (Startup.StageStatus stage : status.stages) {
+            assertEquals("ready", stage.state);
+            assertTrue(stage.seconds >= 0);
+            assertNull(stage.error);
+        }
+        assertFalse(startup.hasFailed());
+    }
+
+    @Test
+    public void testReportsAFailedStage() throws Exception {
+        Startup startup = new Startup("graph");
+        startup.run("graph", () -> {
+            throw new IllegalStateException("no graph");
+        });
+        try {
+            startup.await();
+            fail("Waited out a failed stage.");
+        } catch (IllegalStateException expected) {
+            assertEquals("no graph", expected.getCause().getMessage());
+        }
+        assertTrue(startup.hasFailed());
+        assertFalse(startup.isReady());
+        assertEquals("failed", startup.status().stages.get(0).state);
+        assertTrue(startup.status().stages.get(0).error.contains("no graph"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsUnknownStages() {
+        new Startup("graph").run("tiles", () -> { });
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the driving profile on the hand-written 3x3 grid, where Durant Avenue (4-5-6) is
+ * one-way eastbound and Dwight Way (7-8-9) is the fastest street.
+ */
+public class TestTravelTimeRouting {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testDistanceProfileIsUnchanged() {
+        assertEquals(Router.shortestPath(graphNamed, 6L, 4L),
+                Router.shortestPath(graphNamed, 6L, 4L, RoutingProfile.DISTANCE));
+        assertEquals(Arrays.asList(6L, 5L, 4L),
+                Router.shortestPath(graphNamed, 6L, 4L, RoutingProfile.DISTANCE));
+    }
+
+    @Test
+    public void testOneway() {
+        /* Westbound on Durant is not allowed, so drive around by the faster Dwight Way. */
+        assertEquals(Arrays.asList(6L, 9L, 8L, 7L, 4L),
+                Router.shortestPath(graphNamed, 6L, 4L, RoutingProfile.DRIVING));
+        assertEquals(Arrays.asList(4L, 5L, 6L),
+                Router.shortestPath(graphNamed, 4L, 6L, RoutingProfile.DRIVING));
+    }
+
+    @Test
+    public void testProfiles() {
+        /* Walkers may go either way along Durant; cyclists may not. */
+        assertEquals(Arrays.asList(6L, 5L, 4L),
+                Router.shortestPath(graphNamed, 6L, 4L, RoutingProfile.WALKING));
+        assertTrue(!Router.shortestPath(graphNamed, 6L, 4L, RoutingProfile.CYCLING)
+                .contains(5L));
+        assertEquals(RoutingProfile.CYCLING, RoutingProfile.forName("cycling"));
+        assertEquals(RoutingProfile.DISTANCE, RoutingProfile.forName(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProfile() {
+        RoutingProfile.forName("flying");
+    }
+
+    @Test
+    public void testPrecomputedWeights() {
+        DenseGraph d = graphNamed.dense;
+        int v5 = d.index(5L);
+        int v4 = d.index(4L);
+        int v6 = d.index(6L);
+        for (int e = d.edgeStart(v5); e < d.edgeEnd(v5); e++) {
+            float driving = d.weights(RoutingProfile.DRIVING).get(e);
+            float walking = d.weights(RoutingProfile.WALKING).get(e);
+            if (d.edgeTo(e) == v4) {
+                assertEquals(Float.POSITIVE_INFINITY, driving, 0);
+            } else if (d.edgeTo(e) == v6) {
+                /* Half a mile of residential street at 25 and at 3 miles per hour. */
+                double miles = GraphDB.distance(-122.26, 37.86, -122.25, 37.86);
+                assertEquals(miles / 25 * 3600, driving, 1e-3);
+                assertEquals(miles / 3 * 3600, walking, 1e-2);
+            }
+        }
+    }
+
+    @Test
+    public void testPrefersFastRoadsAndFewTurns() {
+        /* All monotone routes are equally long; College and Dwight are fastest, one turn. */
+        assertEquals(Arrays.asList(1L, 4L, 7L, 8L, 9L),
+                Router.shortestPath(graphNamed, 1L, 9L, RoutingProfile.DRIVING));
+        assertEquals(Arrays.asList(5L),
+                Router.shortestPath(graphNamed, 5L, 5L, RoutingProfile.DRIVING));
+    }
+
+    @Test
+    public void testTurnPenalties() {
+        RoutingProfile driving = RoutingProfile.DRIVING;
+        assertEquals(0, driving.turnSeconds(5), 0);
+        assertTrue(driving.turnSeconds(-90) > driving.turnSeconds(90));
+        assertTrue(driving.turnSeconds(179) > driving.turnSeconds(-150));
+        assertEquals(driving.turnSeconds(-179), driving.turnSeconds(181), 0);
+    }
+
+    @Test
+    public void testWayTags() {
+        assertEquals(35, GraphDB.Way.parseMaxspeed("35 mph"), 1e-9);
+        assertEquals(31.06855, GraphDB.Way.parseMaxspeed("50"), 1e-9);
+        assertTrue(Double.isNaN(GraphDB.Way.parseMaxspeed("signals")));
+        assertEquals(1, GraphDB.Way.parseOneway("yes", "residential"));
+        assertEquals(-1, GraphDB.Way.parseOneway("-1", "residential"));
+        assertEquals(0, GraphDB.Way.parseOneway("no", "motorway"));
+        assertEquals(1, GraphDB.Way.parseOneway(null, "motorway"));
+    }
+}
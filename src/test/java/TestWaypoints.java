@@ -0,0 +1,102 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests routes through several waypoints on the hand-written 3x3 grid, and the choice of the
+ * order to visit them in.
+ */
+public class TestWaypoints {
+    private static final String OSM_DB_PATH_NAMED = "tiny-named.osm.xml";
+    private static GraphDB graphNamed;
+
+    @Before
+    public void setUp() throws Exception {
+        if (graphNamed == null) {
+            graphNamed = new GraphDB(OSM_DB_PATH_NAMED);
+        }
+    }
+
+    @Test
+    public void testLegsAreJoined() {
+        for (RoutingProfile profile : RoutingProfile.PROFILES) {
+            List<Long> expected = new ArrayList<>(Router.shortestPath(graphNamed, 1L, 5L,
+                    profile));
+            List<Long> second = Router.shortestPath(graphNamed, 5L, 9L, profile);
+            expected.addAll(second.subList(1, second.size()));
+            assertEquals(expected, Router.shortestPath(graphNamed, Arrays.asList(1L, 5L, 9L),
+                    profile));
+        }
+        assertEquals(Arrays.asList(5L), Router.shortestPath(graphNamed, Arrays.asList(5L),
+                RoutingProfile.DRIVING));
+        assertEquals(Arrays.asList(4L, 5L, 6L), Router.shortestPath(graphNamed,
+                Arrays.asList(4L, 5L, 5L, 6L), RoutingProfile.DRIVING));
+    }
+
+    @Test
+    public void testOptimizeOrder() {
+        List<Long> stops = Arrays.asList(1L, 9L, 2L, 3L);
+        assertArrayEquals(new int[]{0, 2, 3, 1},
+                Router.optimizeOrder(graphNamed, stops, RoutingProfile.DISTANCE, false));
+        assertArrayEquals(new int[]{0, 2, 1, 3},
+                Router.optimizeOrder(graphNamed, Arrays.asList(1L, 3L, 2L, 9L),
+                        RoutingProfile.DISTANCE, true));
+    }
+
+    @Test
+    public void testStopsOnALine() {
+        double[] x = {0, 5, 1, 4, 2, 3};
+        double[][] costs = new double[x.length][x.length];
+        for (int i = 0; i < x.length; i++) {
+            for (int j = 0; j < x.length; j++) {
+                costs[i][j] = Math.abs(x[i] - x[j]);
+            }
+        }
+        assertArrayEquals(new int[]{0, 2, 4, 5, 3, 1}, StopOrder.optimize(costs, false));
+        int[] order = StopOrder.optimize(costs, true);
+        assertEquals(0, order[0]);
+        assertEquals(x.length - 1, order[x.length - 1]);
+    }
+
+    @Test
+    public void testManyStops() {
+        Random random = new Random(38);
+        int n = 50;
+        double[][] points = new double[n][2];
+        for (double[] p : points) {
+            p[0] = random.nextDouble();
+            p[1] = random.nextDouble();
+        }
+        double[][] costs = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                costs[i][j] = Math.hypot(points[i][0] - points[j][0],
+                        points[i][1] - points[j][1]);
+            }
+        }
+        int[] identity = new int[n];
+        for (int i = 0; i < n; i++) {
+            identity[i] = i;
+        }
+        for (boolean keepLast : new boolean[]{false, true}) {
+            int[] order = StopOrder.optimize(costs, keepLast);
+            int[] sorted = order.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(identity, sorted);
+            assertEquals(0, order[0]);
+            if (keepLast) {
+                assertEquals(n - 1, order[n - 1]);
+            }
+            /* A random order of uniform points costs about n / 2; a good tour far less. */
+            assertTrue(StopOrder.cost(costs, order) < StopOrder.cost(costs, identity) / 3);
+        }
+    }
+}